@@ -0,0 +1,19 @@
+package com.campus.card.admin.config;
+
+import org.hibernate.boot.MetadataBuilder;
+import org.hibernate.boot.spi.MetadataBuilderContributor;
+import org.hibernate.dialect.function.SQLFunctionTemplate;
+import org.hibernate.type.StandardBasicTypes;
+
+/**
+ * 注册 Criteria/JPQL 中可用的 MySQL 专有函数。
+ * 通过 spring.jpa.properties.hibernate.metadata_builder_contributor 启用。
+ */
+public class MysqlFunctionContributor implements MetadataBuilderContributor {
+    @Override
+    public void contribute(MetadataBuilder metadataBuilder) {
+        // 全文检索（配合 ngram 解析器的 FULLTEXT 索引），返回相关度，> 0 表示命中
+        metadataBuilder.applySqlFunction("match_against",
+                new SQLFunctionTemplate(StandardBasicTypes.DOUBLE, "match(?1) against (?2 in boolean mode)"));
+    }
+}
@@ -1,6 +1,8 @@
 package com.campus.card.admin.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -14,6 +16,11 @@ public class WebMvcConfig implements WebMvcConfigurer {
     @Autowired
     private UserRepository userRepository;
 
+    // 流式导出（StreamingResponseBody）等异步请求的超时；默认 30 秒不足以导出大范围数据。
+    // SSE 推送（SseEmitter 显式传 0）不受此限制，失效连接由心跳剔除
+    @Value("${web.async.request-timeout-ms:1800000}")
+    private long asyncRequestTimeoutMs;
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
@@ -24,6 +31,11 @@ public class WebMvcConfig implements WebMvcConfigurer {
                 .maxAge(3600);
     }
 
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(asyncRequestTimeoutMs);
+    }
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new PermissionInterceptor(userRepository))
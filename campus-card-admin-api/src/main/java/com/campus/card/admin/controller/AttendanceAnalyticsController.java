@@ -11,10 +11,13 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api/v1/attendance/analytics")
@@ -90,19 +93,33 @@ public class AttendanceAnalyticsController {
         return Result.ok(analyticsService.absence(startDate, endDate, classId, studentId));
     }
 
-    @GetMapping(value = "/export", produces = "text/csv")
-    public ResponseEntity<byte[]> export(
+    // 导出：边查边写，不在内存中拼接整个文件；请求头 Accept-Encoding 含 gzip 时压缩输出
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(
             @RequestParam String type,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
             @RequestParam(required = false) Long classId,
-            @RequestParam(required = false) Long studentId
+            @RequestParam(required = false) Long studentId,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding
     ) {
-        String csv = analyticsService.exportCsv(type, startDate, endDate, classId, studentId);
-        byte[] bytes = csv.getBytes(StandardCharsets.UTF_8);
+        boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase(Locale.ROOT).contains("gzip");
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(new MediaType("text", "csv", StandardCharsets.UTF_8));
         headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=attendance-" + type + ".csv");
-        return new ResponseEntity<>(bytes, headers, HttpStatus.OK);
+        if (gzip) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        StreamingResponseBody body = out -> {
+            if (gzip) {
+                GZIPOutputStream gz = new GZIPOutputStream(out, 8192);
+                analyticsService.exportCsv(type, startDate, endDate, classId, studentId, gz);
+                gz.finish();
+            } else {
+                analyticsService.exportCsv(type, startDate, endDate, classId, studentId, out);
+            }
+        };
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
     }
 }
\ No newline at end of file
@@ -8,6 +8,7 @@ import com.campus.card.admin.queue.AttendanceQueueProducer;
 import com.campus.card.admin.service.OrgScopeService;
 import com.campus.card.admin.repository.UserRepository;
 import com.campus.card.admin.domain.User;
+import com.campus.card.common.result.CursorPageResult;
 import com.campus.card.common.result.PageResult;
 import com.campus.card.common.result.Result;
 import org.springframework.format.annotation.DateTimeFormat;
@@ -21,12 +22,15 @@ import java.util.List;
 @RestController
 @RequestMapping("/api/v1/attendance")
 public class AttendanceController {
+    private static final String NDJSON = "application/x-ndjson";
 
     private final AttendanceService attendanceService;
     private final AttendanceStreamService attendanceStreamService;
     private final com.campus.card.admin.queue.AttendanceQueueProducer queueProducer;
     private final OrgScopeService orgScopeService;
     private final UserRepository userRepository;
+    private final com.campus.card.admin.queue.AttendanceQueueMetrics queueMetrics;
+    private final com.campus.card.admin.service.AttendanceReclassifier reclassifier;
 
     public AttendanceController(AttendanceService attendanceService, AttendanceStreamService attendanceStreamService) {
         this.attendanceService = attendanceService;
@@ -34,18 +38,24 @@ public class AttendanceController {
         this.queueProducer = null; // will be autowired via another constructor
         this.orgScopeService = null;
         this.userRepository = null;
+        this.queueMetrics = null;
+        this.reclassifier = null;
     }
 
     @org.springframework.beans.factory.annotation.Autowired
     public AttendanceController(AttendanceService attendanceService, AttendanceStreamService attendanceStreamService,
                                 com.campus.card.admin.queue.AttendanceQueueProducer queueProducer,
                                 OrgScopeService orgScopeService,
-                                UserRepository userRepository) {
+                                UserRepository userRepository,
+                                com.campus.card.admin.queue.AttendanceQueueMetrics queueMetrics,
+                                com.campus.card.admin.service.AttendanceReclassifier reclassifier) {
         this.attendanceService = attendanceService;
         this.attendanceStreamService = attendanceStreamService;
         this.queueProducer = queueProducer;
         this.orgScopeService = orgScopeService;
         this.userRepository = userRepository;
+        this.queueMetrics = queueMetrics;
+        this.reclassifier = reclassifier;
     }
 
     @GetMapping("/records")
@@ -60,6 +70,54 @@ public class AttendanceController {
             @RequestHeader(value = "Authorization", required = false) String auth
     ) {
         // 解析当前用户并计算数据范围
+        RecordScope scope = recordScope(auth);
+        return Result.ok(attendanceService.pageList(page, size, studentId, classId, startDate, endDate, status,
+                scope.classIds, scope.studentIds));
+    }
+
+    // 游标分页：适合深翻页与全量遍历，cursor 取上一页返回的 nextCursor
+    @GetMapping("/records/cursor")
+    public Result<CursorPageResult<AttendanceRecord>> cursorRecords(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "10") @Min(1) int size,
+            @RequestParam(required = false) Long studentId,
+            @RequestParam(required = false) Long classId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(required = false) String status,
+            @RequestHeader(value = "Authorization", required = false) String auth
+    ) {
+        RecordScope scope = recordScope(auth);
+        try {
+            return Result.ok(attendanceService.cursorList(cursor, size, studentId, classId, startDate, endDate, status,
+                    scope.classIds, scope.studentIds));
+        } catch (Exception e) {
+            return Result.error(e.getMessage(), 400);
+        }
+    }
+
+    // 记录列表的数据范围：班级/学生 id 列表，为 null 表示该维度不限
+    private static final class RecordScope {
+        private java.util.List<Long> classIds;
+        private java.util.Set<Long> studentIds;
+    }
+
+    private RecordScope recordScope(String auth) {
+        RecordScope scope = new RecordScope();
+        OrgScopeService.EffectiveScope eff = resolveScope(auth);
+        if (eff != null) {
+            if (eff.classIds != null && !eff.classIds.isEmpty()) {
+                scope.classIds = new java.util.ArrayList<>(eff.classIds);
+            }
+            if (eff.studentIds != null && !eff.studentIds.isEmpty()) {
+                scope.studentIds = eff.studentIds;
+            }
+        }
+        return scope;
+    }
+
+    // 按 Authorization 中的 admin-token-{userId} 计算数据范围；无法解析或查询异常时返回 null（不限）
+    private OrgScopeService.EffectiveScope resolveScope(String auth) {
         Long userId = null;
         if (auth != null && !auth.isEmpty()) {
             String token = auth.trim();
@@ -69,28 +127,17 @@ public class AttendanceController {
                 try { userId = Long.parseLong(tail); } catch (Exception ignored) {}
             }
         }
-        java.util.List<Long> allowedClassIds = null;
-        java.util.Set<Long> allowedStudentIds = null;
         if (userId != null && orgScopeService != null && userRepository != null) {
             try {
                 java.util.Optional<User> ou = userRepository.findByIdWithRolesPermsMenus(userId);
                 if (ou.isPresent()) {
-                    OrgScopeService.EffectiveScope eff = orgScopeService.resolveForUser(ou.get());
-                    if (eff != null) {
-                        if (eff.classIds != null && !eff.classIds.isEmpty()) {
-                            allowedClassIds = new java.util.ArrayList<>(eff.classIds);
-                        }
-                        if (eff.studentIds != null && !eff.studentIds.isEmpty()) {
-                            allowedStudentIds = eff.studentIds;
-                        }
-                    }
+                    return orgScopeService.resolveForUser(ou.get());
                 }
             } catch (Exception ignored) {
                 // 数据范围表可能尚未创建或查询异常，忽略以保证列表正常返回
             }
         }
-        return Result.ok(attendanceService.pageList(page, size, studentId, classId, startDate, endDate, status,
-                allowedClassIds, allowedStudentIds));
+        return null;
     }
 
     @GetMapping("/statistics")
@@ -123,6 +170,12 @@ public class AttendanceController {
         return Result.ok(attendanceService.saveRule(rule));
     }
 
+    // 规则/设置变更后立即按新规则重判历史记录（默认由定时任务执行），返回回写条数
+    @PostMapping("/rules/reclassify")
+    public Result<Integer> reclassify() {
+        return Result.ok(reclassifier.run());
+    }
+
     // 新增：考勤设置（节假日/调休/时段/请假类型/旷课规则）
     @GetMapping("/settings")
     public Result<AttendanceService.AttendanceSettings> getSettings() {
@@ -149,12 +202,28 @@ public class AttendanceController {
 
     @PostMapping("/ingest/queue/card/bulk")
     public Result<String> enqueueCardBulk(@RequestBody List<CardIngestReq> reqs) {
-        if (reqs != null) {
-            for (CardIngestReq r : reqs) {
-                queueProducer.enqueueCard(r);
-            }
+        try {
+            return Result.ok("queued:" + queueProducer.enqueueCards(reqs));
+        } catch (IllegalArgumentException e) {
+            return Result.error("批量上传失败: " + e.getMessage(), 400);
+        }
+    }
+
+    // 网关设备批量上传：NDJSON 每行一条刷卡记录，支持 Content-Encoding: gzip
+    @PostMapping(value = "/ingest/queue/card/bulk", consumes = NDJSON)
+    public Result<String> enqueueCardNdjson(javax.servlet.http.HttpServletRequest request) {
+        try {
+            List<CardIngestReq> reqs = queueProducer.readNdjson(requestBody(request), CardIngestReq.class);
+            return Result.ok("queued:" + queueProducer.enqueueCards(reqs));
+        } catch (IllegalArgumentException | java.io.IOException e) {
+            return Result.error("批量上传失败: " + e.getMessage(), 400);
         }
-        return Result.ok("queued:" + (reqs == null ? 0 : reqs.size()));
+    }
+
+    // 入队消费指标：各分区积压、最近延迟与吞吐
+    @GetMapping("/ingest/queue/metrics")
+    public Result<com.campus.card.admin.queue.AttendanceQueueMetrics.QueueSnapshot> queueMetrics() {
+        return Result.ok(queueMetrics.snapshot());
     }
 
     @PostMapping("/ingest/face")
@@ -176,17 +245,43 @@ public class AttendanceController {
 
     @PostMapping("/ingest/queue/face/bulk")
     public Result<String> enqueueFaceBulk(@RequestBody List<FaceIngestReq> reqs) {
-        if (reqs != null) {
-            for (FaceIngestReq r : reqs) {
-                queueProducer.enqueueFace(r);
-            }
+        try {
+            return Result.ok("queued:" + queueProducer.enqueueFaces(reqs));
+        } catch (IllegalArgumentException e) {
+            return Result.error("批量上传失败: " + e.getMessage(), 400);
         }
-        return Result.ok("queued:" + (reqs == null ? 0 : reqs.size()));
     }
 
+    @PostMapping(value = "/ingest/queue/face/bulk", consumes = NDJSON)
+    public Result<String> enqueueFaceNdjson(javax.servlet.http.HttpServletRequest request) {
+        try {
+            List<FaceIngestReq> reqs = queueProducer.readNdjson(requestBody(request), FaceIngestReq.class);
+            return Result.ok("queued:" + queueProducer.enqueueFaces(reqs));
+        } catch (IllegalArgumentException | java.io.IOException e) {
+            return Result.error("批量上传失败: " + e.getMessage(), 400);
+        }
+    }
+
+    private static java.io.InputStream requestBody(javax.servlet.http.HttpServletRequest request) throws java.io.IOException {
+        java.io.InputStream in = request.getInputStream();
+        String encoding = request.getHeader("Content-Encoding");
+        return encoding != null && encoding.toLowerCase(java.util.Locale.ROOT).contains("gzip") ? new java.util.zip.GZIPInputStream(in) : in;
+    }
+
+    // 实时推送：可按学校/班级/设备/状态过滤，受数据范围约束；断线重连携带 Last-Event-ID 补发缺失事件
     @GetMapping("/stream")
-    public SseEmitter stream() {
-        return attendanceStreamService.subscribe();
+    public SseEmitter stream(@RequestParam(required = false) Long schoolId,
+                             @RequestParam(required = false) Long classId,
+                             @RequestParam(required = false) Long deviceId,
+                             @RequestParam(required = false) String status,
+                             @RequestParam(required = false) String lastEventId,
+                             @RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader,
+                             @RequestHeader(value = "Authorization", required = false) String auth) {
+        OrgScopeService.EffectiveScope eff = resolveScope(auth);
+        // EventSource 无法自定义请求头，首次连接时也允许以查询参数传入
+        String resumeFrom = lastEventIdHeader != null ? lastEventIdHeader : lastEventId;
+        return attendanceStreamService.subscribe(schoolId, classId, deviceId, status,
+                eff != null ? eff.classIds : null, eff != null ? eff.studentIds : null, resumeFrom);
     }
 
     public static class CardIngestReq {
@@ -3,13 +3,21 @@ package com.campus.card.admin.controller;
 import com.campus.card.admin.domain.Card;
 import com.campus.card.admin.domain.CardType;
 import com.campus.card.admin.domain.CardTx;
+import com.campus.card.admin.ledger.CardLedgerException;
 import com.campus.card.admin.service.CardService;
+import com.campus.card.common.result.CursorPageResult;
 import com.campus.card.common.result.PageResult;
 import com.campus.card.common.result.Result;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.constraints.Min;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -51,11 +59,30 @@ public class CardController {
             @RequestParam(defaultValue = "1") @Min(1) int page,
             @RequestParam(defaultValue = "10") @Min(1) int size,
             @RequestParam(required = false) String cardNo,
+            @RequestParam(required = false) String cardNoMode, // contains（默认）/ prefix
             @RequestParam(required = false) String holderType,
             @RequestParam(required = false) String holderId,
             @RequestParam(required = false) String status
     ) {
-        return Result.ok(cardService.pageList(page, size, cardNo, holderType, holderId, status));
+        return Result.ok(cardService.pageList(page, size, cardNo, cardNoMode, holderType, holderId, status));
+    }
+
+    // 游标分页：适合深翻页与全量遍历，cursor 取上一页返回的 nextCursor
+    @GetMapping("/cursor")
+    public Result<CursorPageResult<Card>> cursorList(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "10") @Min(1) int size,
+            @RequestParam(required = false) String cardNo,
+            @RequestParam(required = false) String cardNoMode,
+            @RequestParam(required = false) String holderType,
+            @RequestParam(required = false) String holderId,
+            @RequestParam(required = false) String status
+    ) {
+        try {
+            return Result.ok(cardService.cursorList(cursor, size, cardNo, cardNoMode, holderType, holderId, status));
+        } catch (Exception e) {
+            return Result.error(e.getMessage(), 400);
+        }
     }
 
     @PostMapping("/issue")
@@ -123,6 +150,8 @@ public class CardController {
         try {
             cardService.cancel(req);
             return Result.ok(null);
+        } catch (CardLedgerException e) {
+            return Result.error(e.getMessage(), e.getCode());
         } catch (Exception e) {
             return Result.error(e.getMessage(), 400);
         }
@@ -132,6 +161,17 @@ public class CardController {
     public Result<CardService.ConsumeResult> consume(@RequestBody CardService.ConsumeReq req) {
         try {
             return Result.ok(cardService.consume(req));
+        } catch (CardLedgerException e) {
+            return Result.error(e.getMessage(), e.getCode());
+        } catch (Exception e) {
+            return Result.error(e.getMessage(), 400);
+        }
+    }
+
+    @PostMapping("/consume/batch")
+    public Result<CardService.BatchConsumeResult> consumeBatch(@RequestBody CardService.BatchConsumeReq req) {
+        try {
+            return Result.ok(cardService.batchConsume(req));
         } catch (Exception e) {
             return Result.error(e.getMessage(), 400);
         }
@@ -156,10 +196,46 @@ public class CardController {
         return Result.ok(cardService.getTransactions(cardNo, type, startTime, endTime));
     }
 
+    @GetMapping("/{cardNo}/transactions/cursor")
+    public Result<CursorPageResult<CardTx>> cursorTransactions(
+            @PathVariable String cardNo,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") @Min(1) int size,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime
+    ) {
+        try {
+            return Result.ok(cardService.cursorTransactions(cardNo, type, startTime, endTime, cursor, size));
+        } catch (Exception e) {
+            return Result.error(e.getMessage(), 400);
+        }
+    }
+
+    // 流水导出：format=csv（默认）或 ndjson，边查边写，不在内存中汇总
+    @GetMapping("/{cardNo}/transactions/export")
+    public ResponseEntity<StreamingResponseBody> exportTransactions(
+            @PathVariable String cardNo,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime
+    ) {
+        boolean ndjson = "ndjson".equalsIgnoreCase(format);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(ndjson ? new MediaType("application", "x-ndjson", StandardCharsets.UTF_8)
+                : new MediaType("text", "csv", StandardCharsets.UTF_8));
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=card-tx-" + cardNo + (ndjson ? ".ndjson" : ".csv"));
+        StreamingResponseBody body = out -> cardService.exportTransactions(cardNo, type, startTime, endTime, format, out);
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
     @PostMapping("/recharge")
     public Result<CardService.RechargeResult> recharge(@RequestBody CardService.RechargeReq req) {
         try {
             return Result.ok(cardService.recharge(req));
+        } catch (CardLedgerException e) {
+            return Result.error(e.getMessage(), e.getCode());
         } catch (Exception e) {
             return Result.error(e.getMessage(), 400);
         }
@@ -169,6 +245,8 @@ public class CardController {
     public Result<CardService.ReplaceResult> replace(@RequestBody CardService.ReplaceReq req) {
         try {
             return Result.ok(cardService.replaceCard(req));
+        } catch (CardLedgerException e) {
+            return Result.error(e.getMessage(), e.getCode());
         } catch (Exception e) {
             return Result.error(e.getMessage(), 400);
         }
@@ -1,10 +1,13 @@
 package com.campus.card.admin.controller;
 
+import com.campus.card.admin.service.ConsumeRollupService;
 import com.campus.card.admin.service.ReportService;
 import com.campus.card.admin.service.ReportService.ClassConsumeResp;
 import com.campus.card.admin.service.ReportService.DayStat;
+import com.campus.card.admin.service.ReportService.HourStat;
 import com.campus.card.admin.service.ReportService.MonthlyResp;
 import com.campus.card.admin.service.ReportService.PersonalResp;
+import com.campus.card.admin.service.ReportService.RankingGroup;
 import com.campus.card.admin.service.ReportService.RankingItem;
 import com.campus.card.admin.service.ReportService.StatsResp;
 import com.campus.card.common.result.Result;
@@ -18,9 +21,11 @@ import java.util.List;
 @RequestMapping("/api/v1/reports")
 public class ReportController {
     private final ReportService reportService;
+    private final ConsumeRollupService rollupService;
 
-    public ReportController(ReportService reportService) {
+    public ReportController(ReportService reportService, ConsumeRollupService rollupService) {
         this.reportService = reportService;
+        this.rollupService = rollupService;
     }
 
     // 日消费统计
@@ -29,6 +34,12 @@ public class ReportController {
         return Result.ok(reportService.dailyConsume(date));
     }
 
+    // 日内分时消费统计（24 个小时桶）
+    @GetMapping("/consume/hourly")
+    public Result<List<HourStat>> hourly(@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        return Result.ok(reportService.hourlyConsume(date));
+    }
+
     // 月消费统计（含每日明细）
     @GetMapping("/consume/monthly")
     public Result<MonthlyResp> monthly(@RequestParam int year, @RequestParam int month) {
@@ -66,6 +77,21 @@ public class ReportController {
         return Result.ok(reportService.ranking(startDate, endDate, limit));
     }
 
+    // 分区消费排行（按学校/班级/商户分别取前 N 名学生）
+    @GetMapping("/consume/ranking/partitioned")
+    public Result<List<RankingGroup>> rankingByPartition(
+            @RequestParam String partitionBy,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(required = false, defaultValue = "10") int limit
+    ) {
+        try {
+            return Result.ok(reportService.rankingByPartition(partitionBy, startDate, endDate, limit));
+        } catch (IllegalArgumentException e) {
+            return Result.error(e.getMessage(), 400);
+        }
+    }
+
     // 消费趋势分析（按日）
     @GetMapping("/consume/trend")
     public Result<List<DayStat>> trend(
@@ -74,4 +100,17 @@ public class ReportController {
     ) {
         return Result.ok(reportService.trend(startDate, endDate));
     }
-}
\ No newline at end of file
+
+    // 按日从流水重建消费汇总（历史回填/对账）
+    @PostMapping("/rollup/rebuild")
+    public Result<Integer> rebuildRollup(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate
+    ) {
+        try {
+            return Result.ok(rollupService.rebuild(startDate, endDate));
+        } catch (IllegalArgumentException e) {
+            return Result.error(e.getMessage(), 400);
+        }
+    }
+}
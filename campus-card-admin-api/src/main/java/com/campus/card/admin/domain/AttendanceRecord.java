@@ -30,7 +30,9 @@ public class AttendanceRecord {
     // card/face
     private String checkType;
     private String photoUrl;
-    // normal/late/early/absence
+    // normal/late/early/absence，入库时按当前考勤规则判定
     private String status;
+    // 判定 status 所用规则快照的版本，规则/节假日变更后由后台任务重新判定
+    private Long ruleVersion;
     private String remark;
 }
\ No newline at end of file
@@ -31,4 +31,9 @@ public class Card {
     private LocalDateTime createdAt;
     // 临时卡过期时间（仅 VISITOR 使用，可为空）
     private LocalDateTime expireAt;
+
+    // 乐观锁版本号：条件更新与实体保存都会递增
+    @Version
+    @Column(nullable = false)
+    private Long version = 0L;
 }
\ No newline at end of file
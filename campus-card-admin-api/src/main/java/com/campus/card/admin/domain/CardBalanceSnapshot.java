@@ -0,0 +1,36 @@
+package com.campus.card.admin.domain;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * 卡余额快照：随每笔 CardTx 在同一事务内增量维护，余额查询只需一次主键读取。
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "card_balance_snapshot")
+public class CardBalanceSnapshot {
+    @Id
+    @Column(length = 64)
+    private String cardNo;
+
+    private BigDecimal balance = BigDecimal.ZERO;
+    private String status;
+    private String holderType;
+    private String holderId;
+    private String holderName;
+    private String cardTypeName;
+
+    // 最近一笔流水时间与累计流水笔数
+    private LocalDateTime lastTxAt;
+    private Long txCount = 0L;
+
+    // 开卡时间（无流水时作为余额更新时间）
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+}
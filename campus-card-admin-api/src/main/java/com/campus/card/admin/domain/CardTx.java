@@ -2,6 +2,8 @@ package com.campus.card.admin.domain;
 
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 import javax.persistence.*;
 import java.math.BigDecimal;
@@ -12,8 +14,14 @@ import java.time.LocalDateTime;
 @Entity
 @Table(name = "card_tx")
 public class CardTx {
+    // 使用号段表分配主键（MySQL 下为 card_tx_seq 表），使批量插入可走 JDBC batch
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "card_tx_seq")
+    @GenericGenerator(name = "card_tx_seq", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+            @Parameter(name = "sequence_name", value = "card_tx_seq"),
+            @Parameter(name = "increment_size", value = "100"),
+            @Parameter(name = "optimizer", value = "pooled-lo")
+    })
     private Long id;
 
     private String cardNo;
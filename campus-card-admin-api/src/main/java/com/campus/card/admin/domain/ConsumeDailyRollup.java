@@ -0,0 +1,16 @@
+package com.campus.card.admin.domain;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+@Data
+@EqualsAndHashCode(callSuper = true)
+@NoArgsConstructor
+@Entity
+@Table(name = "consume_rollup_daily")
+public class ConsumeDailyRollup extends ConsumeRollup {
+}
@@ -0,0 +1,31 @@
+package com.campus.card.admin.domain;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 消费汇总公共字段：按时间桶 + 卡号 + 商户聚合，附带写入时所属学生、班级、学校，金额以分为单位。
+ */
+@Data
+@NoArgsConstructor
+@MappedSuperclass
+public abstract class ConsumeRollup {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // 时间桶起点（小时表为整点，日表为当日零点）
+    private LocalDateTime bucketStart;
+    private String cardNo;
+    // 商户为空时记为空串，保证唯一键可合并
+    private String merchant;
+    private Long studentId;
+    private Long classId;
+    private Long schoolId;
+    private Long amountCents = 0L;
+    private Long txCount = 0L;
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,88 @@
+package com.campus.card.admin.infrastructure.export;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 逐行写出 CSV 的轻量写入器：按 RFC 4180 转义（含逗号、引号、换行的字段加双引号，引号成对转义），
+ * 直接写入底层流，不在内存中拼接整个文件。
+ */
+public class CsvWriter implements Flushable, Closeable {
+    private final Writer out;
+    private boolean firstField = true;
+
+    public CsvWriter(Writer out) {
+        this.out = out;
+    }
+
+    public static CsvWriter utf8(OutputStream os) {
+        return new CsvWriter(new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 8192));
+    }
+
+    public CsvWriter field(String value) throws IOException {
+        separator();
+        if (value == null || value.isEmpty()) return this;
+        if (needsQuote(value)) {
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') out.write('"');
+                out.write(c);
+            }
+            out.write('"');
+        } else {
+            out.write(value);
+        }
+        return this;
+    }
+
+    public CsvWriter field(long value) throws IOException {
+        separator();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public CsvWriter field(Object value) throws IOException {
+        return field(value == null ? null : value.toString());
+    }
+
+    public CsvWriter row(String... values) throws IOException {
+        for (String v : values) field(v);
+        return endRow();
+    }
+
+    public CsvWriter endRow() throws IOException {
+        out.write('\n');
+        firstField = true;
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void separator() throws IOException {
+        if (!firstField) out.write(',');
+        firstField = false;
+    }
+
+    private static boolean needsQuote(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,279 @@
+package com.campus.card.admin.ledger;
+
+import com.campus.card.admin.domain.Card;
+import com.campus.card.admin.domain.CardTx;
+import com.campus.card.admin.repository.CardRepository;
+import com.campus.card.admin.repository.CardTxRepository;
+import com.campus.card.admin.service.CardSnapshotService;
+import com.campus.card.admin.service.ConsumeRollupService;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 卡余额记账引擎：按卡号哈希分配到固定数量的单写者通道（lane），
+ * 同一张卡的所有充值/消费都在同一线程内顺序执行，避免并发读改写导致的余额丢失更新。
+ * 每个通道批量取出待处理操作，在一个事务内加锁读取卡片、内存中依次记账，
+ * 然后批量写回余额与 CardTx 流水。
+ */
+@Service
+public class CardLedgerEngine {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CardLedgerEngine.class);
+
+    private final CardRepository cardRepository;
+    private final CardTxRepository cardTxRepository;
+    private final CardSnapshotService snapshotService;
+    private final ConsumeRollupService rollupService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${card.ledger.lanes:8}")
+    private int laneCount;
+
+    @Value("${card.ledger.batch-size:200}")
+    private int batchSize;
+
+    @Value("${card.ledger.queue-capacity:10000}")
+    private int queueCapacity;
+
+    private Lane[] lanes;
+
+    public CardLedgerEngine(CardRepository cardRepository, CardTxRepository cardTxRepository,
+                            CardSnapshotService snapshotService, ConsumeRollupService rollupService,
+                            PlatformTransactionManager transactionManager) {
+        this.cardRepository = cardRepository;
+        this.cardTxRepository = cardTxRepository;
+        this.snapshotService = snapshotService;
+        this.rollupService = rollupService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    public void start() {
+        int n = Math.max(1, laneCount);
+        lanes = new Lane[n];
+        for (int i = 0; i < n; i++) {
+            lanes[i] = new Lane(i, Math.max(1, queueCapacity));
+            lanes[i].start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (lanes == null) return;
+        for (Lane lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    /** 提交一笔消费（amount 为正数），返回记账后的结果 */
+    public CompletableFuture<LedgerResult> consume(String cardNo, BigDecimal amount, String merchant, String note) {
+        return consume(cardNo, amount, merchant, note, null);
+    }
+
+    /** 提交一笔消费并指定发生时间（POS 离线缓存的刷卡时间），为空时取当前时间 */
+    public CompletableFuture<LedgerResult> consume(String cardNo, BigDecimal amount, String merchant, String note,
+                                                   LocalDateTime occurredAt) {
+        return submit(new LedgerOp("CONSUME", cardNo, amount, merchant, note, occurredAt));
+    }
+
+    /** 提交一笔充值（amount 为正数），返回记账后的结果 */
+    public CompletableFuture<LedgerResult> recharge(String cardNo, BigDecimal amount, String method, String note) {
+        return submit(new LedgerOp("RECHARGE", cardNo, amount, method, note, null));
+    }
+
+    private CompletableFuture<LedgerResult> submit(LedgerOp op) {
+        if (op.cardNo == null || op.cardNo.isEmpty()) {
+            op.future.completeExceptionally(new IllegalArgumentException("卡号不能为空"));
+            return op.future;
+        }
+        Lane lane = lanes[(op.cardNo.hashCode() & 0x7fffffff) % lanes.length];
+        if (!lane.queue.offer(op)) {
+            op.future.completeExceptionally(new IllegalStateException("系统繁忙，请稍后重试"));
+        }
+        return op.future;
+    }
+
+    /** 在单个事务内处理一批操作；失败的操作只影响自身，不会中断同批其他操作 */
+    private void flush(List<LedgerOp> batch) {
+        Map<LedgerOp, Object> outcomes;
+        try {
+            outcomes = transactionTemplate.execute(status -> applyBatch(batch));
+        } catch (Exception e) {
+            if (batch.size() > 1) {
+                // 整批提交失败时逐笔重试，隔离有问题的操作
+                log.warn("Ledger batch of {} failed, retrying one by one", batch.size(), e);
+                for (LedgerOp op : batch) {
+                    flush(Collections.singletonList(op));
+                }
+            } else {
+                batch.get(0).future.completeExceptionally(e);
+            }
+            return;
+        }
+        for (LedgerOp op : batch) {
+            Object outcome = outcomes != null ? outcomes.get(op) : null;
+            if (outcome instanceof LedgerResult) {
+                op.future.complete((LedgerResult) outcome);
+            } else if (outcome instanceof RuntimeException) {
+                op.future.completeExceptionally((RuntimeException) outcome);
+            } else {
+                op.future.completeExceptionally(new IllegalStateException("记账结果缺失"));
+            }
+        }
+    }
+
+    private Map<LedgerOp, Object> applyBatch(List<LedgerOp> batch) {
+        Set<String> cardNos = new LinkedHashSet<>();
+        for (LedgerOp op : batch) cardNos.add(op.cardNo);
+        Map<String, Card> cards = new HashMap<>();
+        for (Card c : cardRepository.findByCardNoInForUpdate(cardNos)) {
+            cards.put(c.getCardNo(), c);
+        }
+        Map<LedgerOp, Object> outcomes = new HashMap<>();
+        Map<String, Card> dirty = new LinkedHashMap<>();
+        List<CardTx> txs = new ArrayList<>(batch.size());
+        List<LedgerOp> txOps = new ArrayList<>(batch.size());
+        for (LedgerOp op : batch) {
+            Card card = cards.get(op.cardNo);
+            if (card == null) {
+                outcomes.put(op, new IllegalArgumentException("卡片不存在"));
+                continue;
+            }
+            boolean debit = "CONSUME".equals(op.type);
+            if (!"ACTIVE".equalsIgnoreCase(card.getStatus())) {
+                outcomes.put(op, CardLedgerException.statusNotAllowed(debit ? "当前卡片状态不允许消费" : "当前卡片状态不允许充值"));
+                continue;
+            }
+            BigDecimal current = card.getBalance() != null ? card.getBalance() : BigDecimal.ZERO;
+            if (debit && current.compareTo(op.amount) < 0) {
+                outcomes.put(op, CardLedgerException.insufficientBalance("余额不足"));
+                continue;
+            }
+            BigDecimal newBalance = debit ? current.subtract(op.amount) : current.add(op.amount);
+            card.setBalance(newBalance);
+            dirty.put(card.getCardNo(), card);
+            CardTx tx = new CardTx();
+            tx.setCardNo(card.getCardNo());
+            tx.setType(op.type);
+            tx.setAmount(debit ? op.amount.negate() : op.amount); // 消费记录为负值
+            tx.setBalanceAfter(newBalance);
+            tx.setMerchant(op.merchant);
+            tx.setOccurredAt(op.occurredAt);
+            tx.setNote(op.note);
+            txs.add(tx);
+            txOps.add(op);
+        }
+        if (!dirty.isEmpty()) {
+            cardRepository.saveAll(dirty.values());
+        }
+        if (!txs.isEmpty()) {
+            List<CardTx> saved = cardTxRepository.saveAll(txs);
+            snapshotService.recordTxs(saved);
+            rollupService.recordTxs(saved);
+            for (int i = 0; i < txOps.size(); i++) {
+                CardTx tx = saved.get(i);
+                outcomes.put(txOps.get(i), new LedgerResult(tx.getId(), tx.getBalanceAfter()));
+            }
+        }
+        return outcomes;
+    }
+
+    private final class Lane implements Runnable {
+        private final BlockingQueue<LedgerOp> queue;
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        Lane(int index, int capacity) {
+            this.queue = new LinkedBlockingQueue<>(capacity);
+            this.thread = new Thread(this, "card-ledger-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void shutdown() {
+            running = false;
+            thread.interrupt();
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            List<LedgerOp> batch = new ArrayList<>(batchSize);
+            while (running || !queue.isEmpty()) {
+                try {
+                    LedgerOp first = running ? queue.poll(500, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (first == null) continue;
+                    batch.add(first);
+                    queue.drainTo(batch, Math.max(0, batchSize - 1));
+                    flush(batch);
+                } catch (InterruptedException e) {
+                    // 停机时继续把队列中剩余操作处理完
+                    running = false;
+                } catch (Exception e) {
+                    log.error("Ledger lane {} failed", thread.getName(), e);
+                    for (LedgerOp op : batch) {
+                        op.future.completeExceptionally(e);
+                    }
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    private static final class LedgerOp {
+        private final String type;
+        private final String cardNo;
+        private final BigDecimal amount;
+        private final String merchant;
+        private final String note;
+        private final LocalDateTime occurredAt;
+        private final CompletableFuture<LedgerResult> future = new CompletableFuture<>();
+
+        LedgerOp(String type, String cardNo, BigDecimal amount, String merchant, String note, LocalDateTime occurredAt) {
+            this.type = type;
+            this.cardNo = cardNo;
+            this.amount = amount;
+            this.merchant = merchant;
+            this.note = note;
+            this.occurredAt = occurredAt != null ? occurredAt : LocalDateTime.now();
+        }
+    }
+
+    @Getter
+    public static final class LedgerResult {
+        private final Long txId;
+        private final BigDecimal balance;
+
+        LedgerResult(Long txId, BigDecimal balance) {
+            this.txId = txId;
+            this.balance = balance;
+        }
+    }
+}
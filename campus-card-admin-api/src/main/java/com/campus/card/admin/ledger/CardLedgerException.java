@@ -0,0 +1,33 @@
+package com.campus.card.admin.ledger;
+
+import lombok.Getter;
+
+/**
+ * 卡片记账失败（余额不足、状态不允许、并发修改），携带可区分的业务码，
+ * 便于 POS 终端按结果码处理而不是解析提示文字。
+ */
+@Getter
+public class CardLedgerException extends IllegalStateException {
+    public static final int INSUFFICIENT_BALANCE = 4201;
+    public static final int STATUS_NOT_ALLOWED = 4202;
+    public static final int CONCURRENT_MODIFICATION = 4203;
+
+    private final int code;
+
+    public CardLedgerException(int code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    public static CardLedgerException insufficientBalance(String message) {
+        return new CardLedgerException(INSUFFICIENT_BALANCE, message);
+    }
+
+    public static CardLedgerException statusNotAllowed(String message) {
+        return new CardLedgerException(STATUS_NOT_ALLOWED, message);
+    }
+
+    public static CardLedgerException concurrentModification(String message) {
+        return new CardLedgerException(CONCURRENT_MODIFICATION, message);
+    }
+}
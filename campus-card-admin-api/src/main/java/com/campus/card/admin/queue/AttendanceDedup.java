@@ -0,0 +1,115 @@
+package com.campus.card.admin.queue;
+
+import com.campus.card.admin.controller.AttendanceController;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 考勤事件队列层去重：按规范化的事件标识（类型、设备、人员/卡号、打卡时间、进出方向）生成键，
+ * 同一事件无论 JSON 字段顺序、时间格式如何序列化都得到同一个键。
+ * 处理前一次管道往返检查（EXISTS）过滤已入库的事件，入库事务提交后再登记（SET EX）；
+ * 键只在提交后出现，崩溃或失败后重新投递的消息不会被误判为重复，提交与登记之间的窗口由 uk_attendance_dedup 兜底。
+ */
+@Component
+public class AttendanceDedup {
+    private final StringRedisTemplate stringRedisTemplate;
+
+    @Value("${attendance.queue.dedup-ttl-hours:168}")
+    private long ttlHours;
+
+    public AttendanceDedup(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /** 刷卡事件的去重键；打卡时间缺失时无法规范化，返回 null（不去重） */
+    public String keyOf(AttendanceController.CardIngestReq req) {
+        if (req.getAttendanceTime() == null || req.getCardNo() == null) return null;
+        return key(req.getAttendanceTime(), "card|" + req.getDeviceId() + "|" + req.getCardNo().trim()
+                + "|" + req.getAttendanceTime() + "|" + direction(req.getAttendanceType()));
+    }
+
+    /** 人脸识别事件的去重键；打卡时间缺失时返回 null（不去重） */
+    public String keyOf(AttendanceController.FaceIngestReq req) {
+        if (req.getAttendanceTime() == null || req.getPersonId() == null) return null;
+        String personType = req.getPersonType() != null ? req.getPersonType().trim().toUpperCase(java.util.Locale.ROOT) : "";
+        return key(req.getAttendanceTime(), "face|" + req.getDeviceId() + "|" + personType + ":" + req.getPersonId().trim()
+                + "|" + req.getAttendanceTime() + "|" + direction(req.getAttendanceType()));
+    }
+
+    /**
+     * 一次管道往返检查一批键是否已登记，返回每个键是否需要处理；null 键总是需要处理。
+     * 同一批内重复的键只有第一个返回 true。只读，不登记。
+     */
+    public boolean[] unseen(List<String> keys) {
+        boolean[] fresh = new boolean[keys.size()];
+        if (keys.isEmpty()) return fresh;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                if (key != null) connection.keyCommands().exists(key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        java.util.Set<String> inBatch = new java.util.HashSet<>();
+        int r = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            if (key == null) {
+                fresh[i] = true;
+                continue;
+            }
+            Object res = r < results.size() ? results.get(r) : null;
+            r++;
+            boolean exists = Boolean.TRUE.equals(res) || (res instanceof Number && ((Number) res).longValue() > 0);
+            fresh[i] = !exists && inBatch.add(key);
+        }
+        return fresh;
+    }
+
+    /**
+     * 入库事务提交后登记一批键（SET key 1 EX ttl）。登记失败只记录日志：
+     * 未登记的事件再次投递时由唯一索引忽略，不会重复入库。
+     */
+    public void mark(List<String> keys) {
+        if (keys.isEmpty()) return;
+        byte[] value = "1".getBytes(StandardCharsets.UTF_8);
+        Expiration ttl = Expiration.seconds(Math.max(1, ttlHours) * 3600);
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : keys) {
+                    if (key != null) {
+                        connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8), value, ttl,
+                                RedisStringCommands.SetOption.UPSERT);
+                    }
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            org.slf4j.LoggerFactory.getLogger(AttendanceDedup.class).warn("Attendance dedup keys not recorded", e);
+        }
+    }
+
+    private static String direction(String attendanceType) {
+        return attendanceType != null ? attendanceType.trim().toLowerCase(java.util.Locale.ROOT) : "in";
+    }
+
+    private static String key(LocalDateTime time, String canonical) {
+        String digest;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            digest = Base64.getUrlEncoder().withoutPadding().encodeToString(md.digest(canonical.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            digest = Integer.toHexString(canonical.hashCode());
+        }
+        return AttendanceQueueKeys.DEDUP_SET_KEY_PREFIX + time.toLocalDate() + ":" + digest;
+    }
+}
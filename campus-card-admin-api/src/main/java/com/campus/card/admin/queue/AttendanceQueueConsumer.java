@@ -4,109 +4,436 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.campus.card.admin.service.AttendanceBatchService;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.time.Duration;
-import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 @ConditionalOnProperty(name = "attendance.queue.enabled", havingValue = "true", matchIfMissing = true)
 @Service
 public class AttendanceQueueConsumer {
+    // 一次往返从队列右端（最早入队）取出至多 N 条并截断队列，返回顺序为 新 -> 旧
+    private static final DefaultRedisScript<List> POP_BATCH = new DefaultRedisScript<>(
+            "local items = redis.call('LRANGE', KEYS[1], -tonumber(ARGV[1]), -1)\n" +
+            "if #items > 0 then redis.call('LTRIM', KEYS[1], 0, -#items - 1) end\n" +
+            "return items", List.class);
+
+    // 可靠模式：取出的同时原子地放入本消费者的处理中列表，处理完成后 ack 删除
+    private static final DefaultRedisScript<List> POP_BATCH_RELIABLE = new DefaultRedisScript<>(
+            "local items = redis.call('LRANGE', KEYS[1], -tonumber(ARGV[1]), -1)\n" +
+            "if #items > 0 then\n" +
+            "  redis.call('LTRIM', KEYS[1], 0, -#items - 1)\n" +
+            "  redis.call('RPUSH', KEYS[2], unpack(items))\n" +
+            "end\n" +
+            "return items", List.class);
+
+    // 将处理中列表整体退回队列右端（下次最先被取出），用于启动恢复与处理失败重试
+    private static final DefaultRedisScript<Long> REQUEUE_PROCESSING = new DefaultRedisScript<>(
+            "local items = redis.call('LRANGE', KEYS[2], 0, -1)\n" +
+            "if #items > 0 then\n" +
+            "  redis.call('RPUSH', KEYS[1], unpack(items))\n" +
+            "  redis.call('DEL', KEYS[2])\n" +
+            "end\n" +
+            "return #items", Long.class);
+
+    // 逐条重试后仍失败的消息退回队列右端（保持原先后顺序，下次最先被取出），并清空处理中列表
+    // KEYS: queue, processing；ARGV: 失败消息（旧 -> 新）
+    private static final DefaultRedisScript<Long> REQUEUE_FAILED = new DefaultRedisScript<>(
+            "for i = #ARGV, 1, -1 do redis.call('RPUSH', KEYS[1], ARGV[i]) end\n" +
+            "redis.call('DEL', KEYS[2])\n" +
+            "return #ARGV", Long.class);
+
+    // 失败次数记录的保留时长，超过后重新计数
+    private static final long ATTEMPTS_TTL_SECONDS = 7 * 24 * 3600L;
+
+    // Lua unpack 受栈深度限制，单批上限
+    private static final int MAX_BATCH = 5000;
+
     private final StringRedisTemplate stringRedisTemplate;
     private final ObjectMapper objectMapper;
     private final AttendanceBatchService batchService;
+    private final AttendanceQueueMetrics metrics;
+    private final AttendanceStreamTransport streamTransport;
+    private final AttendanceDedup dedup;
+
+    // 传输方式：list（Redis 列表，默认）或 stream（Redis Streams 消费组）；列表中的存量消息在两种模式下都会被排空
+    @Value("${attendance.queue.transport:list}")
+    private String transport;
+
+    // stream 模式下认领空闲超时待确认消息的间隔
+    @Value("${attendance.queue.stream.reclaim-interval-ms:30000}")
+    private long reclaimIntervalMs;
 
     @Value("${attendance.queue.batch-size:100}")
     private int batchSize;
 
-    @Value("${attendance.queue.pop-timeout-ms:200}")
-    private long popTimeoutMs;
+    // 可靠消费：取出的消息先进入处理中列表，处理完成后确认；进程崩溃后由同一 consumer-id 重启时退回队列
+    @Value("${attendance.queue.reliable:true}")
+    private boolean reliable;
+
+    // 列表模式：单条消息最多尝试次数（达到后转入死信列表）、失败后该分区暂停拉取的时长、死信列表长度上限
+    @Value("${attendance.queue.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${attendance.queue.retry-backoff-ms:10000}")
+    private long retryBackoffMs;
+
+    @Value("${attendance.queue.dead-letter-max-len:100000}")
+    private long deadLetterMaxLen;
 
-    public AttendanceQueueConsumer(StringRedisTemplate stringRedisTemplate, ObjectMapper objectMapper, AttendanceBatchService batchService) {
+    @Value("${attendance.queue.consumer-id:default}")
+    private String consumerId;
+
+    // 队列分区数（须与生产端一致）与消费线程数；每个分区只归属一个线程，保证分区内按序处理
+    @Value("${attendance.queue.partitions:8}")
+    private int partitions;
+
+    @Value("${attendance.queue.workers:4}")
+    private int workerCount;
+
+    // 所负责的分区全部为空时的休眠间隔
+    @Value("${attendance.queue.poll-interval-ms:500}")
+    private long pollIntervalMs;
+
+    private final List<Worker> workers = new ArrayList<>();
+
+    public AttendanceQueueConsumer(StringRedisTemplate stringRedisTemplate, ObjectMapper objectMapper,
+                                   AttendanceBatchService batchService, AttendanceQueueMetrics metrics,
+                                   AttendanceStreamTransport streamTransport, AttendanceDedup dedup) {
         this.stringRedisTemplate = stringRedisTemplate;
         this.objectMapper = objectMapper;
         this.batchService = batchService;
+        this.metrics = metrics;
+        this.streamTransport = streamTransport;
+        this.dedup = dedup;
+    }
+
+    @PostConstruct
+    public void start() {
+        int p = Math.max(1, partitions);
+        int n = Math.max(1, Math.min(workerCount, p));
+        List<List<Partition>> assigned = new ArrayList<>();
+        for (int i = 0; i < n; i++) assigned.add(new ArrayList<>());
+        // 分区前的遗留队列交给 0 号线程
+        assigned.get(0).add(new Partition("legacy", AttendanceQueueKeys.QUEUE_KEY,
+                AttendanceQueueKeys.PROCESSING_KEY_PREFIX + consumerId, null));
+        boolean stream = "stream".equalsIgnoreCase(transport);
+        for (int i = 0; i < p; i++) {
+            assigned.get(i % n).add(new Partition(String.valueOf(i), AttendanceQueueKeys.partitionKey(i),
+                    AttendanceQueueKeys.PROCESSING_KEY_PREFIX + consumerId + ":" + i,
+                    stream ? AttendanceQueueKeys.streamKey(i) : null));
+        }
+        for (int i = 0; i < n; i++) {
+            if (reliable) {
+                for (Partition part : assigned.get(i)) recoverProcessing(part);
+            }
+            Worker w = new Worker(i, assigned.get(i));
+            workers.add(w);
+            w.thread.start();
+        }
     }
 
-    // 定时消费队列，尽量批量处理
-    @Scheduled(fixedDelayString = "${attendance.queue.poll-interval-ms:500}")
-    public void drainAndProcess() {
+    @PreDestroy
+    public void stop() {
+        for (Worker w : workers) w.running = false;
+        for (Worker w : workers) {
+            w.thread.interrupt();
+            try {
+                w.thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void recoverProcessing(Partition part) {
         try {
-            List<String> items = popBatch(batchSize);
-            if (items.isEmpty()) {
-                return;
+            Long n = requeueProcessing(part);
+            if (n != null && n > 0) {
+                org.slf4j.LoggerFactory.getLogger(AttendanceQueueConsumer.class).info("Requeued {} unacknowledged attendance messages to {}", n, part.queueKey);
             }
-            List<com.campus.card.admin.controller.AttendanceController.FaceIngestReq> faceReqs = new ArrayList<>();
-            List<com.campus.card.admin.controller.AttendanceController.CardIngestReq> cardReqs = new ArrayList<>();
-            for (String json : items) {
-                try {
-                    // 队列层去重：按原始消息内容hash做当日去重，避免重复处理
-                    String dedupKey = buildDedupKey(json);
-                    if (existsDedupKey(dedupKey)) {
-                        continue;
-                    }
-                    JsonNode node = objectMapper.readTree(json);
-                    String type = node.path("type").asText();
-                    JsonNode payload = node.path("payload");
-                    if ("face".equalsIgnoreCase(type)) {
-                        com.campus.card.admin.controller.AttendanceController.FaceIngestReq req = objectMapper.convertValue(payload, com.campus.card.admin.controller.AttendanceController.FaceIngestReq.class);
-                        faceReqs.add(req);
-                        addDedupKey(dedupKey);
-                    } else if ("card".equalsIgnoreCase(type)) {
-                        com.campus.card.admin.controller.AttendanceController.CardIngestReq req = objectMapper.convertValue(payload, com.campus.card.admin.controller.AttendanceController.CardIngestReq.class);
-                        cardReqs.add(req);
-                        addDedupKey(dedupKey);
-                    }
-                } catch (Exception e) {
-                    org.slf4j.LoggerFactory.getLogger(AttendanceQueueConsumer.class).error("Queue item processing failed", e);
-                }
+        } catch (Exception e) {
+            org.slf4j.LoggerFactory.getLogger(AttendanceQueueConsumer.class).warn("Attendance processing list recovery failed", e);
+        }
+    }
+
+    /** 从一个分区取一批并处理，返回是否取到了消息 */
+    private boolean drainOnce(Partition part) {
+        boolean got = drainList(part);
+        if (part.streamKey != null) {
+            got |= drainStream(part);
+        }
+        return got;
+    }
+
+    private boolean drainList(Partition part) {
+        // 上一批有消息失败退回：等待退避时间后再拉取，避免对故障的下游空转重试
+        if (System.currentTimeMillis() < part.retryAt) {
+            return false;
+        }
+        int limit = Math.max(1, Math.min(batchSize, MAX_BATCH));
+        List<String> items = popBatch(part, limit);
+        if (items.isEmpty()) {
+            return false;
+        }
+        long oldest;
+        try {
+            oldest = process(items);
+        } catch (RuntimeException e) {
+            // 整批失败时逐条重试：成功的确认，失败的累计尝试次数后退回队列，达到上限的转入死信列表
+            org.slf4j.LoggerFactory.getLogger(AttendanceQueueConsumer.class).warn("Queue batch of {} failed on partition {}, retrying one by one", items.size(), part.name, e);
+            oldest = retryOneByOne(part, items);
+            metrics.recordBatch(part.name, items.size(), oldest);
+            return true;
+        }
+        if (reliable) ack(part);
+        metrics.recordBatch(part.name, items.size(), oldest);
+        return true;
+    }
+
+    private long retryOneByOne(Partition part, List<String> items) {
+        long oldest = 0;
+        List<String> succeeded = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        for (String item : items) {
+            try {
+                long ts = process(Collections.singletonList(item));
+                if (ts > 0 && (oldest == 0 || ts < oldest)) oldest = ts;
+                succeeded.add(item);
+            } catch (RuntimeException ex) {
+                failed.add(item);
             }
-            if (!faceReqs.isEmpty()) {
-                batchService.processFaceBatch(faceReqs);
+        }
+        if (!succeeded.isEmpty()) {
+            stringRedisTemplate.opsForHash().delete(AttendanceQueueKeys.ATTEMPTS_KEY, attemptFields(succeeded).toArray());
+        }
+        if (failed.isEmpty()) {
+            if (reliable) ack(part);
+            return oldest;
+        }
+        List<String> fields = attemptFields(failed);
+        List<Object> counts = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] key = AttendanceQueueKeys.ATTEMPTS_KEY.getBytes(StandardCharsets.UTF_8);
+            for (String f : fields) {
+                connection.hashCommands().hIncrBy(key, f.getBytes(StandardCharsets.UTF_8), 1L);
             }
-            if (!cardReqs.isEmpty()) {
-                batchService.processCardBatch(cardReqs);
+            connection.keyCommands().expire(key, ATTEMPTS_TTL_SECONDS);
+            return null;
+        });
+        List<String> retry = new ArrayList<>();
+        List<String> dead = new ArrayList<>();
+        List<String> deadFields = new ArrayList<>();
+        for (int i = 0; i < failed.size(); i++) {
+            Object c = i < counts.size() ? counts.get(i) : null;
+            long attempts = c instanceof Number ? ((Number) c).longValue() : 1L;
+            if (attempts >= Math.max(1, maxAttempts)) {
+                dead.add(deadLetter(part, failed.get(i), attempts));
+                deadFields.add(fields.get(i));
+            } else {
+                retry.add(failed.get(i));
             }
-        } catch (Exception e) {
-            org.slf4j.LoggerFactory.getLogger(AttendanceQueueConsumer.class).warn("Queue drain failed (Redis likely unavailable)", e);
         }
+        if (!dead.isEmpty()) {
+            stringRedisTemplate.opsForList().leftPushAll(AttendanceQueueKeys.DEAD_LETTER_KEY, dead);
+            stringRedisTemplate.opsForList().trim(AttendanceQueueKeys.DEAD_LETTER_KEY, 0, Math.max(1, deadLetterMaxLen) - 1);
+            stringRedisTemplate.opsForHash().delete(AttendanceQueueKeys.ATTEMPTS_KEY, deadFields.toArray());
+            org.slf4j.LoggerFactory.getLogger(AttendanceQueueConsumer.class).error("Moved {} attendance messages from partition {} to dead letter list after {} attempts", dead.size(), part.name, maxAttempts);
+        }
+        // 非可靠模式下处理中列表不存在，DEL 无副作用
+        stringRedisTemplate.execute(REQUEUE_FAILED, Arrays.asList(part.queueKey, part.processingKey), retry.toArray());
+        if (!retry.isEmpty()) {
+            part.retryAt = System.currentTimeMillis() + retryBackoffMs;
+        }
+        return oldest;
     }
 
-    private List<String> popBatch(int limit) {
-        List<String> list = new ArrayList<>(limit);
-        for (int i = 0; i < limit; i++) {
-            String val = stringRedisTemplate.opsForList().rightPop(AttendanceQueueKeys.QUEUE_KEY, Duration.ofMillis(popTimeoutMs));
-            if (val == null) break;
-            list.add(val);
+    // 以消息体摘要作为失败次数的 field，避免把整条 JSON 作为 hash field
+    private static List<String> attemptFields(List<String> items) {
+        List<String> fields = new ArrayList<>(items.size());
+        for (String item : items) {
+            fields.add(org.springframework.util.DigestUtils.md5DigestAsHex(item.getBytes(StandardCharsets.UTF_8)));
         }
-        return list;
+        return fields;
     }
 
-    private String buildDedupKey(String raw) {
+    private String deadLetter(Partition part, String body, long attempts) {
+        com.fasterxml.jackson.databind.node.ObjectNode node = objectMapper.createObjectNode();
+        node.put("queue", part.queueKey);
+        node.put("attempts", attempts);
+        node.put("deadAt", System.currentTimeMillis());
+        node.put("body", body);
+        return node.toString();
+    }
+
+    private boolean drainStream(Partition part) {
+        int limit = Math.max(1, batchSize);
+        List<AttendanceStreamTransport.Entry> entries = Collections.emptyList();
+        long now = System.currentTimeMillis();
+        if (now - part.lastReclaimAt >= reclaimIntervalMs) {
+            part.lastReclaimAt = now;
+            entries = streamTransport.reclaim(part.streamKey, consumerId, limit);
+        }
+        if (entries.isEmpty()) {
+            entries = streamTransport.read(part.streamKey, consumerId, limit);
+        }
+        if (entries.isEmpty()) {
+            return false;
+        }
+        List<String> bodies = new ArrayList<>(entries.size());
+        for (AttendanceStreamTransport.Entry e : entries) bodies.add(e.getBody());
+        long oldest = 0;
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            byte[] d = md.digest(raw.getBytes(StandardCharsets.UTF_8));
-            String b64 = Base64.getUrlEncoder().withoutPadding().encodeToString(d);
-            return AttendanceQueueKeys.DEDUP_SET_KEY_PREFIX + LocalDate.now() + ":" + b64;
-        } catch (Exception e) {
-            return AttendanceQueueKeys.DEDUP_SET_KEY_PREFIX + LocalDate.now() + ":" + raw.hashCode();
+            oldest = process(bodies);
+            streamTransport.ack(part.streamKey, entries);
+        } catch (RuntimeException e) {
+            // 整批失败时逐条重试：成功的确认，失败的留在待确认列表，稍后由 XAUTOCLAIM 重新投递或转入死信流
+            org.slf4j.LoggerFactory.getLogger(AttendanceQueueConsumer.class).warn("Stream batch of {} failed, retrying one by one", entries.size(), e);
+            for (AttendanceStreamTransport.Entry entry : entries) {
+                try {
+                    process(Collections.singletonList(entry.getBody()));
+                    streamTransport.ack(part.streamKey, Collections.singletonList(entry));
+                } catch (RuntimeException ex) {
+                    org.slf4j.LoggerFactory.getLogger(AttendanceQueueConsumer.class).error("Stream entry {} failed", entry.getId(), ex);
+                }
+            }
         }
+        metrics.recordBatch(part.name, entries.size(), oldest);
+        return true;
     }
 
-    private boolean existsDedupKey(String key) {
-        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(key));
+    /** 处理一批消息，返回批内最早的入队时间（毫秒，无则为 0） */
+    private long process(List<String> items) {
+        List<Object> reqs = new ArrayList<>(items.size());
+        List<String> keys = new ArrayList<>(items.size());
+        long oldest = 0;
+        for (String json : items) {
+            try {
+                JsonNode node = objectMapper.readTree(json);
+                String type = node.path("type").asText();
+                JsonNode payload = node.path("payload");
+                long ts = node.path("ts").asLong(0);
+                if (ts > 0 && (oldest == 0 || ts < oldest)) oldest = ts;
+                if ("face".equalsIgnoreCase(type)) {
+                    com.campus.card.admin.controller.AttendanceController.FaceIngestReq req = objectMapper.convertValue(payload, com.campus.card.admin.controller.AttendanceController.FaceIngestReq.class);
+                    reqs.add(req);
+                    keys.add(dedup.keyOf(req));
+                } else if ("card".equalsIgnoreCase(type)) {
+                    com.campus.card.admin.controller.AttendanceController.CardIngestReq req = objectMapper.convertValue(payload, com.campus.card.admin.controller.AttendanceController.CardIngestReq.class);
+                    reqs.add(req);
+                    keys.add(dedup.keyOf(req));
+                }
+            } catch (Exception e) {
+                org.slf4j.LoggerFactory.getLogger(AttendanceQueueConsumer.class).error("Queue item processing failed", e);
+            }
+        }
+        if (reqs.isEmpty()) return oldest;
+        // 队列层去重：整批一次管道往返检查，已登记（此前已提交入库）的视为重复；入库提交后再登记
+        boolean[] fresh = dedup.unseen(keys);
+        List<com.campus.card.admin.controller.AttendanceController.FaceIngestReq> faceReqs = new ArrayList<>();
+        List<com.campus.card.admin.controller.AttendanceController.CardIngestReq> cardReqs = new ArrayList<>();
+        List<String> faceKeys = new ArrayList<>();
+        List<String> cardKeys = new ArrayList<>();
+        for (int i = 0; i < reqs.size(); i++) {
+            if (!fresh[i]) continue;
+            Object req = reqs.get(i);
+            if (req instanceof com.campus.card.admin.controller.AttendanceController.FaceIngestReq) {
+                faceReqs.add((com.campus.card.admin.controller.AttendanceController.FaceIngestReq) req);
+                faceKeys.add(keys.get(i));
+            } else {
+                cardReqs.add((com.campus.card.admin.controller.AttendanceController.CardIngestReq) req);
+                cardKeys.add(keys.get(i));
+            }
+        }
+        AttendanceBatchService.BatchResult result = new AttendanceBatchService.BatchResult();
+        if (!faceReqs.isEmpty()) {
+            result.add(batchService.processFaceBatch(faceReqs));
+            dedup.mark(faceKeys);
+        }
+        if (!cardReqs.isEmpty()) {
+            result.add(batchService.processCardBatch(cardReqs));
+            dedup.mark(cardKeys);
+        }
+        metrics.recordInsert(result.getInserted(), result.getDuplicates());
+        return oldest;
+    }
+
+    // 单次往返批量出队，按入队先后顺序返回
+    @SuppressWarnings("unchecked")
+    private List<String> popBatch(Partition part, int limit) {
+        List<String> list = reliable
+                ? stringRedisTemplate.execute(POP_BATCH_RELIABLE, Arrays.asList(part.queueKey, part.processingKey), String.valueOf(limit))
+                : stringRedisTemplate.execute(POP_BATCH, Collections.singletonList(part.queueKey), String.valueOf(limit));
+        if (list == null || list.isEmpty()) return Collections.emptyList();
+        List<String> ordered = new ArrayList<>(list);
+        Collections.reverse(ordered);
+        return ordered;
+    }
+
+    private void ack(Partition part) {
+        stringRedisTemplate.delete(part.processingKey);
+    }
+
+    private Long requeueProcessing(Partition part) {
+        return stringRedisTemplate.execute(REQUEUE_PROCESSING, Arrays.asList(part.queueKey, part.processingKey));
+    }
+
+    private static final class Partition {
+        private final String name;
+        private final String queueKey;
+        private final String processingKey;
+        private final String streamKey;
+        private long lastReclaimAt;
+        private long retryAt;
+
+        Partition(String name, String queueKey, String processingKey, String streamKey) {
+            this.name = name;
+            this.queueKey = queueKey;
+            this.processingKey = processingKey;
+            this.streamKey = streamKey;
+        }
     }
 
-    private void addDedupKey(String key) {
-        stringRedisTemplate.opsForValue().set(key, "1");
-        stringRedisTemplate.expire(key, java.time.Duration.ofDays(7));
+    // 消费线程：轮询所负责的分区，每个分区每轮最多取一批，避免单个分区积压时饿死其他分区
+    private final class Worker implements Runnable {
+        private final List<Partition> owned;
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        Worker(int index, List<Partition> owned) {
+            this.owned = owned;
+            this.thread = new Thread(this, "attendance-ingest-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                boolean busy = false;
+                for (Partition part : owned) {
+                    if (!running) break;
+                    try {
+                        busy |= drainOnce(part);
+                    } catch (Exception e) {
+                        org.slf4j.LoggerFactory.getLogger(AttendanceQueueConsumer.class).warn("Queue drain failed for partition {} (Redis likely unavailable)", part.name, e);
+                    }
+                }
+                if (!busy) {
+                    try {
+                        Thread.sleep(pollIntervalMs);
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                }
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -2,6 +2,31 @@ package com.campus.card.admin.queue;
 
 public final class AttendanceQueueKeys {
     private AttendanceQueueKeys() {}
+    // 分区前的单队列，升级后仍由 0 号消费线程排空遗留消息
     public static final String QUEUE_KEY = "attendance:ingest:queue";
     public static final String DEDUP_SET_KEY_PREFIX = "attendance:dedup:"; // e.g., attendance:dedup:2025-10-25
-}
\ No newline at end of file
+    // 可靠消费模式下正在处理中的消息，按消费者区分：attendance:ingest:processing:{consumerId}[:{partition}]
+    public static final String PROCESSING_KEY_PREFIX = "attendance:ingest:processing:";
+    // 列表模式：消息处理失败次数（field 为消息体摘要）与超过重试上限的死信列表
+    public static final String ATTEMPTS_KEY = "attendance:ingest:attempts";
+    public static final String DEAD_LETTER_KEY = "attendance:ingest:dead";
+
+    // Streams 传输模式的分区流与死信流
+    public static final String STREAM_KEY_PREFIX = "attendance:ingest:stream:";
+    public static final String STREAM_DEAD_LETTER_KEY = "attendance:ingest:stream:dead";
+
+    public static String streamKey(int partition) {
+        return STREAM_KEY_PREFIX + partition;
+    }
+
+    /** 分区队列：attendance:ingest:queue:{partition} */
+    public static String partitionKey(int partition) {
+        return QUEUE_KEY + ":" + partition;
+    }
+
+    /** 按设备分区，同一设备的事件总在同一分区内按序消费；无设备号的归入 0 号分区 */
+    public static int partitionOf(Long deviceId, int partitions) {
+        if (deviceId == null || partitions <= 1) return 0;
+        return (int) Math.floorMod(deviceId, (long) partitions);
+    }
+}
@@ -0,0 +1,172 @@
+package com.campus.card.admin.queue;
+
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 考勤入队消费指标：各分区积压（列表模式 LLEN，stream 模式 XLEN）、最近一批的延迟（出队时刻 - 入队时刻）、处理量与近一分钟吞吐。
+ */
+@Component
+public class AttendanceQueueMetrics {
+    private static final int WINDOW_SECONDS = 60;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final AttendanceStreamTransport streamTransport;
+    private final Map<String, PartitionStats> stats = new ConcurrentHashMap<>();
+    private final LongAdder inserted = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    @Value("${attendance.queue.partitions:8}")
+    private int partitions;
+
+    @Value("${attendance.queue.transport:list}")
+    private String transport;
+
+    public AttendanceQueueMetrics(StringRedisTemplate stringRedisTemplate, AttendanceStreamTransport streamTransport) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.streamTransport = streamTransport;
+    }
+
+    /** 记录一批已处理的事件；oldestEnqueuedAt 为批内最早入队时间（毫秒），未知时传 0 */
+    public void recordBatch(String partition, int events, long oldestEnqueuedAt) {
+        PartitionStats s = stats.computeIfAbsent(partition, k -> new PartitionStats());
+        long now = System.currentTimeMillis();
+        s.processed.add(events);
+        s.window.add(now / 1000, events);
+        if (oldestEnqueuedAt > 0) {
+            s.lastLagMs = Math.max(0, now - oldestEnqueuedAt);
+        }
+        s.lastBatchAt = now;
+    }
+
+    /** 记录一批入库结果：新增条数与被唯一索引忽略的重复条数 */
+    public void recordInsert(int insertedRows, int duplicateRows) {
+        inserted.add(insertedRows);
+        duplicates.add(duplicateRows);
+    }
+
+    public QueueSnapshot snapshot() {
+        boolean stream = "stream".equalsIgnoreCase(transport);
+        List<String> names = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (int p = 0; p < Math.max(1, partitions); p++) {
+            names.add(String.valueOf(p));
+            keys.add(stream ? AttendanceQueueKeys.streamKey(p) : AttendanceQueueKeys.partitionKey(p));
+        }
+        names.add("legacy");
+        keys.add(AttendanceQueueKeys.QUEUE_KEY);
+        int streamKeys = stream ? keys.size() - 1 : 0;
+        List<Object> depths = null;
+        try {
+            // 一次往返取回所有分区长度：stream 模式的分区流用 XLEN（含已读未确认及已确认但未裁剪的条目），遗留列表用 LLEN
+            depths = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = 0; i < keys.size(); i++) {
+                    byte[] key = keys.get(i).getBytes(StandardCharsets.UTF_8);
+                    if (i < streamKeys) {
+                        connection.streamCommands().xLen(key);
+                    } else {
+                        connection.listCommands().lLen(key);
+                    }
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            org.slf4j.LoggerFactory.getLogger(AttendanceQueueMetrics.class).warn("Queue depth query failed", e);
+        }
+        long nowSec = System.currentTimeMillis() / 1000;
+        QueueSnapshot snap = new QueueSnapshot();
+        List<PartitionSnapshot> list = new ArrayList<>(names.size());
+        long totalDepth = 0;
+        double totalRate = 0;
+        for (int i = 0; i < names.size(); i++) {
+            PartitionSnapshot ps = new PartitionSnapshot();
+            ps.setPartition(names.get(i));
+            ps.setKey(keys.get(i));
+            Object d = depths != null && i < depths.size() ? depths.get(i) : null;
+            ps.setDepth(d instanceof Number ? ((Number) d).longValue() : -1L);
+            // stream 模式下另报消费组待确认数（已投递未 XACK）
+            if (i < streamKeys) {
+                ps.setPending(streamTransport.pendingCount(AttendanceQueueKeys.streamKey(i)));
+            }
+            PartitionStats s = stats.get(names.get(i));
+            if (s != null) {
+                ps.setProcessed(s.processed.sum());
+                ps.setLastLagMs(s.lastLagMs);
+                ps.setLastBatchAt(s.lastBatchAt);
+                ps.setEventsPerSecond(s.window.sum(nowSec) / (double) WINDOW_SECONDS);
+            }
+            if (ps.getDepth() > 0) totalDepth += ps.getDepth();
+            totalRate += ps.getEventsPerSecond();
+            list.add(ps);
+        }
+        snap.setTotalDepth(totalDepth);
+        snap.setEventsPerSecond(totalRate);
+        snap.setPartitions(list);
+        snap.setInserted(inserted.sum());
+        snap.setDuplicates(duplicates.sum());
+        return snap;
+    }
+
+    private static final class PartitionStats {
+        private final LongAdder processed = new LongAdder();
+        private final RateWindow window = new RateWindow();
+        private volatile long lastLagMs;
+        private volatile long lastBatchAt;
+    }
+
+    // 按秒分桶的环形计数，统计最近 WINDOW_SECONDS 秒的事件数
+    private static final class RateWindow {
+        private final AtomicLongArray counts = new AtomicLongArray(WINDOW_SECONDS);
+        private final AtomicLongArray seconds = new AtomicLongArray(WINDOW_SECONDS);
+
+        void add(long second, long n) {
+            int i = (int) (second % WINDOW_SECONDS);
+            long prev = seconds.get(i);
+            if (prev != second && seconds.compareAndSet(i, prev, second)) {
+                counts.set(i, 0);
+            }
+            counts.addAndGet(i, n);
+        }
+
+        long sum(long nowSecond) {
+            long total = 0;
+            for (int i = 0; i < WINDOW_SECONDS; i++) {
+                if (nowSecond - seconds.get(i) < WINDOW_SECONDS) total += counts.get(i);
+            }
+            return total;
+        }
+    }
+
+    @Data
+    public static class QueueSnapshot {
+        private long totalDepth;
+        private double eventsPerSecond;
+        // 自启动以来入库新增与被去重的记录数
+        private long inserted;
+        private long duplicates;
+        private List<PartitionSnapshot> partitions;
+    }
+
+    @Data
+    public static class PartitionSnapshot {
+        private String partition;
+        private String key;
+        private long depth;
+        private long pending;
+        private long processed;
+        private long lastLagMs;
+        private long lastBatchAt;
+        private double eventsPerSecond;
+    }
+}
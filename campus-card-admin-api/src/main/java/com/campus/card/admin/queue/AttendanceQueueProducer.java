@@ -12,12 +12,21 @@ public class AttendanceQueueProducer {
     private final com.campus.card.admin.service.AttendanceBatchService batchService;
     @org.springframework.beans.factory.annotation.Value("${attendance.queue.enabled:true}")
     private boolean queueEnabled;
+    @org.springframework.beans.factory.annotation.Value("${attendance.queue.partitions:8}")
+    private int partitions;
+    @org.springframework.beans.factory.annotation.Value("${attendance.queue.transport:list}")
+    private String transport;
+    @org.springframework.beans.factory.annotation.Value("${attendance.queue.bulk-max-items:20000}")
+    private int bulkMaxItems;
+    private final AttendanceStreamTransport streamTransport;
 
     public AttendanceQueueProducer(StringRedisTemplate stringRedisTemplate, ObjectMapper objectMapper,
-                                   com.campus.card.admin.service.AttendanceBatchService batchService) {
+                                   com.campus.card.admin.service.AttendanceBatchService batchService,
+                                   AttendanceStreamTransport streamTransport) {
         this.stringRedisTemplate = stringRedisTemplate;
         this.objectMapper = objectMapper;
         this.batchService = batchService;
+        this.streamTransport = streamTransport;
     }
 
     public void enqueueFace(com.campus.card.admin.controller.AttendanceController.FaceIngestReq req) {
@@ -28,7 +37,7 @@ public class AttendanceQueueProducer {
             return;
         }
         try {
-            enqueue("face", req);
+            enqueue("face", req.getDeviceId(), req);
         } catch (Exception e) {
             org.slf4j.LoggerFactory.getLogger(AttendanceQueueProducer.class)
                     .warn("Redis enqueue failed for face, fallback to direct batch", e);
@@ -46,7 +55,7 @@ public class AttendanceQueueProducer {
             return;
         }
         try {
-            enqueue("card", req);
+            enqueue("card", req.getDeviceId(), req);
         } catch (Exception e) {
             org.slf4j.LoggerFactory.getLogger(AttendanceQueueProducer.class)
                     .warn("Redis enqueue failed for card, fallback to direct batch", e);
@@ -56,13 +65,120 @@ public class AttendanceQueueProducer {
         }
     }
 
-    private void enqueue(String type, Object payload) {
+    /** 批量入队：按分区分组后一次管道往返（每个分区一条多值 LPUSH）；Redis 不可用时整批直接入库 */
+    public int enqueueCards(java.util.List<com.campus.card.admin.controller.AttendanceController.CardIngestReq> reqs) {
+        if (reqs == null || reqs.isEmpty()) return 0;
+        checkBulkSize(reqs.size());
+        if (!queueEnabled) {
+            batchService.processCardBatch(reqs);
+            return reqs.size();
+        }
+        try {
+            java.util.List<Long> deviceIds = new java.util.ArrayList<>(reqs.size());
+            for (com.campus.card.admin.controller.AttendanceController.CardIngestReq r : reqs) deviceIds.add(r.getDeviceId());
+            enqueueAll("card", deviceIds, reqs);
+        } catch (Exception e) {
+            // 管道中途失败时部分消息可能已入队，直接入库与之后的消费由唯一索引去重
+            org.slf4j.LoggerFactory.getLogger(AttendanceQueueProducer.class)
+                    .warn("Redis bulk enqueue failed for {} cards, fallback to direct batch", reqs.size(), e);
+            batchService.processCardBatch(reqs);
+        }
+        return reqs.size();
+    }
+
+    public int enqueueFaces(java.util.List<com.campus.card.admin.controller.AttendanceController.FaceIngestReq> reqs) {
+        if (reqs == null || reqs.isEmpty()) return 0;
+        checkBulkSize(reqs.size());
+        if (!queueEnabled) {
+            batchService.processFaceBatch(reqs);
+            return reqs.size();
+        }
+        try {
+            java.util.List<Long> deviceIds = new java.util.ArrayList<>(reqs.size());
+            for (com.campus.card.admin.controller.AttendanceController.FaceIngestReq r : reqs) deviceIds.add(r.getDeviceId());
+            enqueueAll("face", deviceIds, reqs);
+        } catch (Exception e) {
+            org.slf4j.LoggerFactory.getLogger(AttendanceQueueProducer.class)
+                    .warn("Redis bulk enqueue failed for {} faces, fallback to direct batch", reqs.size(), e);
+            batchService.processFaceBatch(reqs);
+        }
+        return reqs.size();
+    }
+
+    // JSON 数组与 NDJSON 两种批量入口共用同一上限；超限时整批拒绝，不做部分入队
+    private void checkBulkSize(int size) {
+        if (size > bulkMaxItems) {
+            throw new IllegalArgumentException("单次最多上传 " + bulkMaxItems + " 条");
+        }
+    }
+
+    /**
+     * 读取 NDJSON（每行一个请求对象，空行忽略）。先整体解析再入队，任一行格式错误时整批拒绝；
+     * 超过 attendance.queue.bulk-max-items 行同样拒绝，避免单次请求占用过多内存。
+     */
+    public <T> java.util.List<T> readNdjson(java.io.InputStream in, Class<T> type) throws java.io.IOException {
+        java.util.List<T> list = new java.util.ArrayList<>();
+        java.io.BufferedReader br = new java.io.BufferedReader(
+                new java.io.InputStreamReader(in, java.nio.charset.StandardCharsets.UTF_8));
+        String line;
+        int row = 0;
+        while ((line = br.readLine()) != null) {
+            row++;
+            if (line.trim().isEmpty()) continue;
+            if (list.size() >= bulkMaxItems) {
+                throw new IllegalArgumentException("单次最多上传 " + bulkMaxItems + " 条");
+            }
+            try {
+                list.add(objectMapper.readValue(line, type));
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("第" + row + "行格式错误: " + e.getOriginalMessage());
+            }
+        }
+        return list;
+    }
+
+    private void enqueueAll(String type, java.util.List<Long> deviceIds, java.util.List<?> payloads) throws JsonProcessingException {
+        long ts = System.currentTimeMillis();
+        java.util.Map<Integer, java.util.List<String>> byPartition = new java.util.TreeMap<>();
+        for (int i = 0; i < payloads.size(); i++) {
+            java.util.Map<String, Object> wrapper = new java.util.HashMap<>();
+            wrapper.put("type", type);
+            wrapper.put("payload", payloads.get(i));
+            wrapper.put("ts", ts);
+            int partition = AttendanceQueueKeys.partitionOf(deviceIds.get(i), partitions);
+            byPartition.computeIfAbsent(partition, k -> new java.util.ArrayList<>()).add(objectMapper.writeValueAsString(wrapper));
+        }
+        if ("stream".equalsIgnoreCase(transport)) {
+            streamTransport.addAll(byPartition);
+            return;
+        }
+        stringRedisTemplate.executePipelined((org.springframework.data.redis.core.RedisCallback<Object>) connection -> {
+            for (java.util.Map.Entry<Integer, java.util.List<String>> e : byPartition.entrySet()) {
+                byte[] key = AttendanceQueueKeys.partitionKey(e.getKey()).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                byte[][] values = new byte[e.getValue().size()][];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = e.getValue().get(i).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                }
+                // 按原顺序 LPUSH，消费端从右侧取出时仍是先进先出
+                connection.listCommands().lPush(key, values);
+            }
+            return null;
+        });
+    }
+
+    private void enqueue(String type, Long deviceId, Object payload) {
         try {
             java.util.Map<String, Object> wrapper = new java.util.HashMap<>();
             wrapper.put("type", type);
             wrapper.put("payload", payload);
+            wrapper.put("ts", System.currentTimeMillis()); // 入队时间，用于统计消费延迟
             String json = objectMapper.writeValueAsString(wrapper);
-            stringRedisTemplate.opsForList().leftPush(AttendanceQueueKeys.QUEUE_KEY, json);
+            int partition = AttendanceQueueKeys.partitionOf(deviceId, partitions);
+            if ("stream".equalsIgnoreCase(transport)) {
+                streamTransport.add(partition, json);
+            } else {
+                stringRedisTemplate.opsForList().leftPush(AttendanceQueueKeys.partitionKey(partition), json);
+            }
         } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
             throw new RuntimeException("Failed to serialize queue payload", e);
         }
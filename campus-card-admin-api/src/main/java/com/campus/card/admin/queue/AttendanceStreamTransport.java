@@ -0,0 +1,213 @@
+package com.campus.card.admin.queue;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 考勤入队的 Redis Streams 传输（attendance.queue.transport=stream）：
+ * XADD（MAXLEN ~ 近似裁剪）入队，消费组 XREADGROUP 读取、处理成功后 XACK；
+ * 崩溃或处理失败未确认的消息超过 min-idle 后由 XAUTOCLAIM 重新认领，
+ * 投递次数达到上限的毒消息转入死信流并确认，不再重试。
+ * 消息体与列表模式相同，整条 JSON 存放在 body 字段。需要 Redis 6.2+。
+ */
+@Component
+public class AttendanceStreamTransport {
+    public static final String GROUP = "attendance-ingest";
+
+    private static final DefaultRedisScript<String> XADD = new DefaultRedisScript<>(
+            "return redis.call('XADD', KEYS[1], 'MAXLEN', '~', ARGV[1], '*', 'body', ARGV[2])", String.class);
+
+    private static final DefaultRedisScript<Long> CREATE_GROUP = new DefaultRedisScript<>(
+            "local ok = redis.pcall('XGROUP', 'CREATE', KEYS[1], ARGV[1], '0', 'MKSTREAM')\n" +
+            "if type(ok) == 'table' and ok.err then return 0 end\n" +
+            "return 1", Long.class);
+
+    // 先把投递次数达到上限的待确认消息转入死信流并确认，再用 XAUTOCLAIM 认领其余空闲超时的消息
+    // KEYS: stream, dead-letter；ARGV: group, consumer, min-idle-ms, count, max-deliveries, dead-letter-maxlen
+    private static final DefaultRedisScript<List> RECLAIM = new DefaultRedisScript<>(
+            "local pending = redis.call('XPENDING', KEYS[1], ARGV[1], 'IDLE', ARGV[3], '-', '+', ARGV[4])\n" +
+            "for _, p in ipairs(pending) do\n" +
+            "  if tonumber(p[4]) >= tonumber(ARGV[5]) then\n" +
+            "    local e = redis.call('XRANGE', KEYS[1], p[1], p[1])\n" +
+            "    local body = ''\n" +
+            "    if #e > 0 then\n" +
+            "      local f = e[1][2]\n" +
+            "      for i = 1, #f, 2 do if f[i] == 'body' then body = f[i + 1] end end\n" +
+            "    end\n" +
+            "    redis.call('XADD', KEYS[2], 'MAXLEN', '~', ARGV[6], '*', 'body', body, 'stream', KEYS[1], " +
+            "'sourceId', p[1], 'deliveries', tostring(p[4]))\n" +
+            "    redis.call('XACK', KEYS[1], ARGV[1], p[1])\n" +
+            "  end\n" +
+            "end\n" +
+            "local claimed = redis.call('XAUTOCLAIM', KEYS[1], ARGV[1], ARGV[2], ARGV[3], '0-0', 'COUNT', ARGV[4])\n" +
+            "local out = {}\n" +
+            "for _, e in ipairs(claimed[2]) do\n" +
+            "  local body = ''\n" +
+            "  if e[2] then\n" +
+            "    for i = 1, #e[2], 2 do if e[2][i] == 'body' then body = e[2][i + 1] end end\n" +
+            "  end\n" +
+            "  table.insert(out, e[1])\n" +
+            "  table.insert(out, body)\n" +
+            "end\n" +
+            "return out", List.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Set<String> groupsReady = ConcurrentHashMap.newKeySet();
+
+    @Value("${attendance.queue.stream.max-len:1000000}")
+    private long maxLen;
+
+    @Value("${attendance.queue.stream.min-idle-ms:60000}")
+    private long minIdleMs;
+
+    @Value("${attendance.queue.stream.max-deliveries:5}")
+    private int maxDeliveries;
+
+    @Value("${attendance.queue.stream.dead-letter-max-len:100000}")
+    private long deadLetterMaxLen;
+
+    public AttendanceStreamTransport(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public void add(int partition, String body) {
+        stringRedisTemplate.execute(XADD, Collections.singletonList(AttendanceQueueKeys.streamKey(partition)),
+                String.valueOf(maxLen), body);
+    }
+
+    /**
+     * 批量追加：一次管道往返执行各分区的 XADD（MAXLEN ~），消息按列表顺序写入。
+     * 管道内用 EVALSHA 只传脚本摘要；脚本未缓存（Redis 重启或 SCRIPT FLUSH）时整批返回 NOSCRIPT，
+     * 此时 SCRIPT LOAD 后整批重发一次。Lettuce 在管道出错时不给出逐条结果，若恰有其他实例在本批执行中途
+     * 装载了脚本，部分消息会被追加两次，由消费端去重与唯一索引吸收。
+     */
+    public void addAll(Map<Integer, List<String>> bodiesByPartition) {
+        if (bodiesByPartition == null || bodiesByPartition.isEmpty()) return;
+        byte[] maxLenArg = String.valueOf(maxLen).getBytes(StandardCharsets.UTF_8);
+        List<byte[][]> calls = new ArrayList<>();
+        for (Map.Entry<Integer, List<String>> e : bodiesByPartition.entrySet()) {
+            byte[] key = AttendanceQueueKeys.streamKey(e.getKey()).getBytes(StandardCharsets.UTF_8);
+            for (String body : e.getValue()) {
+                calls.add(new byte[][]{key, maxLenArg, body.getBytes(StandardCharsets.UTF_8)});
+            }
+        }
+        try {
+            pipelineEvalSha(calls);
+        } catch (DataAccessException e) {
+            if (!isNoScript(e)) throw e;
+            stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                    connection.scriptingCommands().scriptLoad(XADD.getScriptAsString().getBytes(StandardCharsets.UTF_8)));
+            pipelineEvalSha(calls);
+        }
+    }
+
+    private void pipelineEvalSha(List<byte[][]> calls) {
+        String sha = XADD.getSha1();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (byte[][] keysAndArgs : calls) {
+                connection.scriptingCommands().evalSha(sha, ReturnType.VALUE, 1, keysAndArgs);
+            }
+            return null;
+        });
+    }
+
+    private static boolean isNoScript(Throwable t) {
+        for (Throwable c = t; c != null; c = c.getCause()) {
+            if (c.getMessage() != null && c.getMessage().contains("NOSCRIPT")) return true;
+            if (c.getCause() == c) break;
+        }
+        return false;
+    }
+
+    /** 以消费组身份读取新消息（不阻塞） */
+    public List<Entry> read(String streamKey, String consumer, int count) {
+        ensureGroup(streamKey);
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                Consumer.from(GROUP, consumer), StreamReadOptions.empty().count(count),
+                StreamOffset.create(streamKey, ReadOffset.lastConsumed()));
+        if (records == null || records.isEmpty()) return Collections.emptyList();
+        List<Entry> list = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> r : records) {
+            Object body = r.getValue().get("body");
+            list.add(new Entry(r.getId().getValue(), body != null ? body.toString() : ""));
+        }
+        return list;
+    }
+
+    /** 认领空闲超时的待确认消息，超过投递上限的转入死信流 */
+    @SuppressWarnings("unchecked")
+    public List<Entry> reclaim(String streamKey, String consumer, int count) {
+        ensureGroup(streamKey);
+        List<Object> flat = stringRedisTemplate.execute(RECLAIM,
+                Arrays.asList(streamKey, AttendanceQueueKeys.STREAM_DEAD_LETTER_KEY),
+                GROUP, consumer, String.valueOf(minIdleMs), String.valueOf(count),
+                String.valueOf(maxDeliveries), String.valueOf(deadLetterMaxLen));
+        if (flat == null || flat.isEmpty()) return Collections.emptyList();
+        List<Entry> list = new ArrayList<>(flat.size() / 2);
+        for (int i = 0; i + 1 < flat.size(); i += 2) {
+            list.add(new Entry(String.valueOf(flat.get(i)), flat.get(i + 1) != null ? flat.get(i + 1).toString() : ""));
+        }
+        return list;
+    }
+
+    public void ack(String streamKey, List<Entry> entries) {
+        if (entries.isEmpty()) return;
+        String[] ids = new String[entries.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = entries.get(i).id;
+        stringRedisTemplate.opsForStream().acknowledge(streamKey, GROUP, ids);
+    }
+
+    /** 消费组待确认消息数，不存在时为 0 */
+    public long pendingCount(String streamKey) {
+        try {
+            org.springframework.data.redis.connection.stream.PendingMessagesSummary s =
+                    stringRedisTemplate.opsForStream().pending(streamKey, GROUP);
+            return s != null ? s.getTotalPendingMessages() : 0L;
+        } catch (Exception e) {
+            return 0L;
+        }
+    }
+
+    private void ensureGroup(String streamKey) {
+        if (groupsReady.contains(streamKey)) return;
+        stringRedisTemplate.execute(CREATE_GROUP, Collections.singletonList(streamKey), GROUP);
+        groupsReady.add(streamKey);
+    }
+
+    public static final class Entry {
+        private final String id;
+        private final String body;
+
+        Entry(String id, String body) {
+            this.id = id;
+            this.body = body;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+}
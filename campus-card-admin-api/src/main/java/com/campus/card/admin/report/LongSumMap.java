@@ -0,0 +1,92 @@
+package com.campus.card.admin.report;
+
+/**
+ * long -> long 累加表（开放寻址，线性探测），用于按 id 汇总分值，避免 Long/BigDecimal 装箱。
+ * 键不能为 {@link Long#MIN_VALUE}（作为空槽标记）。非线程安全。
+ */
+public final class LongSumMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+    private int mask;
+
+    public LongSumMap() {
+        this(64);
+    }
+
+    public LongSumMap(int expected) {
+        int cap = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        allocate(cap);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** 将 delta 累加到 key 上，返回累加后的值 */
+    public long add(long key, long delta) {
+        if (key == EMPTY) throw new IllegalArgumentException("unsupported key");
+        int i = slot(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                return values[i] += delta;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = delta;
+        if (++size * 4 > keys.length * 3) {
+            rehash();
+        }
+        return delta;
+    }
+
+    public long get(long key) {
+        int i = slot(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) return values[i];
+            i = (i + 1) & mask;
+        }
+        return 0L;
+    }
+
+    /** 合并另一个部分结果（同一 key 的值相加） */
+    public void merge(LongSumMap other) {
+        other.forEach(this::add);
+    }
+
+    public void forEach(Entry consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) consumer.accept(keys[i], values[i]);
+        }
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void allocate(int cap) {
+        keys = new long[cap];
+        values = new long[cap];
+        java.util.Arrays.fill(keys, EMPTY);
+        mask = cap - 1;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) add(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Entry {
+        void accept(long key, long value);
+    }
+}
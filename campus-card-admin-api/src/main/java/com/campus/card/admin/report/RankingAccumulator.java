@@ -0,0 +1,33 @@
+package com.campus.card.admin.report;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 分区消费排行累加器：逐行接收 (分区, 学生, 金额分)，每个分区一张 {@link LongSumMap}，
+ * 最后对每个分区取 Top-K。内存为 O(不同学生数 + 分区数 × K)。
+ * 多个累加器（如按日期段并行扫描）可用 {@link #merge} 合并后再取 Top-K。
+ */
+public final class RankingAccumulator<P> {
+    private final Map<P, LongSumMap> partitions = new LinkedHashMap<>();
+
+    public void accept(P partition, long studentId, long amountCents) {
+        partitions.computeIfAbsent(partition, p -> new LongSumMap()).add(studentId, amountCents);
+    }
+
+    public void merge(RankingAccumulator<P> other) {
+        for (Map.Entry<P, LongSumMap> e : other.partitions.entrySet()) {
+            partitions.computeIfAbsent(e.getKey(), p -> new LongSumMap()).merge(e.getValue());
+        }
+    }
+
+    public Map<P, TopK> topK(int k) {
+        Map<P, TopK> result = new LinkedHashMap<>();
+        for (Map.Entry<P, LongSumMap> e : partitions.entrySet()) {
+            TopK top = new TopK(k);
+            e.getValue().forEach(top::offer);
+            result.put(e.getKey(), top);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,101 @@
+package com.campus.card.admin.report;
+
+/**
+ * 保留分值最大的 K 个 (key, value)，内部为以 value 为序的小顶堆，堆顶是当前第 K 名。
+ * 新元素只有大于堆顶时才替换并下沉，整体 O(N log K)、内存 O(min(N, K))：数组按实际元素数倍增，
+ * 分区很多而每个分区元素很少时不会按 K 预分配。非线程安全。
+ */
+public final class TopK {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final int k;
+    private long[] keys;
+    private long[] values;
+    private int size;
+
+    public TopK(int k) {
+        if (k <= 0) throw new IllegalArgumentException("k must be positive");
+        this.k = k;
+        int initial = Math.min(k, INITIAL_CAPACITY);
+        this.keys = new long[initial];
+        this.values = new long[initial];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void offer(long key, long value) {
+        if (size < k) {
+            if (size == keys.length) grow();
+            keys[size] = key;
+            values[size] = value;
+            siftUp(size++);
+        } else if (greater(value, key, values[0], keys[0])) {
+            keys[0] = key;
+            values[0] = value;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * 合并另一个分片的 Top-K。两个分片的 key 互不重叠时（如按学校/班级切分）结果是精确的；
+     * 若同一 key 可能出现在多个分片，应先用 {@link LongSumMap#merge} 合并汇总再取 Top-K。
+     */
+    public void merge(TopK other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.keys[i], other.values[i]);
+        }
+    }
+
+    /** 按 value 倒序输出，返回 [key, value] 对 */
+    public long[][] sortedDesc() {
+        long[][] out = new long[size][];
+        for (int i = 0; i < size; i++) {
+            out[i] = new long[]{keys[i], values[i]};
+        }
+        java.util.Arrays.sort(out, (a, b) -> greater(a[1], a[0], b[1], b[0]) ? -1 : (greater(b[1], b[0], a[1], a[0]) ? 1 : 0));
+        return out;
+    }
+
+    // 分值相同时按 key 升序靠前，保证结果稳定
+    private static boolean greater(long v1, long k1, long v2, long k2) {
+        return v1 > v2 || (v1 == v2 && k1 < k2);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int p = (i - 1) >>> 1;
+            if (!greater(values[p], keys[p], values[i], keys[i])) break;
+            swap(i, p);
+            i = p;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int l = 2 * i + 1;
+            if (l >= size) break;
+            int r = l + 1;
+            int m = (r < size && greater(values[l], keys[l], values[r], keys[r])) ? r : l;
+            if (!greater(values[i], keys[i], values[m], keys[m])) break;
+            swap(i, m);
+            i = m;
+        }
+    }
+
+    private void grow() {
+        int cap = (int) Math.min(k, keys.length * 2L);
+        keys = java.util.Arrays.copyOf(keys, cap);
+        values = java.util.Arrays.copyOf(values, cap);
+    }
+
+    private void swap(int a, int b) {
+        long tk = keys[a];
+        keys[a] = keys[b];
+        keys[b] = tk;
+        long tv = values[a];
+        values[a] = values[b];
+        values[b] = tv;
+    }
+}
@@ -2,15 +2,20 @@ package com.campus.card.admin.repository;
 
 import com.campus.card.admin.domain.AttendanceRecord;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
-public interface AttendanceRecordRepository extends JpaRepository<AttendanceRecord, Long> {
+public interface AttendanceRecordRepository extends JpaRepository<AttendanceRecord, Long>, JpaSpecificationExecutor<AttendanceRecord> {
     List<AttendanceRecord> findByStudentIdAndAttendanceTimeBetween(Long studentId, LocalDateTime start, LocalDateTime end);
     List<AttendanceRecord> findByClassIdAndAttendanceTimeBetween(Long classId, LocalDateTime start, LocalDateTime end);
     List<AttendanceRecord> findByAttendanceTimeBetween(LocalDateTime start, LocalDateTime end);
@@ -21,5 +26,81 @@ public interface AttendanceRecordRepository extends JpaRepository<AttendanceReco
     @Query("SELECT COUNT(r) FROM AttendanceRecord r WHERE r.status = :status AND r.attendanceTime BETWEEN :start AND :end")
     long countByStatusAndAttendanceTimeBetween(@Param("status") String status, @Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
     
-    boolean existsByStudentIdAndAttendanceTimeAndCheckTypeAndAttendanceType(Long studentId, LocalDateTime attendanceTime, String checkType, String attendanceType);
-}
\ No newline at end of file
+    // 按入库时已判定的状态分组计数，班级/学生/检查类型为空时不过滤
+    @Query("SELECT r.status AS status, COUNT(r) AS total FROM AttendanceRecord r " +
+            "WHERE r.attendanceTime BETWEEN :start AND :end " +
+            "AND (:classId IS NULL OR r.classId = :classId) " +
+            "AND (:studentId IS NULL OR r.studentId = :studentId) " +
+            "AND (:checkType IS NULL OR r.checkType = :checkType) " +
+            "GROUP BY r.status")
+    List<StatusCount> countGroupByStatus(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end,
+                                         @Param("classId") Long classId, @Param("studentId") Long studentId,
+                                         @Param("checkType") String checkType);
+
+    // 按日/按月分组的状态计数（label 为 yyyy-MM-dd / yyyy-MM），班级为空时不过滤
+    @Query(value = "SELECT DATE_FORMAT(attendance_time, :pattern) AS label, status AS status, COUNT(*) AS total " +
+            "FROM attendance_record WHERE attendance_time BETWEEN :start AND :end " +
+            "AND (:classId IS NULL OR class_id = :classId) " +
+            "GROUP BY label, status ORDER BY label", nativeQuery = true)
+    List<BucketStatusCount> countGroupByBucketAndStatus(@Param("pattern") String pattern,
+                                                        @Param("start") LocalDateTime start, @Param("end") LocalDateTime end,
+                                                        @Param("classId") Long classId);
+
+    @Query("SELECT r.classId AS groupId, MAX(r.className) AS groupName, r.status AS status, COUNT(r) AS total " +
+            "FROM AttendanceRecord r WHERE r.attendanceTime BETWEEN :start AND :end AND r.classId IS NOT NULL " +
+            "GROUP BY r.classId, r.status ORDER BY r.classId")
+    List<GroupStatusCount> countGroupByClassAndStatus(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
+
+    @Query("SELECT r.studentId AS groupId, MAX(r.studentName) AS groupName, r.status AS status, COUNT(r) AS total " +
+            "FROM AttendanceRecord r WHERE r.attendanceTime BETWEEN :start AND :end AND r.studentId IS NOT NULL " +
+            "AND (:classId IS NULL OR r.classId = :classId) " +
+            "GROUP BY r.studentId, r.status ORDER BY r.studentId")
+    List<GroupStatusCount> countGroupByStudentAndStatus(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end,
+                                                        @Param("classId") Long classId);
+
+    // 导出：只取投影列并以 MySQL 流式结果集逐行读取，不在内存中保留实体；需在只读事务内消费
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("SELECT r.id AS id, r.studentId AS studentId, r.studentName AS studentName, r.classId AS classId, " +
+            "r.className AS className, r.attendanceTime AS attendanceTime, r.attendanceType AS attendanceType, " +
+            "r.checkType AS checkType, r.status AS status, r.remark AS remark FROM AttendanceRecord r " +
+            "WHERE r.attendanceTime BETWEEN :start AND :end " +
+            "AND (:classId IS NULL OR r.classId = :classId) " +
+            "AND (:studentId IS NULL OR r.studentId = :studentId) " +
+            "ORDER BY r.attendanceTime, r.id")
+    Stream<RecordRow> streamForExport(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end,
+                                      @Param("classId") Long classId, @Param("studentId") Long studentId);
+
+    // 唯一索引 uk_attendance_dedup 冲突时取回已有记录
+    Optional<AttendanceRecord> findFirstByStudentIdAndAttendanceTimeAndCheckTypeAndAttendanceType(Long studentId, LocalDateTime attendanceTime, String checkType, String attendanceType);
+
+    interface StatusCount {
+        String getStatus();
+        Long getTotal();
+    }
+
+    interface RecordRow {
+        Long getId();
+        Long getStudentId();
+        String getStudentName();
+        Long getClassId();
+        String getClassName();
+        LocalDateTime getAttendanceTime();
+        String getAttendanceType();
+        String getCheckType();
+        String getStatus();
+        String getRemark();
+    }
+
+    interface BucketStatusCount {
+        String getLabel();
+        String getStatus();
+        Long getTotal();
+    }
+
+    interface GroupStatusCount {
+        Long getGroupId();
+        String getGroupName();
+        String getStatus();
+        Long getTotal();
+    }
+}
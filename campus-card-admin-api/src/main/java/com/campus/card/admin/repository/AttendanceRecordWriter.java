@@ -0,0 +1,98 @@
+package com.campus.card.admin.repository;
+
+import com.campus.card.admin.domain.AttendanceRecord;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 考勤记录批量幂等写入：依赖唯一索引 uk_attendance_dedup (student_id, attendance_time, check_type, attendance_type)，
+ * 多行 INSERT ... ON DUPLICATE KEY UPDATE id = id 一次往返写入一段，已存在的记录由数据库忽略，多个消费者并行写入也不会产生重复。
+ * 不用 INSERT IGNORE：它会把截断、非空、非法枚举等错误一并降级为警告写入脏数据，这里只忽略唯一键冲突。
+ * 新增条数不取自 INSERT 的影响行数：Connector/J 默认（CLIENT_FOUND_ROWS）下命中唯一键的行也计 1 行，
+ * 改为写入前在同一事务内按唯一键 IN 列表统计已存在的条数，批内重复在内存中先去掉。
+ */
+@Repository
+public class AttendanceRecordWriter {
+    private static final String INSERT_PREFIX =
+            "INSERT INTO attendance_record (student_id, student_name, student_no, class_id, class_name," +
+            " device_id, device_name, attendance_time, attendance_type, check_type, photo_url, status, remark, rule_version) VALUES ";
+    private static final String ON_DUPLICATE = " ON DUPLICATE KEY UPDATE id = id";
+    private static final String ROW_PLACEHOLDERS = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String COUNT_EXISTING_PREFIX =
+            "SELECT COUNT(*) FROM attendance_record WHERE (student_id, attendance_time, check_type, attendance_type) IN (";
+    private static final int CHUNK_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public AttendanceRecordWriter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 写入并返回新增行数（不含库中已存在的与批内重复的记录）。
+     * 统计与写入之间若有其他消费者写入同一条记录，该条仍计为本批新增，只影响重复数统计。
+     */
+    public int insertIgnoringDuplicates(List<AttendanceRecord> records) {
+        if (records == null || records.isEmpty()) return 0;
+        Map<String, AttendanceRecord> distinct = new LinkedHashMap<>(records.size() * 2);
+        for (AttendanceRecord r : records) {
+            distinct.putIfAbsent(r.getStudentId() + "|" + r.getAttendanceTime() + "|" + r.getCheckType() + "|" + r.getAttendanceType(), r);
+        }
+        List<AttendanceRecord> unique = new ArrayList<>(distinct.values());
+        int inserted = 0;
+        for (int from = 0; from < unique.size(); from += CHUNK_SIZE) {
+            List<AttendanceRecord> chunk = unique.subList(from, Math.min(unique.size(), from + CHUNK_SIZE));
+            inserted += chunk.size() - countExisting(chunk);
+            StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + ON_DUPLICATE.length() + chunk.size() * (ROW_PLACEHOLDERS.length() + 2));
+            sql.append(INSERT_PREFIX);
+            List<Object> args = new ArrayList<>(chunk.size() * 14);
+            for (int i = 0; i < chunk.size(); i++) {
+                if (i > 0) sql.append(", ");
+                sql.append(ROW_PLACEHOLDERS);
+                AttendanceRecord r = chunk.get(i);
+                args.add(r.getStudentId());
+                args.add(r.getStudentName());
+                args.add(r.getStudentNo());
+                args.add(r.getClassId());
+                args.add(r.getClassName());
+                args.add(r.getDeviceId());
+                args.add(r.getDeviceName());
+                args.add(Timestamp.valueOf(r.getAttendanceTime()));
+                args.add(r.getAttendanceType());
+                args.add(r.getCheckType());
+                args.add(r.getPhotoUrl());
+                args.add(r.getStatus());
+                args.add(r.getRemark());
+                args.add(r.getRuleVersion());
+            }
+            sql.append(ON_DUPLICATE);
+            jdbcTemplate.update(sql.toString(), args.toArray());
+        }
+        return inserted;
+    }
+
+    // 一次往返统计本段中已入库的记录数，走唯一索引 uk_attendance_dedup
+    private int countExisting(List<AttendanceRecord> chunk) {
+        StringBuilder sql = new StringBuilder(COUNT_EXISTING_PREFIX.length() + chunk.size() * 16);
+        sql.append(COUNT_EXISTING_PREFIX);
+        List<Object> args = new ArrayList<>(chunk.size() * 4);
+        for (int i = 0; i < chunk.size(); i++) {
+            if (i > 0) sql.append(", ");
+            sql.append("(?, ?, ?, ?)");
+            AttendanceRecord r = chunk.get(i);
+            args.add(r.getStudentId());
+            args.add(Timestamp.valueOf(r.getAttendanceTime()));
+            args.add(r.getCheckType());
+            args.add(r.getAttendanceType());
+        }
+        sql.append(')');
+        Integer n = jdbcTemplate.queryForObject(sql.toString(), Integer.class, args.toArray());
+        return n != null ? n : 0;
+    }
+}
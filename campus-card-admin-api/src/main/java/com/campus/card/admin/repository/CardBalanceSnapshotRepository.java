@@ -0,0 +1,36 @@
+package com.campus.card.admin.repository;
+
+import com.campus.card.admin.domain.CardBalanceSnapshot;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Repository
+public interface CardBalanceSnapshotRepository extends JpaRepository<CardBalanceSnapshot, String> {
+    // 追加一组流水：余额取最后一笔的 balance_after，笔数累加，最近流水时间取较大者
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE card_balance_snapshot SET balance = :balance, tx_count = tx_count + :count, " +
+            "last_tx_at = GREATEST(COALESCE(last_tx_at, :lastTxAt), :lastTxAt), updated_at = :now " +
+            "WHERE card_no = :cardNo", nativeQuery = true)
+    int applyTx(@Param("cardNo") String cardNo, @Param("balance") BigDecimal balance, @Param("count") long count,
+                @Param("lastTxAt") LocalDateTime lastTxAt, @Param("now") LocalDateTime now);
+
+    @Transactional
+    @Modifying
+    @Query("update CardBalanceSnapshot s set s.status = :status, s.balance = :balance, s.updatedAt = :now where s.cardNo = :cardNo")
+    int updateState(@Param("cardNo") String cardNo, @Param("status") String status, @Param("balance") BigDecimal balance,
+                    @Param("now") LocalDateTime now);
+
+    // 仅更新状态（挂失/冻结等），余额只由流水写入维护
+    @Transactional
+    @Modifying
+    @Query("update CardBalanceSnapshot s set s.status = :status, s.updatedAt = :now where s.cardNo = :cardNo")
+    int updateStatus(@Param("cardNo") String cardNo, @Param("status") String status, @Param("now") LocalDateTime now);
+}
@@ -2,13 +2,49 @@ package com.campus.card.admin.repository;
 
 import com.campus.card.admin.domain.Card;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
+import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface CardRepository extends JpaRepository<Card, Long> {
+public interface CardRepository extends JpaRepository<Card, Long>, JpaSpecificationExecutor<Card> {
     Optional<Card> findByCardNo(String cardNo);
     List<Card> findByHolderTypeAndHolderId(String holderType, String holderId);
-}
\ No newline at end of file
+    List<Card> findByCardNoIn(Collection<String> cardNos);
+
+    // 记账引擎使用：批量加行锁读取，保证跨节点写入时余额不丢失更新
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c from Card c where c.cardNo in :cardNos")
+    List<Card> findByCardNoInForUpdate(@Param("cardNos") Collection<String> cardNos);
+
+    // 原子扣款：一条条件 UPDATE 完成状态与余额校验，返回 0 表示卡不存在/状态不允许/余额不足
+    @Modifying
+    @Query(value = "UPDATE card SET balance = balance - :amount, version = version + 1 " +
+            "WHERE card_no = :cardNo AND status = 'ACTIVE' AND balance >= :amount", nativeQuery = true)
+    int debitIfSufficient(@Param("cardNo") String cardNo, @Param("amount") BigDecimal amount);
+
+    // 按版本号注销并清零余额，版本不一致（期间发生过记账）时返回 0
+    @Modifying
+    @Query("update Card c set c.status = 'CANCELLED', c.balance = 0, c.version = c.version + 1 " +
+            "where c.cardNo = :cardNo and c.version = :version")
+    int cancelIfVersion(@Param("cardNo") String cardNo, @Param("version") Long version);
+
+    // 按当前状态条件变更卡状态，不触碰余额；返回 0 表示卡不存在或当前状态不允许
+    @Modifying
+    @Query("update Card c set c.status = :status, c.version = c.version + 1 " +
+            "where c.cardNo = :cardNo and c.status in :fromStatuses")
+    int updateStatusIfIn(@Param("cardNo") String cardNo, @Param("fromStatuses") Collection<String> fromStatuses,
+                         @Param("status") String status);
+
+    @Query("select c.balance from Card c where c.cardNo = :cardNo")
+    BigDecimal findBalanceByCardNo(@Param("cardNo") String cardNo);
+}
@@ -1,11 +1,19 @@
 package com.campus.card.admin.repository;
 
 import com.campus.card.admin.domain.CardTx;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface CardTxRepository extends JpaRepository<CardTx, Long> {
@@ -14,4 +22,59 @@ public interface CardTxRepository extends JpaRepository<CardTx, Long> {
     List<CardTx> findByCardNoAndOccurredAtBetweenOrderByOccurredAtDesc(String cardNo, LocalDateTime start, LocalDateTime end);
     // 新增：按类型与时间范围查询（全局），用于报表统计
     List<CardTx> findByTypeAndOccurredAtBetweenOrderByOccurredAtAsc(String type, LocalDateTime start, LocalDateTime end);
+
+    // 个人统计：一次取回名下所有卡在时间范围内的指定类型流水
+    List<CardTx> findByCardNoInAndTypeAndOccurredAtBetween(Collection<String> cardNos, String type,
+                                                           LocalDateTime start, LocalDateTime end);
+
+    // 班级统计：流水 -> 卡 -> 学生 在 SQL 中关联并按学生汇总，一次查询得到全班明细
+    @Query("select s.id as studentId, sum(abs(t.amount)) as totalAmount, count(t) as txCount " +
+            "from CardTx t, Card c, StudentInfo s " +
+            "where t.cardNo = c.cardNo and c.holderType = 'STUDENT' and c.holderId = s.studentNo " +
+            "and s.classId = :classId and t.type = 'CONSUME' and t.occurredAt between :start and :end " +
+            "group by s.id")
+    List<StudentConsumeRow> sumConsumeByStudentOfClass(@Param("classId") Long classId,
+                                                       @Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
+
+    // 余额快照重建：单卡流水笔数与最近流水时间，返回 [count, max(occurredAt)]
+    @Query("select count(t), max(t.occurredAt) from CardTx t where t.cardNo = :cardNo")
+    List<Object[]> summarizeByCardNo(@Param("cardNo") String cardNo);
+
+    // 游标分页：按 (occurred_at, id) 倒序，从游标位置之后取，命中 (card_no, occurred_at, id) 联合索引
+    @Query("select t from CardTx t where t.cardNo = :cardNo " +
+            "and (:type is null or t.type = :type) " +
+            "and (:start is null or t.occurredAt >= :start) and (:end is null or t.occurredAt <= :end) " +
+            "and (:cursorAt is null or t.occurredAt < :cursorAt or (t.occurredAt = :cursorAt and t.id < :cursorId)) " +
+            "order by t.occurredAt desc, t.id desc")
+    List<CardTx> findPageByCardNo(@Param("cardNo") String cardNo, @Param("type") String type,
+                                  @Param("start") LocalDateTime start, @Param("end") LocalDateTime end,
+                                  @Param("cursorAt") LocalDateTime cursorAt, @Param("cursorId") Long cursorId,
+                                  Pageable pageable);
+
+    // 导出：只取投影列并以 MySQL 流式结果集逐行读取，不在内存中保留实体；需在只读事务内消费
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("select t.id as id, t.cardNo as cardNo, t.type as type, t.amount as amount, t.balanceAfter as balanceAfter, " +
+            "t.merchant as merchant, t.occurredAt as occurredAt, t.note as note from CardTx t where t.cardNo = :cardNo " +
+            "and (:type is null or t.type = :type) " +
+            "and (:start is null or t.occurredAt >= :start) and (:end is null or t.occurredAt <= :end) " +
+            "order by t.occurredAt desc, t.id desc")
+    Stream<TxRow> streamByCardNo(@Param("cardNo") String cardNo, @Param("type") String type,
+                                 @Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
+
+    interface StudentConsumeRow {
+        Long getStudentId();
+        BigDecimal getTotalAmount();
+        Long getTxCount();
+    }
+
+    interface TxRow {
+        Long getId();
+        String getCardNo();
+        String getType();
+        BigDecimal getAmount();
+        BigDecimal getBalanceAfter();
+        String getMerchant();
+        LocalDateTime getOccurredAt();
+        String getNote();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.campus.card.admin.repository;
+
+import com.campus.card.admin.domain.ConsumeDailyRollup;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+@Repository
+public interface ConsumeDailyRollupRepository extends JpaRepository<ConsumeDailyRollup, Long> {
+    @Query("select r.bucketStart as bucket, sum(r.amountCents) as amountCents, sum(r.txCount) as txCount " +
+            "from ConsumeDailyRollup r where r.bucketStart between :start and :end " +
+            "group by r.bucketStart order by r.bucketStart")
+    List<ConsumeRollupTotals.BucketTotal> sumByDay(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
+
+    // 按学生汇总并按金额倒序，Pageable 仅用于限制条数
+    @Query("select r.studentId as studentId, sum(r.amountCents) as amountCents, sum(r.txCount) as txCount " +
+            "from ConsumeDailyRollup r where r.studentId is not null and r.bucketStart between :start and :end " +
+            "group by r.studentId order by sum(r.amountCents) desc")
+    List<ConsumeRollupTotals.StudentTotal> sumByStudent(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end,
+                                                        Pageable pageable);
+
+    // 分区排行：以 MySQL 流式结果集逐行读取汇总行，由调用方在内存中按分区累加；需在只读事务内消费
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("select r.studentId as studentId, r.classId as classId, r.schoolId as schoolId, r.merchant as merchant, " +
+            "r.amountCents as amountCents from ConsumeDailyRollup r " +
+            "where r.studentId is not null and r.bucketStart between :start and :end")
+    Stream<ConsumeRollupTotals.RankingRow> streamForRanking(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
+}
@@ -0,0 +1,18 @@
+package com.campus.card.admin.repository;
+
+import com.campus.card.admin.domain.ConsumeHourlyRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface ConsumeHourlyRollupRepository extends JpaRepository<ConsumeHourlyRollup, Long> {
+    @Query("select r.bucketStart as bucket, sum(r.amountCents) as amountCents, sum(r.txCount) as txCount " +
+            "from ConsumeHourlyRollup r where r.bucketStart between :start and :end " +
+            "group by r.bucketStart order by r.bucketStart")
+    List<ConsumeRollupTotals.BucketTotal> sumByHour(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
+}
@@ -0,0 +1,30 @@
+package com.campus.card.admin.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * 消费汇总表聚合查询的投影。
+ */
+public final class ConsumeRollupTotals {
+    private ConsumeRollupTotals() {}
+
+    public interface BucketTotal {
+        LocalDateTime getBucket();
+        Long getAmountCents();
+        Long getTxCount();
+    }
+
+    public interface StudentTotal {
+        Long getStudentId();
+        Long getAmountCents();
+        Long getTxCount();
+    }
+
+    public interface RankingRow {
+        Long getStudentId();
+        Long getClassId();
+        Long getSchoolId();
+        String getMerchant();
+        Long getAmountCents();
+    }
+}
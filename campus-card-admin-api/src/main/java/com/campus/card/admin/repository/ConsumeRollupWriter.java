@@ -0,0 +1,89 @@
+package com.campus.card.admin.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 消费汇总表的写入：增量 upsert（JDBC 批量）与按时间段从 card_tx 重建。
+ */
+@Repository
+public class ConsumeRollupWriter {
+    public static final String HOURLY = "consume_rollup_hourly";
+    public static final String DAILY = "consume_rollup_daily";
+
+    private static final String UPSERT_COLUMNS =
+            " (bucket_start, card_no, merchant, student_id, class_id, school_id, amount_cents, tx_count, updated_at)" +
+            " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)" +
+            " ON DUPLICATE KEY UPDATE amount_cents = amount_cents + VALUES(amount_cents)," +
+            " tx_count = tx_count + VALUES(tx_count), updated_at = VALUES(updated_at)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ConsumeRollupWriter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void upsert(String table, Collection<Delta> deltas) {
+        if (deltas == null || deltas.isEmpty()) return;
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> args = new ArrayList<>(deltas.size());
+        for (Delta d : deltas) {
+            args.add(new Object[]{Timestamp.valueOf(d.bucketStart), d.cardNo, d.merchant, d.studentId, d.classId, d.schoolId,
+                    d.amountCents, d.txCount, now});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO " + table + UPSERT_COLUMNS, args);
+    }
+
+    /** 删除并按 card_tx 重新汇总 [start, end) 区间，须在事务内调用 */
+    public int rebuild(String table, LocalDateTime start, LocalDateTime end) {
+        String bucket = HOURLY.equals(table)
+                ? "DATE_FORMAT(t.occurred_at, '%Y-%m-%d %H:00:00')"
+                : "DATE(t.occurred_at)";
+        Timestamp from = Timestamp.valueOf(start);
+        Timestamp to = Timestamp.valueOf(end);
+        jdbcTemplate.update("DELETE FROM " + table + " WHERE bucket_start >= ? AND bucket_start < ?", from, to);
+        return jdbcTemplate.update(
+                "INSERT INTO " + table +
+                " (bucket_start, card_no, merchant, student_id, class_id, school_id, amount_cents, tx_count, updated_at)" +
+                " SELECT " + bucket + ", t.card_no, COALESCE(t.merchant, ''), s.id, s.class_id, sc.school_id," +
+                " SUM(ROUND(ABS(t.amount) * 100)), COUNT(*), NOW()" +
+                " FROM card_tx t" +
+                " LEFT JOIN card c ON c.card_no = t.card_no" +
+                " LEFT JOIN student s ON c.holder_type = 'STUDENT' AND s.student_no = c.holder_id" +
+                " LEFT JOIN school_class sc ON sc.id = s.class_id" +
+                " WHERE t.type = 'CONSUME' AND t.occurred_at >= ? AND t.occurred_at < ?" +
+                " GROUP BY " + bucket + ", t.card_no, COALESCE(t.merchant, ''), s.id, s.class_id, sc.school_id",
+                from, to);
+    }
+
+    public static final class Delta {
+        private final LocalDateTime bucketStart;
+        private final String cardNo;
+        private final String merchant;
+        private final Long studentId;
+        private final Long classId;
+        private final Long schoolId;
+        private long amountCents;
+        private long txCount;
+
+        public Delta(LocalDateTime bucketStart, String cardNo, String merchant, Long studentId, Long classId, Long schoolId) {
+            this.bucketStart = bucketStart;
+            this.cardNo = cardNo;
+            this.merchant = merchant;
+            this.studentId = studentId;
+            this.classId = classId;
+            this.schoolId = schoolId;
+        }
+
+        public void add(long cents) {
+            amountCents += cents;
+            txCount++;
+        }
+    }
+}
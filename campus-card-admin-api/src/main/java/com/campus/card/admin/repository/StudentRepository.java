@@ -5,6 +5,7 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -14,4 +15,5 @@ public interface StudentRepository extends JpaRepository<StudentInfo, Long>, Jpa
     List<StudentInfo> findByClassId(Long classId);
     boolean existsByStudentNo(String studentNo);
     Optional<StudentInfo> findByStudentNo(String studentNo);
+    List<StudentInfo> findByStudentNoIn(Collection<String> studentNos);
 }
\ No newline at end of file
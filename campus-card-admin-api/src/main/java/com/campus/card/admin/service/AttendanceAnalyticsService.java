@@ -1,61 +1,80 @@
 package com.campus.card.admin.service;
 
-import com.campus.card.admin.domain.AttendanceRecord;
-import com.campus.card.admin.domain.AttendanceRule;
+import com.campus.card.admin.infrastructure.export.CsvWriter;
 import com.campus.card.admin.repository.AttendanceRecordRepository;
-import com.campus.card.common.result.Result;
 import lombok.Data;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
-import java.time.YearMonth;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class AttendanceAnalyticsService {
     private final AttendanceRecordRepository recordRepo;
-    private final AttendanceService attendanceService;
 
-    public AttendanceAnalyticsService(AttendanceRecordRepository recordRepo, AttendanceService attendanceService) {
+    public AttendanceAnalyticsService(AttendanceRecordRepository recordRepo) {
         this.recordRepo = recordRepo;
-        this.attendanceService = attendanceService;
     }
 
-    private List<AttendanceRecord> loadRecords(LocalDate startDate, LocalDate endDate, Long classId, Long studentId) {
-        LocalDateTime start = (startDate != null ? startDate : LocalDate.now().minusDays(30)).atStartOfDay();
-        LocalDateTime end = (endDate != null ? endDate : LocalDate.now()).atTime(LocalTime.MAX);
-        List<AttendanceRecord> list = recordRepo.findByAttendanceTimeBetween(start, end);
-        if (classId != null) list = list.stream().filter(r -> Objects.equals(r.getClassId(), classId)).collect(Collectors.toList());
-        if (studentId != null) list = list.stream().filter(r -> Objects.equals(r.getStudentId(), studentId)).collect(Collectors.toList());
-        return list;
+    private static LocalDateTime startOf(LocalDate startDate) {
+        return (startDate != null ? startDate : LocalDate.now().minusDays(30)).atStartOfDay();
     }
 
-    private String computedStatus(AttendanceRule rule, AttendanceRecord r) {
-        return attendanceService.classifyStatusByRule(rule, r);
+    private static LocalDateTime endOf(LocalDate endDate) {
+        return (endDate != null ? endDate : LocalDate.now()).atTime(LocalTime.MAX);
     }
 
-    private StatsPoint toStatsPoint(Collection<AttendanceRecord> records, AttendanceRule rule, String label) {
-        long normal=0, late=0, early=0, absence=0;
-        for (AttendanceRecord r : records) {
-            String s = computedStatus(rule, r);
-            if ("absence".equalsIgnoreCase(s)) absence++;
-            else if ("late".equalsIgnoreCase(s)) late++;
-            else if ("early".equalsIgnoreCase(s)) early++;
-            else normal++;
+    // 各状态计数；状态在入库时已按规则判定，规则变更后由 AttendanceReclassifier 回填，统计直接使用存储值
+    private static final class Counts {
+        private long normal, late, early, absence;
+
+        void add(String status, Long total) {
+            long n = total != null ? total : 0L;
+            if ("absence".equalsIgnoreCase(status)) absence += n;
+            else if ("late".equalsIgnoreCase(status)) late += n;
+            else if ("early".equalsIgnoreCase(status)) early += n;
+            else normal += n;
+        }
+
+        <T extends StatsPoint> T fill(T p, String label) {
+            long total = normal + late + early + absence;
+            p.setLabel(label);
+            p.setTotalCount(total);
+            p.setNormalCount(normal);
+            p.setLateCount(late);
+            p.setEarlyCount(early);
+            p.setAbsenceCount(absence);
+            p.setAttendanceRate(total > 0 ? (double)(normal + late + early) / (double) total : 0d);
+            return p;
+        }
+    }
+
+    // 整段聚合：在库内按状态分组计数，不加载明细
+    private StatsPoint countStatsPoint(LocalDate startDate, LocalDate endDate, Long classId, Long studentId, String label) {
+        Counts counts = new Counts();
+        for (AttendanceRecordRepository.StatusCount c : recordRepo.countGroupByStatus(startOf(startDate), endOf(endDate), classId, studentId, null)) {
+            counts.add(c.getStatus(), c.getTotal());
         }
-        long total = normal + late + early + absence;
-        StatsPoint p = new StatsPoint();
-        p.setLabel(label);
-        p.setTotalCount(total);
-        p.setNormalCount(normal);
-        p.setLateCount(late);
-        p.setEarlyCount(early);
-        p.setAbsenceCount(absence);
-        p.setAttendanceRate(total > 0 ? (double)(normal + late + early) / (double) total : 0d);
-        return p;
+        return counts.fill(new StatsPoint(), label);
+    }
+
+    // 按日/按月：库内按 (时间桶, 状态) 分组，结果已按时间桶排序
+    private List<StatsPoint> bucketStatsPoints(String pattern, LocalDate startDate, LocalDate endDate, Long classId) {
+        Map<String, Counts> grouped = new LinkedHashMap<>();
+        for (AttendanceRecordRepository.BucketStatusCount c : recordRepo.countGroupByBucketAndStatus(pattern, startOf(startDate), endOf(endDate), classId)) {
+            grouped.computeIfAbsent(c.getLabel(), k -> new Counts()).add(c.getStatus(), c.getTotal());
+        }
+        List<StatsPoint> resp = new ArrayList<>(grouped.size());
+        for (Map.Entry<String, Counts> e : grouped.entrySet()) {
+            resp.add(e.getValue().fill(new StatsPoint(), e.getKey()));
+        }
+        return resp;
     }
 
     @Data
@@ -82,145 +101,115 @@ public class AttendanceAnalyticsService {
     }
 
     public List<StatsPoint> daily(LocalDate startDate, LocalDate endDate, Long classId) {
-        AttendanceRule rule = attendanceService.getRuleOrDefault();
-        List<AttendanceRecord> list = loadRecords(startDate, endDate, classId, null);
-        Map<LocalDate, List<AttendanceRecord>> grouped = list.stream()
-                .collect(Collectors.groupingBy(r -> r.getAttendanceTime().toLocalDate(), TreeMap::new, Collectors.toList()));
-        return grouped.entrySet().stream()
-                .map(e -> toStatsPoint(e.getValue(), rule, e.getKey().toString()))
-                .collect(Collectors.toList());
+        return bucketStatsPoints("%Y-%m-%d", startDate, endDate, classId);
     }
 
     public List<StatsPoint> monthly(LocalDate startDate, LocalDate endDate, Long classId) {
-        AttendanceRule rule = attendanceService.getRuleOrDefault();
-        List<AttendanceRecord> list = loadRecords(startDate, endDate, classId, null);
-        Map<YearMonth, List<AttendanceRecord>> grouped = list.stream()
-                .collect(Collectors.groupingBy(r -> YearMonth.from(r.getAttendanceTime()), TreeMap::new, Collectors.toList()));
-        return grouped.entrySet().stream()
-                .map(e -> toStatsPoint(e.getValue(), rule, e.getKey().toString()))
-                .collect(Collectors.toList());
+        return bucketStatsPoints("%Y-%m", startDate, endDate, classId);
     }
 
     public List<StatsPoint> term(LocalDate startDate, LocalDate endDate, Long classId) {
         // 学期统计：按整个时间段聚合为单点
-        AttendanceRule rule = attendanceService.getRuleOrDefault();
-        List<AttendanceRecord> list = loadRecords(startDate, endDate, classId, null);
-        return Collections.singletonList(toStatsPoint(list, rule, "TERM"));
+        return Collections.singletonList(countStatsPoint(startDate, endDate, classId, null, "TERM"));
     }
 
     public List<ClassStatsPoint> byClass(LocalDate startDate, LocalDate endDate) {
-        AttendanceRule rule = attendanceService.getRuleOrDefault();
-        List<AttendanceRecord> list = loadRecords(startDate, endDate, null, null);
-        Map<Long, List<AttendanceRecord>> grouped = list.stream()
-                .filter(r -> r.getClassId() != null)
-                .collect(Collectors.groupingBy(AttendanceRecord::getClassId));
-        List<ClassStatsPoint> resp = new ArrayList<>();
-        for (Map.Entry<Long, List<AttendanceRecord>> e : grouped.entrySet()) {
-            StatsPoint p = toStatsPoint(e.getValue(), rule, String.valueOf(e.getKey()));
-            ClassStatsPoint cp = new ClassStatsPoint();
-            cp.setLabel(p.getLabel());
-            cp.setTotalCount(p.getTotalCount());
-            cp.setNormalCount(p.getNormalCount());
-            cp.setLateCount(p.getLateCount());
-            cp.setEarlyCount(p.getEarlyCount());
-            cp.setAbsenceCount(p.getAbsenceCount());
-            cp.setAttendanceRate(p.getAttendanceRate());
+        Map<Long, Counts> grouped = new LinkedHashMap<>();
+        Map<Long, String> names = new HashMap<>();
+        for (AttendanceRecordRepository.GroupStatusCount c : recordRepo.countGroupByClassAndStatus(startOf(startDate), endOf(endDate))) {
+            grouped.computeIfAbsent(c.getGroupId(), k -> new Counts()).add(c.getStatus(), c.getTotal());
+            if (c.getGroupName() != null) names.putIfAbsent(c.getGroupId(), c.getGroupName());
+        }
+        List<ClassStatsPoint> resp = new ArrayList<>(grouped.size());
+        for (Map.Entry<Long, Counts> e : grouped.entrySet()) {
+            ClassStatsPoint cp = e.getValue().fill(new ClassStatsPoint(), String.valueOf(e.getKey()));
             cp.setClassId(e.getKey());
-            String name = e.getValue().stream().map(AttendanceRecord::getClassName).filter(Objects::nonNull).findFirst().orElse(null);
-            cp.setClassName(name);
+            cp.setClassName(names.get(e.getKey()));
             resp.add(cp);
         }
-        resp.sort(Comparator.comparing(ClassStatsPoint::getClassId));
         return resp;
     }
 
     public List<PersonalStatsPoint> byPersonal(LocalDate startDate, LocalDate endDate, Long classId) {
-        AttendanceRule rule = attendanceService.getRuleOrDefault();
-        List<AttendanceRecord> list = loadRecords(startDate, endDate, classId, null);
-        Map<Long, List<AttendanceRecord>> grouped = list.stream()
-                .filter(r -> r.getStudentId() != null)
-                .collect(Collectors.groupingBy(AttendanceRecord::getStudentId));
-        List<PersonalStatsPoint> resp = new ArrayList<>();
-        for (Map.Entry<Long, List<AttendanceRecord>> e : grouped.entrySet()) {
-            StatsPoint p = toStatsPoint(e.getValue(), rule, String.valueOf(e.getKey()));
-            PersonalStatsPoint sp = new PersonalStatsPoint();
-            sp.setLabel(p.getLabel());
-            sp.setTotalCount(p.getTotalCount());
-            sp.setNormalCount(p.getNormalCount());
-            sp.setLateCount(p.getLateCount());
-            sp.setEarlyCount(p.getEarlyCount());
-            sp.setAbsenceCount(p.getAbsenceCount());
-            sp.setAttendanceRate(p.getAttendanceRate());
+        Map<Long, Counts> grouped = new LinkedHashMap<>();
+        Map<Long, String> names = new HashMap<>();
+        for (AttendanceRecordRepository.GroupStatusCount c : recordRepo.countGroupByStudentAndStatus(startOf(startDate), endOf(endDate), classId)) {
+            grouped.computeIfAbsent(c.getGroupId(), k -> new Counts()).add(c.getStatus(), c.getTotal());
+            if (c.getGroupName() != null) names.putIfAbsent(c.getGroupId(), c.getGroupName());
+        }
+        List<PersonalStatsPoint> resp = new ArrayList<>(grouped.size());
+        for (Map.Entry<Long, Counts> e : grouped.entrySet()) {
+            PersonalStatsPoint sp = e.getValue().fill(new PersonalStatsPoint(), String.valueOf(e.getKey()));
             sp.setStudentId(e.getKey());
-            String name = e.getValue().stream().map(AttendanceRecord::getStudentName).filter(Objects::nonNull).findFirst().orElse(null);
-            sp.setStudentName(name);
+            sp.setStudentName(names.get(e.getKey()));
             resp.add(sp);
         }
-        resp.sort(Comparator.comparing(PersonalStatsPoint::getStudentId));
         return resp;
     }
 
     // 迟到早退统计（整体或按班级/个人过滤）
     public StatsPoint lateEarly(LocalDate startDate, LocalDate endDate, Long classId, Long studentId) {
-        AttendanceRule rule = attendanceService.getRuleOrDefault();
-        List<AttendanceRecord> list = loadRecords(startDate, endDate, classId, studentId);
-        return toStatsPoint(list, rule, "LATE_EARLY");
+        return countStatsPoint(startDate, endDate, classId, studentId, "LATE_EARLY");
     }
 
     // 缺勤统计（整体或按班级/个人过滤）
     public StatsPoint absence(LocalDate startDate, LocalDate endDate, Long classId, Long studentId) {
-        AttendanceRule rule = attendanceService.getRuleOrDefault();
-        List<AttendanceRecord> list = loadRecords(startDate, endDate, classId, studentId);
-        // toStatsPoint 已包含缺勤计数
-        return toStatsPoint(list, rule, "ABSENCE");
+        // 分组计数已包含缺勤计数
+        return countStatsPoint(startDate, endDate, classId, studentId, "ABSENCE");
     }
 
-    // 导出CSV：原始记录或指定聚合类型
-    public String exportCsv(String type, LocalDate startDate, LocalDate endDate, Long classId, Long studentId) {
-        StringBuilder sb = new StringBuilder();
+    /**
+     * 导出CSV：原始记录或指定聚合类型，逐行写到输出流。
+     * 原始记录走流式结果集，内存占用与导出量无关；须经代理调用以开启只读事务，结果流在事务内消费完毕。
+     */
+    @Transactional(readOnly = true)
+    public void exportCsv(String type, LocalDate startDate, LocalDate endDate, Long classId, Long studentId,
+                          OutputStream out) throws IOException {
+        CsvWriter csv = CsvWriter.utf8(out);
         if ("records".equalsIgnoreCase(type)) {
-            sb.append("id,studentId,studentName,classId,className,attendanceTime,attendanceType,checkType,status,remark\n");
-            List<AttendanceRecord> list = loadRecords(startDate, endDate, classId, studentId);
-            for (AttendanceRecord r : list) {
-                sb.append(String.format(Locale.ROOT,
-                    "%d,%d,%s,%d,%s,%s,%s,%s,%s,%s\n",
-                    Optional.ofNullable(r.getId()).orElse(0L),
-                    Optional.ofNullable(r.getStudentId()).orElse(0L),
-                    safe(r.getStudentName()),
-                    Optional.ofNullable(r.getClassId()).orElse(0L),
-                    safe(r.getClassName()),
-                    r.getAttendanceTime(),
-                    safe(r.getAttendanceType()),
-                    safe(r.getCheckType()),
-                    safe(r.getStatus()),
-                    safe(r.getRemark())
-                ));
+            csv.row("id", "studentId", "studentName", "classId", "className", "attendanceTime", "attendanceType", "checkType", "status", "remark");
+            try (Stream<AttendanceRecordRepository.RecordRow> rows = recordRepo.streamForExport(startOf(startDate), endOf(endDate), classId, studentId)) {
+                Iterator<AttendanceRecordRepository.RecordRow> it = rows.iterator();
+                while (it.hasNext()) {
+                    AttendanceRecordRepository.RecordRow r = it.next();
+                    csv.field(orZero(r.getId())).field(orZero(r.getStudentId())).field(r.getStudentName())
+                            .field(orZero(r.getClassId())).field(r.getClassName()).field(r.getAttendanceTime())
+                            .field(r.getAttendanceType()).field(r.getCheckType()).field(r.getStatus()).field(r.getRemark())
+                            .endRow();
+                }
             }
         } else if ("daily".equalsIgnoreCase(type)) {
-            sb.append("date,total,normal,late,early,absence,rate\n");
+            csv.row("date", "total", "normal", "late", "early", "absence", "rate");
             for (StatsPoint p : daily(startDate, endDate, classId)) {
-                sb.append(String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%d,%.4f\n", p.getLabel(), p.getTotalCount(), p.getNormalCount(), p.getLateCount(), p.getEarlyCount(), p.getAbsenceCount(), p.getAttendanceRate()));
+                writeCounts(csv.field(p.getLabel()), p);
             }
         } else if ("monthly".equalsIgnoreCase(type)) {
-            sb.append("month,total,normal,late,early,absence,rate\n");
+            csv.row("month", "total", "normal", "late", "early", "absence", "rate");
             for (StatsPoint p : monthly(startDate, endDate, classId)) {
-                sb.append(String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%d,%.4f\n", p.getLabel(), p.getTotalCount(), p.getNormalCount(), p.getLateCount(), p.getEarlyCount(), p.getAbsenceCount(), p.getAttendanceRate()));
+                writeCounts(csv.field(p.getLabel()), p);
             }
         } else if ("class".equalsIgnoreCase(type)) {
-            sb.append("classId,className,total,normal,late,early,absence,rate\n");
+            csv.row("classId", "className", "total", "normal", "late", "early", "absence", "rate");
             for (ClassStatsPoint p : byClass(startDate, endDate)) {
-                sb.append(String.format(Locale.ROOT, "%d,%s,%d,%d,%d,%d,%d,%.4f\n", p.getClassId(), safe(p.getClassName()), p.getTotalCount(), p.getNormalCount(), p.getLateCount(), p.getEarlyCount(), p.getAbsenceCount(), p.getAttendanceRate()));
+                writeCounts(csv.field(orZero(p.getClassId())).field(p.getClassName()), p);
             }
         } else if ("personal".equalsIgnoreCase(type)) {
-            sb.append("studentId,studentName,total,normal,late,early,absence,rate\n");
+            csv.row("studentId", "studentName", "total", "normal", "late", "early", "absence", "rate");
             for (PersonalStatsPoint p : byPersonal(startDate, endDate, classId)) {
-                sb.append(String.format(Locale.ROOT, "%d,%s,%d,%d,%d,%d,%d,%.4f\n", p.getStudentId(), safe(p.getStudentName()), p.getTotalCount(), p.getNormalCount(), p.getLateCount(), p.getEarlyCount(), p.getAbsenceCount(), p.getAttendanceRate()));
+                writeCounts(csv.field(orZero(p.getStudentId())).field(p.getStudentName()), p);
             }
         } else {
-            sb.append("type not supported");
+            csv.row("type not supported");
         }
-        return sb.toString();
+        csv.flush();
+    }
+
+    private static void writeCounts(CsvWriter csv, StatsPoint p) throws IOException {
+        csv.field(orZero(p.getTotalCount())).field(orZero(p.getNormalCount())).field(orZero(p.getLateCount()))
+                .field(orZero(p.getEarlyCount())).field(orZero(p.getAbsenceCount()))
+                .field(String.format(Locale.ROOT, "%.4f", p.getAttendanceRate()))
+                .endRow();
     }
 
-    private String safe(String s) { return s == null ? "" : s.replaceAll(",", " "); }
-}
\ No newline at end of file
+    private static long orZero(Long v) { return v != null ? v : 0L; }
+}
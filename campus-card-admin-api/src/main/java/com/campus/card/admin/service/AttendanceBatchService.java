@@ -2,40 +2,44 @@ package com.campus.card.admin.service;
 
 import com.campus.card.admin.domain.AttendanceRecord;
 import com.campus.card.admin.domain.FaceRecognitionLog;
-import com.campus.card.admin.domain.StudentInfo;
-import com.campus.card.admin.repository.AttendanceRecordRepository;
+import com.campus.card.admin.repository.AttendanceRecordWriter;
 import com.campus.card.admin.repository.FaceRecognitionLogRepository;
-import com.campus.card.admin.repository.CardRepository;
-import com.campus.card.admin.repository.StudentRepository;
+import lombok.Data;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
 public class AttendanceBatchService {
-    private final AttendanceRecordRepository attendanceRecordRepository;
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AttendanceBatchService.class);
+
+    private final AttendanceRecordWriter attendanceRecordWriter;
     private final FaceRecognitionLogRepository faceRecognitionLogRepository;
-    private final CardRepository cardRepository;
-    private final StudentRepository studentRepository;
+    private final AttendanceResolveCache resolveCache;
+    private final AttendanceService attendanceService;
 
-    public AttendanceBatchService(AttendanceRecordRepository attendanceRecordRepository,
+    public AttendanceBatchService(AttendanceRecordWriter attendanceRecordWriter,
                                   FaceRecognitionLogRepository faceRecognitionLogRepository,
-                                  CardRepository cardRepository,
-                                  StudentRepository studentRepository) {
-        this.attendanceRecordRepository = attendanceRecordRepository;
+                                  AttendanceResolveCache resolveCache,
+                                  AttendanceService attendanceService) {
+        this.attendanceRecordWriter = attendanceRecordWriter;
         this.faceRecognitionLogRepository = faceRecognitionLogRepository;
-        this.cardRepository = cardRepository;
-        this.studentRepository = studentRepository;
+        this.resolveCache = resolveCache;
+        this.attendanceService = attendanceService;
     }
 
     @Transactional
-    public void processFaceBatch(List<com.campus.card.admin.controller.AttendanceController.FaceIngestReq> reqs) {
-        if (reqs == null || reqs.isEmpty()) return;
+    public BatchResult processFaceBatch(List<com.campus.card.admin.controller.AttendanceController.FaceIngestReq> reqs) {
+        if (reqs == null || reqs.isEmpty()) return new BatchResult();
         // 1) 批量记录识别日志
         List<FaceRecognitionLog> logs = new ArrayList<>(reqs.size());
         for (com.campus.card.admin.controller.AttendanceController.FaceIngestReq req : reqs) {
@@ -56,17 +60,16 @@ public class AttendanceBatchService {
         List<com.campus.card.admin.controller.AttendanceController.FaceIngestReq> successStudentReqs = reqs.stream()
                 .filter(r -> Boolean.TRUE.equals(r.getSuccess()) && "STUDENT".equalsIgnoreCase(r.getPersonType()))
                 .collect(Collectors.toList());
-        if (successStudentReqs.isEmpty()) return;
+        if (successStudentReqs.isEmpty()) return new BatchResult();
 
-        // 学号映射到学生信息（逐个查询）
-        Map<String, StudentInfo> studentMap = successStudentReqs.stream()
-                .map(r -> studentRepository.findByStudentNo(r.getPersonId()).orElse(null))
-                .filter(s -> s != null)
-                .collect(Collectors.toMap(StudentInfo::getStudentNo, s -> s, (a, b) -> a));
+        // 学号映射到学生信息（走解析缓存，未命中部分一次 IN 查询）
+        Map<String, AttendanceResolveCache.StudentRef> studentMap = resolveCache.students(successStudentReqs.stream()
+                .map(com.campus.card.admin.controller.AttendanceController.FaceIngestReq::getPersonId)
+                .collect(Collectors.toSet()));
 
-        List<AttendanceRecord> batchRecords = new ArrayList<>();
+        List<AttendanceRecord> candidates = new ArrayList<>(successStudentReqs.size());
         for (com.campus.card.admin.controller.AttendanceController.FaceIngestReq req : successStudentReqs) {
-            StudentInfo student = studentMap.get(req.getPersonId());
+            AttendanceResolveCache.StudentRef student = studentMap.get(req.getPersonId());
             if (student == null) continue;
             AttendanceRecord record = new AttendanceRecord();
             record.setStudentId(student.getId());
@@ -74,30 +77,37 @@ public class AttendanceBatchService {
             record.setStudentNo(student.getStudentNo());
             record.setClassId(student.getClassId());
             record.setAttendanceTime(req.getAttendanceTime() != null ? req.getAttendanceTime() : LocalDateTime.now());
-            record.setAttendanceType(req.getAttendanceType() != null ? req.getAttendanceType() : "in");
+            record.setAttendanceType(normalizeType(req.getAttendanceType()));
             record.setCheckType("face");
             record.setPhotoUrl(req.getPhotoUrl());
             record.setStatus("normal");
+            attendanceService.applyRule(record);
             record.setRemark(req.getRemark());
-            if (!attendanceRecordRepository.existsByStudentIdAndAttendanceTimeAndCheckTypeAndAttendanceType(
-                    record.getStudentId(), record.getAttendanceTime(), record.getCheckType(), record.getAttendanceType())) {
-                batchRecords.add(record);
-            }
-        }
-        if (!batchRecords.isEmpty()) {
-            attendanceRecordRepository.saveAll(batchRecords);
+            candidates.add(record);
         }
+        return saveNew(candidates, "face");
     }
 
     @Transactional
-    public void processCardBatch(List<com.campus.card.admin.controller.AttendanceController.CardIngestReq> reqs) {
-        if (reqs == null || reqs.isEmpty()) return;
-        List<AttendanceRecord> batchRecords = new ArrayList<>(reqs.size());
+    public BatchResult processCardBatch(List<com.campus.card.admin.controller.AttendanceController.CardIngestReq> reqs) {
+        if (reqs == null || reqs.isEmpty()) return new BatchResult();
+        // 卡号 -> 卡片、学号 -> 学生 走解析缓存，未命中部分各一次 IN 查询
+        Set<String> cardNos = reqs.stream()
+                .map(com.campus.card.admin.controller.AttendanceController.CardIngestReq::getCardNo)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        if (cardNos.isEmpty()) return new BatchResult();
+        Map<String, String> studentNoByCard = new HashMap<>();
+        for (AttendanceResolveCache.CardRef card : resolveCache.cards(cardNos).values()) {
+            if (!card.isStudent()) continue;
+            studentNoByCard.put(card.getCardNo(), card.getHolderId());
+        }
+        Map<String, AttendanceResolveCache.StudentRef> studentMap = resolveCache.students(studentNoByCard.values());
+
+        List<AttendanceRecord> candidates = new ArrayList<>(reqs.size());
         for (com.campus.card.admin.controller.AttendanceController.CardIngestReq req : reqs) {
-            com.campus.card.admin.domain.Card card = cardRepository.findByCardNo(req.getCardNo()).orElse(null);
-            if (card == null) continue;
-            if (card.getHolderType() == null || !"STUDENT".equalsIgnoreCase(card.getHolderType())) continue;
-            com.campus.card.admin.domain.StudentInfo student = studentRepository.findByStudentNo(card.getHolderId()).orElse(null);
+            String studentNo = studentNoByCard.get(req.getCardNo());
+            AttendanceResolveCache.StudentRef student = studentNo != null ? studentMap.get(studentNo) : null;
             if (student == null) continue;
             AttendanceRecord record = new AttendanceRecord();
             record.setStudentId(student.getId());
@@ -105,17 +115,58 @@ public class AttendanceBatchService {
             record.setStudentNo(student.getStudentNo());
             record.setClassId(student.getClassId());
             record.setAttendanceTime(req.getAttendanceTime() != null ? req.getAttendanceTime() : LocalDateTime.now());
-            record.setAttendanceType(req.getAttendanceType() != null ? req.getAttendanceType() : "in");
+            record.setAttendanceType(normalizeType(req.getAttendanceType()));
             record.setCheckType("card");
             record.setRemark(req.getRemark());
             record.setStatus("normal");
-            if (!attendanceRecordRepository.existsByStudentIdAndAttendanceTimeAndCheckTypeAndAttendanceType(
-                    record.getStudentId(), record.getAttendanceTime(), record.getCheckType(), record.getAttendanceType())) {
-                batchRecords.add(record);
-            }
+            attendanceService.applyRule(record);
+            candidates.add(record);
+        }
+        return saveNew(candidates, "card");
+    }
+
+    // 设备可能上报 IN/OUT 等大小写形式，统一为小写后再判定与入库；缺省为进
+    private static String normalizeType(String attendanceType) {
+        return attendanceType != null ? attendanceType.trim().toLowerCase(Locale.ROOT) : "in";
+    }
+
+    // 依赖唯一索引幂等写入：已存在的与批内重复的记录由数据库忽略，不再逐条或按批预查
+    private BatchResult saveNew(List<AttendanceRecord> candidates, String checkType) {
+        BatchResult result = new BatchResult();
+        if (candidates.isEmpty()) return result;
+        // 非法进出方向剔除，不交给数据库枚举报错导致整批失败
+        List<AttendanceRecord> valid = new ArrayList<>(candidates.size());
+        for (AttendanceRecord r : candidates) {
+            if ("in".equals(r.getAttendanceType()) || "out".equals(r.getAttendanceType())) valid.add(r);
+        }
+        if (valid.size() < candidates.size()) {
+            log.warn("Attendance {} batch: skipped {} records with invalid attendanceType", checkType, candidates.size() - valid.size());
+        }
+        int inserted = attendanceRecordWriter.insertIgnoringDuplicates(valid);
+        result.setCandidates(candidates.size());
+        result.setInvalid(candidates.size() - valid.size());
+        result.setInserted(inserted);
+        result.setDuplicates(valid.size() - inserted);
+        if (result.getDuplicates() > 0) {
+            log.debug("Attendance {} batch: {} inserted, {} duplicates", checkType, inserted, result.getDuplicates());
         }
-        if (!batchRecords.isEmpty()) {
-            attendanceRecordRepository.saveAll(batchRecords);
+        return result;
+    }
+
+    /** 一批入库结果：candidates 为解析到学生的记录数，duplicates 为被唯一索引忽略的条数 */
+    @Data
+    public static class BatchResult {
+        private int candidates;
+        private int invalid;
+        private int inserted;
+        private int duplicates;
+
+        public BatchResult add(BatchResult other) {
+            candidates += other.candidates;
+            invalid += other.invalid;
+            inserted += other.inserted;
+            duplicates += other.duplicates;
+            return this;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,132 @@
+package com.campus.card.admin.service;
+
+import com.campus.card.admin.domain.AttendanceRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 考勤状态重判任务：记录在入库时按当时的规则快照判定状态并写入 rule_version，
+ * 规则或设置变更后由本任务按主键分段把 rule_version 与当前版本不一致的记录重新判定并回写。
+ * 进度（已完成版本 + 已扫描到的最大 id）记在 Redis，版本未变时只扫描新增记录，
+ * 以补齐其他实例在快照 TTL 内按旧规则写入的记录；人工标记/修正过的记录不参与重判。
+ */
+@Service
+public class AttendanceReclassifier {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AttendanceReclassifier.class);
+
+    private static final String KEY_PROGRESS = "attendance:reclassify:progress";
+    private static final String KEY_LOCK = "attendance:reclassify:lock";
+
+    private static final String SELECT_CHUNK = "SELECT id, attendance_time, attendance_type, status FROM attendance_record " +
+            "WHERE id > ? AND id <= ? AND (rule_version IS NULL OR (rule_version >= 0 AND rule_version <> ?)) " +
+            "ORDER BY id LIMIT ?";
+    // 条件中再次排除人工版本，避免扫描与人工修正并发时覆盖人工结果
+    private static final String UPDATE_ONE = "UPDATE attendance_record SET status = ?, rule_version = ? " +
+            "WHERE id = ? AND (rule_version IS NULL OR rule_version >= 0)";
+
+    private final AttendanceService attendanceService;
+    private final JdbcTemplate jdbcTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    @Value("${attendance.reclassify.enabled:true}")
+    private boolean enabled;
+
+    @Value("${attendance.reclassify.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${attendance.reclassify.lock-ttl-ms:300000}")
+    private long lockTtlMs;
+
+    public AttendanceReclassifier(AttendanceService attendanceService, JdbcTemplate jdbcTemplate,
+                                  StringRedisTemplate stringRedisTemplate) {
+        this.attendanceService = attendanceService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @Scheduled(fixedDelayString = "${attendance.reclassify.interval-ms:60000}")
+    public void scheduled() {
+        if (!enabled) return;
+        try {
+            run();
+        } catch (Exception e) {
+            log.warn("Attendance reclassify failed", e);
+        }
+    }
+
+    /** 执行一轮重判，返回回写的记录数；其他实例正在执行时直接返回 0 */
+    public int run() {
+        CompiledAttendanceRule rule = attendanceService.compiledRule();
+        long version = rule.getVersion();
+        Long upper = jdbcTemplate.queryForObject("SELECT MAX(id) FROM attendance_record", Long.class);
+        if (upper == null) return 0;
+
+        Map<Object, Object> progress = stringRedisTemplate.opsForHash().entries(KEY_PROGRESS);
+        long from = 0L;
+        if (String.valueOf(version).equals(progress.get("version")) && progress.get("lastId") != null) {
+            from = Long.parseLong(String.valueOf(progress.get("lastId")));
+        }
+        if (from >= upper) return 0;
+
+        String token = UUID.randomUUID().toString();
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(KEY_LOCK, token, Duration.ofMillis(lockTtlMs));
+        if (!Boolean.TRUE.equals(locked)) return 0;
+        long start = System.currentTimeMillis();
+        int updated = 0;
+        try {
+            long lastId = from;
+            while (true) {
+                List<AttendanceRecord> chunk = jdbcTemplate.query(SELECT_CHUNK, (rs, i) -> {
+                    AttendanceRecord r = new AttendanceRecord();
+                    r.setId(rs.getLong("id"));
+                    Timestamp t = rs.getTimestamp("attendance_time");
+                    r.setAttendanceTime(t != null ? t.toLocalDateTime() : null);
+                    r.setAttendanceType(rs.getString("attendance_type"));
+                    r.setStatus(rs.getString("status"));
+                    return r;
+                }, lastId, upper, version, Math.max(1, batchSize));
+                if (chunk.isEmpty()) break;
+                List<Object[]> args = new ArrayList<>(chunk.size());
+                for (AttendanceRecord r : chunk) {
+                    // 规则停用时迟到/早退回到正常，缺勤保持
+                    String status = rule.statusOf(r);
+                    args.add(new Object[]{status, version, r.getId()});
+                    lastId = r.getId();
+                }
+                for (int n : jdbcTemplate.batchUpdate(UPDATE_ONE, args)) {
+                    if (n > 0) updated += n;
+                }
+                // 执行期间规则再次变化：放弃本轮，下一轮按新版本从头开始
+                if (attendanceService.compiledRule().getVersion() != version) {
+                    log.info("Attendance rule changed during reclassify, {} records updated before abort", updated);
+                    return updated;
+                }
+                stringRedisTemplate.expire(KEY_LOCK, Duration.ofMillis(lockTtlMs));
+            }
+            Map<String, String> done = new HashMap<>();
+            done.put("version", String.valueOf(version));
+            done.put("lastId", String.valueOf(upper));
+            stringRedisTemplate.opsForHash().putAll(KEY_PROGRESS, done);
+            if (updated > 0) {
+                log.info("Attendance reclassified {} records to rule version {} in {} ms",
+                        updated, version, System.currentTimeMillis() - start);
+            }
+            return updated;
+        } finally {
+            if (token.equals(stringRedisTemplate.opsForValue().get(KEY_LOCK))) {
+                stringRedisTemplate.delete(KEY_LOCK);
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.campus.card.admin.service;
+
+import com.campus.card.admin.domain.Card;
+import com.campus.card.admin.domain.StudentInfo;
+import com.campus.card.admin.repository.CardRepository;
+import com.campus.card.admin.repository.StudentRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 考勤入库的卡号 -> 持卡人、学号 -> 学生 解析缓存。
+ * 缓存不可变的精简视图（含不存在的负缓存），稳态下刷卡/人脸入库无需查库；
+ * 发卡、换卡、挂失、注销及学生增删改、转班时立即失效并在事务提交后再失效一次，多节点间依靠 TTL 收敛。
+ */
+@Service
+public class AttendanceResolveCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AttendanceResolveCache.class);
+    private static final int PRELOAD_PAGE_SIZE = 1000;
+
+    private final CardRepository cardRepository;
+    private final StudentRepository studentRepository;
+    private final Cache<String, Optional<CardRef>> cards;
+    private final Cache<String, Optional<StudentRef>> students;
+    private final long cacheSize;
+
+    @Value("${attendance.resolve-cache.preload:true}")
+    private boolean preload;
+
+    public AttendanceResolveCache(CardRepository cardRepository, StudentRepository studentRepository,
+                                  @Value("${attendance.resolve-cache.size:200000}") long cacheSize,
+                                  @Value("${attendance.resolve-cache.ttl-minutes:30}") long ttlMinutes) {
+        this.cardRepository = cardRepository;
+        this.studentRepository = studentRepository;
+        this.cacheSize = cacheSize;
+        this.cards = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .build();
+        this.students = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /** 启动后按主键分页预热学生与学生卡，各自不超过缓存容量 */
+    @EventListener(ApplicationReadyEvent.class)
+    public void preload() {
+        if (!preload) return;
+        long start = System.currentTimeMillis();
+        try {
+            long loadedStudents = 0;
+            for (int p = 0; loadedStudents < cacheSize; p++) {
+                Page<StudentInfo> page = studentRepository.findAll(PageRequest.of(p, PRELOAD_PAGE_SIZE, Sort.by("id")));
+                for (StudentInfo s : page.getContent()) {
+                    if (s.getStudentNo() == null) continue;
+                    students.put(s.getStudentNo(), Optional.of(StudentRef.of(s)));
+                    loadedStudents++;
+                }
+                if (!page.hasNext()) break;
+            }
+            long loadedCards = 0;
+            for (int p = 0; loadedCards < cacheSize; p++) {
+                Page<Card> page = cardRepository.findAll(PageRequest.of(p, PRELOAD_PAGE_SIZE, Sort.by("id")));
+                for (Card c : page.getContent()) {
+                    if (!"STUDENT".equalsIgnoreCase(c.getHolderType())) continue;
+                    cards.put(c.getCardNo(), Optional.of(CardRef.of(c)));
+                    loadedCards++;
+                }
+                if (!page.hasNext()) break;
+            }
+            log.info("Attendance resolve cache preloaded {} students, {} cards in {} ms",
+                    loadedStudents, loadedCards, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            // 预热失败不影响启动，未命中时按需回源
+            log.warn("Attendance resolve cache preload failed", e);
+        }
+    }
+
+    /** 按卡号解析持卡人，卡不存在返回 null */
+    public CardRef card(String cardNo) {
+        if (cardNo == null) return null;
+        return cards.get(cardNo, k -> cardRepository.findByCardNo(k).map(CardRef::of)).orElse(null);
+    }
+
+    /** 按学号解析学生，不存在返回 null */
+    public StudentRef student(String studentNo) {
+        if (studentNo == null) return null;
+        return students.get(studentNo, k -> studentRepository.findByStudentNo(k).map(StudentRef::of)).orElse(null);
+    }
+
+    /** 批量解析卡号，未命中部分一次 IN 查询回源；结果只包含存在的卡 */
+    public Map<String, CardRef> cards(Collection<String> cardNos) {
+        Set<String> keys = keysOf(cardNos);
+        Map<String, CardRef> result = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        Map<String, Optional<CardRef>> present = cards.getAllPresent(keys);
+        for (String k : keys) {
+            Optional<CardRef> v = present.get(k);
+            if (v == null) misses.add(k);
+            else v.ifPresent(ref -> result.put(k, ref));
+        }
+        if (!misses.isEmpty()) {
+            Map<String, Optional<CardRef>> loaded = new HashMap<>();
+            for (String k : misses) loaded.put(k, Optional.empty());
+            for (Card c : cardRepository.findByCardNoIn(misses)) {
+                CardRef ref = CardRef.of(c);
+                loaded.put(c.getCardNo(), Optional.of(ref));
+                result.put(c.getCardNo(), ref);
+            }
+            cards.putAll(loaded);
+        }
+        return result;
+    }
+
+    /** 批量解析学号，未命中部分一次 IN 查询回源；结果只包含存在的学生 */
+    public Map<String, StudentRef> students(Collection<String> studentNos) {
+        Set<String> keys = keysOf(studentNos);
+        Map<String, StudentRef> result = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        Map<String, Optional<StudentRef>> present = students.getAllPresent(keys);
+        for (String k : keys) {
+            Optional<StudentRef> v = present.get(k);
+            if (v == null) misses.add(k);
+            else v.ifPresent(ref -> result.put(k, ref));
+        }
+        if (!misses.isEmpty()) {
+            Map<String, Optional<StudentRef>> loaded = new HashMap<>();
+            for (String k : misses) loaded.put(k, Optional.empty());
+            for (StudentInfo s : studentRepository.findByStudentNoIn(misses)) {
+                StudentRef ref = StudentRef.of(s);
+                loaded.put(s.getStudentNo(), Optional.of(ref));
+                result.put(s.getStudentNo(), ref);
+            }
+            students.putAll(loaded);
+        }
+        return result;
+    }
+
+    public void invalidateCard(String cardNo) {
+        if (cardNo == null) return;
+        cards.invalidate(cardNo);
+        afterCommit(() -> cards.invalidate(cardNo));
+    }
+
+    public void invalidateStudent(String studentNo) {
+        if (studentNo == null) return;
+        students.invalidate(studentNo);
+        afterCommit(() -> students.invalidate(studentNo));
+    }
+
+    private static Set<String> keysOf(Collection<String> values) {
+        Set<String> keys = new LinkedHashSet<>();
+        if (values != null) {
+            for (String v : values) {
+                if (v != null) keys.add(v);
+            }
+        }
+        return keys;
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() { action.run(); }
+            });
+        }
+    }
+
+    /** 卡片的持卡人视图 */
+    public static final class CardRef {
+        private final String cardNo;
+        private final String holderType;
+        private final String holderId;
+        private final String status;
+
+        private CardRef(String cardNo, String holderType, String holderId, String status) {
+            this.cardNo = cardNo;
+            this.holderType = holderType;
+            this.holderId = holderId;
+            this.status = status;
+        }
+
+        static CardRef of(Card c) {
+            return new CardRef(c.getCardNo(), c.getHolderType(), c.getHolderId(), c.getStatus());
+        }
+
+        public String getCardNo() { return cardNo; }
+        public String getHolderType() { return holderType; }
+        public String getHolderId() { return holderId; }
+        public String getStatus() { return status; }
+
+        public boolean isStudent() { return "STUDENT".equalsIgnoreCase(holderType); }
+    }
+
+    /** 生成考勤记录所需的学生字段 */
+    public static final class StudentRef {
+        private final Long id;
+        private final String studentNo;
+        private final String name;
+        private final Long classId;
+
+        private StudentRef(Long id, String studentNo, String name, Long classId) {
+            this.id = id;
+            this.studentNo = studentNo;
+            this.name = name;
+            this.classId = classId;
+        }
+
+        static StudentRef of(StudentInfo s) {
+            return new StudentRef(s.getId(), s.getStudentNo(), s.getName(), s.getClassId());
+        }
+
+        public Long getId() { return id; }
+        public String getStudentNo() { return studentNo; }
+        public String getName() { return name; }
+        public Long getClassId() { return classId; }
+    }
+}
@@ -4,11 +4,12 @@ import com.campus.card.admin.domain.AttendanceRecord;
 import com.campus.card.admin.domain.AttendanceRule;
 import com.campus.card.admin.repository.AttendanceRecordRepository;
 import com.campus.card.admin.repository.AttendanceRuleRepository;
-import com.campus.card.admin.repository.CardRepository;
 import com.campus.card.admin.repository.StudentRepository;
 import com.campus.card.admin.repository.DeviceRepository;
 import com.campus.card.admin.repository.FaceRecognitionLogRepository;
+import com.campus.card.admin.repository.SpecificationQueries;
 import com.campus.card.admin.domain.FaceRecognitionLog;
+import com.campus.card.common.result.CursorPageResult;
 import com.campus.card.common.result.PageResult;
 import lombok.Data;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -35,19 +36,30 @@ public class AttendanceService {
     private final AttendanceRecordRepository attendanceRecordRepository;
     private final AttendanceRuleRepository attendanceRuleRepository;
     @Autowired
-    private CardRepository cardRepository;
-    @Autowired
     private StudentRepository studentRepository;
     @Autowired
     private DeviceRepository deviceRepository;
     @Autowired
+    private AttendanceResolveCache resolveCache;
+    @Autowired
     private FaceRecognitionLogRepository faceRecognitionLogRepository;
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
     @Autowired
     private ObjectMapper objectMapper;
+    @Autowired
+    private SpecificationQueries specificationQueries;
 
     private static final String KEY_SETTINGS = "attendance:settings";
+    // 人工标记/修正过状态的记录使用该规则版本，规则变更后的重判任务不会覆盖
+    public static final long MANUAL_RULE_VERSION = -1L;
+
+    // 编译后的规则快照；规则/设置在本实例修改时立即重建，其他实例修改后在 TTL 内重新加载
+    @org.springframework.beans.factory.annotation.Value("${attendance.rule.snapshot-ttl-ms:30000}")
+    private long ruleSnapshotTtlMs;
+    private volatile CompiledAttendanceRule compiledRule;
+    private volatile String compiledSource;
+    private volatile long compiledAt;
 
     public AttendanceService(AttendanceRecordRepository attendanceRecordRepository,
                              AttendanceRuleRepository attendanceRuleRepository) {
@@ -55,46 +67,77 @@ public class AttendanceService {
         this.attendanceRuleRepository = attendanceRuleRepository;
     }
 
+    // 列表按考勤时间倒序（同一时刻按 id 倒序），所有过滤条件与数据范围都在库内完成
+    private static final org.springframework.data.domain.Sort LIST_SORT = org.springframework.data.domain.Sort.by(
+            org.springframework.data.domain.Sort.Order.desc("attendanceTime"), org.springframework.data.domain.Sort.Order.desc("id"));
+
     public PageResult<AttendanceRecord> pageList(int page, int size, Long studentId, Long classId,
                                                 LocalDate startDate, LocalDate endDate, String status,
                                                 java.util.List<Long> allowedClassIds,
                                                 java.util.Set<Long> allowedStudentIds) {
-        List<AttendanceRecord> list = attendanceRecordRepository.findAll();
+        org.springframework.data.domain.Pageable pr = org.springframework.data.domain.PageRequest.of(Math.max(page - 1, 0), Math.max(size, 1), LIST_SORT);
+        org.springframework.data.domain.Page<AttendanceRecord> p = attendanceRecordRepository.findAll(
+                recordSpec(studentId, classId, startDate, endDate, status, allowedClassIds, allowedStudentIds), pr);
+        return PageResult.of(p.getTotalElements(), p.getContent());
+    }
 
-        // 过滤条件
-        if (studentId != null) {
-            list = list.stream().filter(r -> studentId.equals(r.getStudentId())).collect(java.util.stream.Collectors.toList());
-        }
-        if (classId != null) {
-            list = list.stream().filter(r -> classId.equals(r.getClassId())).collect(java.util.stream.Collectors.toList());
-        }
-        if (startDate != null) {
-            LocalDateTime startDateTime = startDate.atStartOfDay();
-            list = list.stream().filter(r -> r.getAttendanceTime() != null && !r.getAttendanceTime().isBefore(startDateTime)).collect(java.util.stream.Collectors.toList());
-        }
-        if (endDate != null) {
-            LocalDateTime endDateTime = endDate.atTime(LocalTime.MAX);
-            list = list.stream().filter(r -> r.getAttendanceTime() != null && !r.getAttendanceTime().isAfter(endDateTime)).collect(java.util.stream.Collectors.toList());
-        }
-        if (status != null && !status.isEmpty()) {
-            list = list.stream().filter(r -> status.equals(r.getStatus())).collect(java.util.stream.Collectors.toList());
+    // 游标分页，游标格式为 "考勤时间_id"，取自上一页最后一条；深翻页只走 (class_id|student_id, attendance_time) 索引范围扫描
+    public CursorPageResult<AttendanceRecord> cursorList(String cursor, int size, Long studentId, Long classId,
+                                                         LocalDate startDate, LocalDate endDate, String status,
+                                                         java.util.List<Long> allowedClassIds,
+                                                         java.util.Set<Long> allowedStudentIds) {
+        LocalDateTime cursorAt = null;
+        Long cursorId = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            int idx = cursor.lastIndexOf('_');
+            try {
+                cursorAt = LocalDateTime.parse(cursor.substring(0, idx));
+                cursorId = Long.valueOf(cursor.substring(idx + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("无效的游标");
+            }
         }
-        // 数据范围过滤：班级
-        if (allowedClassIds != null && !allowedClassIds.isEmpty()) {
-            list = list.stream().filter(r -> r.getClassId() != null && allowedClassIds.contains(r.getClassId()))
-                    .collect(java.util.stream.Collectors.toList());
+        int limit = Math.max(size, 1);
+        org.springframework.data.jpa.domain.Specification<AttendanceRecord> spec =
+                recordSpec(studentId, classId, startDate, endDate, status, allowedClassIds, allowedStudentIds);
+        if (cursorAt != null) {
+            final LocalDateTime at = cursorAt;
+            final Long afterId = cursorId;
+            spec = spec.and((root, query, cb) -> cb.or(
+                    cb.lessThan(root.<LocalDateTime>get("attendanceTime"), at),
+                    cb.and(cb.equal(root.get("attendanceTime"), at), cb.lessThan(root.<Long>get("id"), afterId))));
         }
-        // 数据范围过滤：个人
-        if (allowedStudentIds != null && !allowedStudentIds.isEmpty()) {
-            list = list.stream().filter(r -> r.getStudentId() != null && allowedStudentIds.contains(r.getStudentId()))
-                    .collect(java.util.stream.Collectors.toList());
+        // 多取一条判断是否还有下一页，不做 count
+        List<AttendanceRecord> list = specificationQueries.findTop(AttendanceRecord.class, spec, LIST_SORT, limit + 1);
+        String next = null;
+        if (list.size() > limit) {
+            list = list.subList(0, limit);
+            AttendanceRecord last = list.get(limit - 1);
+            next = last.getAttendanceTime() + "_" + last.getId();
         }
-        
-        int total = list.size();
-        int from = Math.max(0, (page - 1) * size);
-        int to = Math.min(total, from + size);
-        List<AttendanceRecord> pageList = from >= total ? java.util.Collections.emptyList() : list.subList(from, to);
-        return PageResult.of(total, pageList);
+        return CursorPageResult.of(list, next);
+    }
+
+    private org.springframework.data.jpa.domain.Specification<AttendanceRecord> recordSpec(Long studentId, Long classId,
+                                                                                           LocalDate startDate, LocalDate endDate, String status,
+                                                                                           java.util.Collection<Long> allowedClassIds,
+                                                                                           java.util.Collection<Long> allowedStudentIds) {
+        return (root, query, cb) -> {
+            java.util.List<javax.persistence.criteria.Predicate> predicates = new java.util.ArrayList<>();
+            if (studentId != null) predicates.add(cb.equal(root.get("studentId"), studentId));
+            if (classId != null) predicates.add(cb.equal(root.get("classId"), classId));
+            if (startDate != null) {
+                predicates.add(cb.greaterThanOrEqualTo(root.<LocalDateTime>get("attendanceTime"), startDate.atStartOfDay()));
+            }
+            if (endDate != null) {
+                predicates.add(cb.lessThanOrEqualTo(root.<LocalDateTime>get("attendanceTime"), endDate.atTime(LocalTime.MAX)));
+            }
+            if (status != null && !status.isEmpty()) predicates.add(cb.equal(root.get("status"), status));
+            // 数据范围：班级 / 个人
+            if (allowedClassIds != null && !allowedClassIds.isEmpty()) predicates.add(root.get("classId").in(allowedClassIds));
+            if (allowedStudentIds != null && !allowedStudentIds.isEmpty()) predicates.add(root.get("studentId").in(allowedStudentIds));
+            return cb.and(predicates.toArray(new javax.persistence.criteria.Predicate[0]));
+        };
     }
 
     // 读取规则（若不存在则返回默认规则）
@@ -112,87 +155,61 @@ public class AttendanceService {
         rule.setLateGraceMin(incoming.getLateGraceMin());
         rule.setEarlyGraceMin(incoming.getEarlyGraceMin());
         rule.setEnabled(incoming.getEnabled());
-        return attendanceRuleRepository.save(rule);
+        AttendanceRule saved = attendanceRuleRepository.save(rule);
+        compiledAt = 0L;
+        return saved;
     }
 
-    // 根据规则判定记录状态（迟到/早退/正常），缺勤沿用原状态
-    public String classifyStatusByRule(AttendanceRule rule, AttendanceRecord r) {
-        if (r.getAttendanceTime() == null) return "normal";
-        // 读取综合设置（节假日/调休/时段）
-        AttendanceSettings settings = getSettingsOrDefault();
-    
-        java.time.LocalDate date = r.getAttendanceTime().toLocalDate();
-        DayOfWeek dow = r.getAttendanceTime().getDayOfWeek();
-        Set<DayOfWeek> workDays = parseWorkDays(rule);
-        boolean working = workDays.contains(dow);
-    
-        // 假期与调休覆盖工作日判断
-        if (settings != null) {
-            // 节假日：在任一节假日区间内则视为休息日
-            if (settings.getHolidays() != null) {
-                for (Holiday h : settings.getHolidays()) {
-                    if (h.getStartDate() != null && h.getEndDate() != null) {
-                        java.time.LocalDate s = java.time.LocalDate.parse(h.getStartDate());
-                        java.time.LocalDate e = java.time.LocalDate.parse(h.getEndDate());
-                        if ((date.isEqual(s) || date.isAfter(s)) && (date.isEqual(e) || date.isBefore(e))) {
-                            working = false;
-                            break;
-                        }
-                    }
-                }
+    /**
+     * 当前生效的编译规则快照；源内容未变化时沿用同一快照。
+     * 版本号取规则与设置内容的摘要，各实例一致且重启不变，随考勤记录一起持久化用于判断是否需要重新判定。
+     */
+    public CompiledAttendanceRule compiledRule() {
+        CompiledAttendanceRule c = compiledRule;
+        if (c != null && System.currentTimeMillis() - compiledAt < ruleSnapshotTtlMs) return c;
+        synchronized (this) {
+            c = compiledRule;
+            if (c != null && System.currentTimeMillis() - compiledAt < ruleSnapshotTtlMs) return c;
+            AttendanceRule rule = getRuleOrDefault();
+            AttendanceSettings settings = getSettingsOrDefault();
+            String source;
+            try {
+                source = objectMapper.writeValueAsString(rule) + "|" + objectMapper.writeValueAsString(settings);
+            } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+                source = null;
             }
-            // 调休：按当日调整覆盖休息/工作
-            if (settings.getAdjustments() != null) {
-                for (Adjustment a : settings.getAdjustments()) {
-                    if (a.getDate() != null && date.equals(java.time.LocalDate.parse(a.getDate()))) {
-                        if ("WORK".equalsIgnoreCase(a.getType())) working = true;
-                        else if ("OFF".equalsIgnoreCase(a.getType())) working = false;
-                    }
-                }
+            if (c == null || source == null || !source.equals(compiledSource)) {
+                c = CompiledAttendanceRule.compile(rule, settings, parseWorkDays(rule), ruleVersionOf(source));
+                compiledRule = c;
+                compiledSource = source;
             }
+            compiledAt = System.currentTimeMillis();
+            return c;
         }
-    
-        // 非工作日不判定迟到/早退
-        if (!working) return "normal";
-    
-        java.time.LocalTime time = r.getAttendanceTime().toLocalTime();
-        Integer lateGrace = rule.getLateGraceMin() != null ? rule.getLateGraceMin() : 0;
-        Integer earlyGrace = rule.getEarlyGraceMin() != null ? rule.getEarlyGraceMin() : 0;
-    
-        if ("absence".equalsIgnoreCase(String.valueOf(r.getStatus()))) {
-            return "absence";
-        }
-    
-        // 计算参考开始/结束时间：优先使用时段配置，否则用规则上下学时间
-        java.time.LocalTime startRef = rule.getWorkStart();
-        java.time.LocalTime endRef = rule.getWorkEnd();
-        if (settings != null && settings.getPeriods() != null && !settings.getPeriods().isEmpty()) {
-            java.util.Optional<java.time.LocalTime> minStart = settings.getPeriods().stream()
-                .filter(p -> p.getStart() != null)
-                .map(p -> java.time.LocalTime.parse(p.getStart()))
-                .min(java.util.Comparator.naturalOrder());
-            java.util.Optional<java.time.LocalTime> maxEnd = settings.getPeriods().stream()
-                .filter(p -> p.getEnd() != null)
-                .map(p -> java.time.LocalTime.parse(p.getEnd()))
-                .max(java.util.Comparator.naturalOrder());
-            if (minStart.isPresent()) startRef = minStart.get();
-            if (maxEnd.isPresent()) endRef = maxEnd.get();
-        }
-    
-        if ("in".equalsIgnoreCase(String.valueOf(r.getAttendanceType()))) {
-            if (startRef != null) {
-                java.time.LocalTime threshold = startRef.plusMinutes(lateGrace);
-                if (time.isAfter(threshold)) return "late";
-            }
-            return "normal";
-        } else if ("out".equalsIgnoreCase(String.valueOf(r.getAttendanceType()))) {
-            if (endRef != null) {
-                java.time.LocalTime threshold = endRef.minusMinutes(earlyGrace);
-                if (time.isBefore(threshold)) return "early";
-            }
-            return "normal";
+    }
+
+    /** 入库时按当前规则判定状态并记下规则版本；规则停用时保留传入的状态 */
+    public void applyRule(AttendanceRecord record) {
+        CompiledAttendanceRule rule = compiledRule();
+        record.setStatus(rule.statusOf(record));
+        record.setRuleVersion(rule.getVersion());
+    }
+
+    private static long ruleVersionOf(String source) {
+        if (source == null) return 0L;
+        try {
+            byte[] d = java.security.MessageDigest.getInstance("SHA-256").digest(source.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            long v = 0L;
+            for (int i = 0; i < 8; i++) v = (v << 8) | (d[i] & 0xffL);
+            return v & Long.MAX_VALUE;
+        } catch (java.security.NoSuchAlgorithmException e) {
+            return source.hashCode() & 0x7fffffffL;
         }
-        return "normal";
+    }
+
+    // 根据规则判定记录状态（迟到/早退/正常），缺勤沿用原状态；批量判定请复用 compiledRule() 快照
+    public String classifyStatusByRule(AttendanceRule rule, AttendanceRecord r) {
+        return CompiledAttendanceRule.compile(rule, getSettingsOrDefault(), parseWorkDays(rule), 0L).classify(r);
     }
 
     // 统计：返回与前端字段一致的结构（支持规则驱动判定）
@@ -200,31 +217,20 @@ public class AttendanceService {
         LocalDateTime startDateTime = startDate != null ? startDate.atStartOfDay() : LocalDateTime.now().minusDays(30);
         LocalDateTime endDateTime = endDate != null ? endDate.atTime(LocalTime.MAX) : LocalDateTime.now();
 
-        List<AttendanceRecord> records;
-        if (classId != null) {
-            records = attendanceRecordRepository.findByClassIdAndAttendanceTimeBetween(classId, startDateTime, endDateTime);
-        } else {
-            records = attendanceRecordRepository.findByAttendanceTimeBetween(startDateTime, endDateTime);
-        }
-
-        if (checkType != null && !checkType.isEmpty()) {
-            records = records.stream().filter(r -> checkType.equals(r.getCheckType())).collect(Collectors.toList());
-        }
-
-        AttendanceRule rule = getRuleOrDefault();
-        boolean ruleEnabled = rule.getEnabled() == null || rule.getEnabled();
-
+        // 状态在入库时已按规则判定并由重判任务随规则变更回填，这里直接在库内分组计数
+        String type = checkType != null && !checkType.isEmpty() ? checkType : null;
         long normal = 0L, late = 0L, early = 0L, absence = 0L;
-        for (AttendanceRecord r : records) {
-            String computed = ruleEnabled ? classifyStatusByRule(rule, r) : String.valueOf(r.getStatus());
-            // 根据查询参数过滤（使用计算后的状态）
-            if (status != null && !status.isEmpty() && !status.equalsIgnoreCase(computed)) {
+        for (AttendanceRecordRepository.StatusCount c : attendanceRecordRepository.countGroupByStatus(startDateTime, endDateTime, classId, null, type)) {
+            String s = String.valueOf(c.getStatus());
+            // 根据查询参数过滤（使用已判定的状态）
+            if (status != null && !status.isEmpty() && !status.equalsIgnoreCase(s)) {
                 continue;
             }
-            if ("absence".equalsIgnoreCase(computed)) absence++;
-            else if ("late".equalsIgnoreCase(computed)) late++;
-            else if ("early".equalsIgnoreCase(computed)) early++;
-            else normal++;
+            long n = c.getTotal() != null ? c.getTotal() : 0L;
+            if ("absence".equalsIgnoreCase(s)) absence += n;
+            else if ("late".equalsIgnoreCase(s)) late += n;
+            else if ("early".equalsIgnoreCase(s)) early += n;
+            else normal += n;
         }
         long total = normal + late + early + absence;
 
@@ -258,13 +264,13 @@ public class AttendanceService {
     public AttendanceRecord ingestCard(com.campus.card.admin.controller.AttendanceController.CardIngestReq req) {
         java.time.LocalDateTime now = java.time.LocalDateTime.now();
         String cardNo = req.getCardNo();
-        com.campus.card.admin.domain.Card card = cardRepository.findByCardNo(cardNo).orElse(null);
+        AttendanceResolveCache.CardRef card = resolveCache.card(cardNo);
         if (card == null) throw new IllegalArgumentException("卡片不存在: " + cardNo);
-        if (card.getHolderType() == null || !"STUDENT".equalsIgnoreCase(card.getHolderType())) {
+        if (!card.isStudent()) {
             throw new IllegalArgumentException("当前仅支持学生刷卡考勤");
         }
         // 修复：holderId存储为学号(student_no)，应按学号查询学生
-        com.campus.card.admin.domain.StudentInfo student = studentRepository.findByStudentNo(card.getHolderId()).orElse(null);
+        AttendanceResolveCache.StudentRef student = resolveCache.student(card.getHolderId());
         if (student == null) throw new IllegalStateException("未找到持卡学生学号: " + card.getHolderId());
         com.campus.card.admin.domain.AttendanceRecord record = new com.campus.card.admin.domain.AttendanceRecord();
         record.setStudentId(student.getId());
@@ -280,7 +286,19 @@ public class AttendanceService {
             od.ifPresent(d -> { record.setDeviceId(d.getId()); record.setDeviceName(d.getName()); });
         }
         record.setStatus("normal");
-        return attendanceRecordRepository.save(record);
+        applyRule(record);
+        return saveIdempotent(record);
+    }
+
+    // 唯一索引 uk_attendance_dedup 冲突（同一学生同一时刻同类打卡已入库）时返回已有记录
+    private AttendanceRecord saveIdempotent(AttendanceRecord record) {
+        try {
+            return attendanceRecordRepository.save(record);
+        } catch (org.springframework.dao.DataIntegrityViolationException e) {
+            return attendanceRecordRepository.findFirstByStudentIdAndAttendanceTimeAndCheckTypeAndAttendanceType(
+                    record.getStudentId(), record.getAttendanceTime(), record.getCheckType(), record.getAttendanceType())
+                    .orElseThrow(() -> e);
+        }
     }
 
     @Data
@@ -328,7 +346,7 @@ public class AttendanceService {
         com.campus.card.admin.controller.AttendanceController.FaceIngestResp resp = new com.campus.card.admin.controller.AttendanceController.FaceIngestResp();
         resp.setLogged(true);
         if (Boolean.TRUE.equals(req.getSuccess()) && "STUDENT".equalsIgnoreCase(req.getPersonType())) {
-            com.campus.card.admin.domain.StudentInfo student = studentRepository.findByStudentNo(req.getPersonId()).orElse(null);
+            AttendanceResolveCache.StudentRef student = resolveCache.student(req.getPersonId());
             if (student != null) {
                 com.campus.card.admin.domain.AttendanceRecord record = new com.campus.card.admin.domain.AttendanceRecord();
                 record.setStudentId(student.getId());
@@ -345,7 +363,8 @@ public class AttendanceService {
                     od.ifPresent(d -> { record.setDeviceId(d.getId()); record.setDeviceName(d.getName()); });
                 }
                 record.setStatus("normal");
-                resp.setRecord(attendanceRecordRepository.save(record));
+                applyRule(record);
+                resp.setRecord(saveIdempotent(record));
             }
         }
         return resp;
@@ -478,6 +497,7 @@ public class AttendanceService {
         try {
             String json = objectMapper.writeValueAsString(settings);
             stringRedisTemplate.opsForValue().set(KEY_SETTINGS, json);
+            compiledAt = 0L;
             return settings;
         } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
             throw new RuntimeException("保存考勤设置失败", e);
@@ -490,6 +510,7 @@ public class AttendanceService {
         AttendanceRecord r = or.get();
         if (status != null && !status.isEmpty()) {
             r.setStatus(status);
+            r.setRuleVersion(MANUAL_RULE_VERSION);
         }
         String remark = r.getRemark();
         String append = (reason != null && !reason.isEmpty()) ? ("[异常标记] " + reason) : "[异常标记]";
@@ -503,7 +524,14 @@ public class AttendanceService {
         AttendanceRecord r = or.get();
         if (attendanceTime != null) r.setAttendanceTime(attendanceTime);
         if (attendanceType != null && !attendanceType.isEmpty()) r.setAttendanceType(attendanceType);
-        if (status != null && !status.isEmpty()) r.setStatus(status);
+        if (status != null && !status.isEmpty()) {
+            r.setStatus(status);
+            r.setRuleVersion(MANUAL_RULE_VERSION);
+        } else if ((attendanceTime != null || (attendanceType != null && !attendanceType.isEmpty()))
+                && !Long.valueOf(MANUAL_RULE_VERSION).equals(r.getRuleVersion())) {
+            // 修正了时间/类型但未指定状态时按当前规则重新判定
+            applyRule(r);
+        }
         String remark = r.getRemark();
         String append = (reason != null && !reason.isEmpty()) ? ("[修正] " + reason) : "[修正]";
         r.setRemark(remark == null || remark.isEmpty() ? append : (remark + " | " + append));
@@ -538,6 +566,11 @@ public class AttendanceService {
         String append = "[补录]" + (remark != null && !remark.isEmpty() ? (" " + remark) : "");
         record.setRemark(append);
         record.setStatus("normal");
-        return attendanceRecordRepository.save(record);
+        applyRule(record);
+        try {
+            return attendanceRecordRepository.save(record);
+        } catch (org.springframework.dao.DataIntegrityViolationException e) {
+            throw new IllegalStateException("该学生在此时间已有相同类型的考勤记录");
+        }
     }
 }
\ No newline at end of file
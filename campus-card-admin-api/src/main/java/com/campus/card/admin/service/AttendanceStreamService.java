@@ -1,32 +1,373 @@
 package com.campus.card.admin.service;
 
+import com.campus.card.admin.domain.AttendanceRecord;
+import com.campus.card.admin.domain.Clazz;
+import com.campus.card.admin.repository.ClazzRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.IOException;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 考勤实时推送：入库线程只把事件放入有界队列即返回，由分发线程统一序列化一次后扇出到各订阅者的环形缓冲，
+ * 再由发送线程池按订阅者串行发送。慢客户端只会丢弃自己缓冲中最旧的事件（随后补发一条 dropped 事件提示刷新），
+ * 不会拖慢入库；定时心跳同时用于剔除长时间发送不成功的连接。
+ * 订阅可按学校/班级/设备/状态过滤并受数据范围约束；事件 id 单调递增，最近事件保存在有界回放日志中，
+ * 客户端携带 Last-Event-ID 重连时先补发缺失事件，超出回放范围则发送 reset 事件提示全量刷新。
+ */
 @Service
 public class AttendanceStreamService {
-    private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AttendanceStreamService.class);
+    private static final String EVENT_NAME = "attendance";
+
+    private final ObjectMapper objectMapper;
+    private final ClazzRepository clazzRepository;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    // 以启动时刻为种子，重启后的 id 仍大于此前发出的 id
+    private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final AtomicLong droppedAtIngest = new AtomicLong();
+    // 回放日志与扇出共用一把锁，保证新订阅者的补发与实时事件之间不重不漏
+    private final Object fanoutLock = new Object();
+    private final ArrayDeque<Frame> replay = new ArrayDeque<>();
+
+    @Value("${attendance.stream.queue-capacity:10000}")
+    private int queueCapacity;
+
+    // 每个订阅者缓冲的未发送事件数，满时丢弃最旧的
+    @Value("${attendance.stream.subscriber-buffer:256}")
+    private int subscriberBuffer;
+
+    @Value("${attendance.stream.sender-threads:4}")
+    private int senderThreads;
+
+    // 超过该时长没有一次发送成功（含心跳）的连接视为失效并关闭
+    @Value("${attendance.stream.idle-timeout-ms:60000}")
+    private long idleTimeoutMs;
+
+    @Value("${attendance.stream.replay-size:10000}")
+    private int replaySize;
+
+    private BlockingQueue<Object> inbox;
+    private ExecutorService senders;
+    private Thread dispatcher;
+    private volatile boolean running = true;
+
+    public AttendanceStreamService(ObjectMapper objectMapper, ClazzRepository clazzRepository) {
+        this.objectMapper = objectMapper;
+        this.clazzRepository = clazzRepository;
+    }
+
+    @PostConstruct
+    public void start() {
+        inbox = new LinkedBlockingQueue<>(Math.max(1, queueCapacity));
+        AtomicInteger n = new AtomicInteger();
+        senders = Executors.newFixedThreadPool(Math.max(1, senderThreads), r -> {
+            Thread t = new Thread(r, "attendance-sse-sender-" + n.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        dispatcher = new Thread(this::dispatchLoop, "attendance-sse-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (dispatcher != null) dispatcher.interrupt();
+        if (senders != null) senders.shutdownNow();
+        for (Subscriber s : subscribers) {
+            s.close();
+        }
+    }
+
+    /**
+     * 按条件订阅。allowedClassIds / allowedStudentIds 为数据范围（为空表示不限），与请求条件取交集；
+     * lastEventId 为断线前收到的最后一个事件 id。
+     */
+    public SseEmitter subscribe(Long schoolId, Long classId, Long deviceId, String status,
+                                Set<Long> allowedClassIds, Set<Long> allowedStudentIds, String lastEventId) {
+        Filter filter = new Filter();
+        // 数据范围为空集表示不限，与列表查询一致
+        filter.classIds = intersect(classId != null ? Collections.singleton(classId) : null,
+                allowedClassIds != null && !allowedClassIds.isEmpty() ? allowedClassIds : null);
+        if (schoolId != null) {
+            Set<Long> schoolClasses = new HashSet<>();
+            for (Clazz c : clazzRepository.findBySchoolId(schoolId)) schoolClasses.add(c.getId());
+            filter.classIds = intersect(filter.classIds, schoolClasses);
+        }
+        filter.studentIds = allowedStudentIds != null && !allowedStudentIds.isEmpty() ? allowedStudentIds : null;
+        filter.deviceId = deviceId;
+        filter.status = status != null && !status.isEmpty() ? status : null;
 
-    public SseEmitter subscribe() {
         SseEmitter emitter = new SseEmitter(0L); // no timeout
-        this.emitters.add(emitter);
-        emitter.onCompletion(() -> this.emitters.remove(emitter));
-        emitter.onTimeout(() -> this.emitters.remove(emitter));
-        emitter.onError(e -> this.emitters.remove(emitter));
+        Subscriber subscriber = new Subscriber(emitter, Math.max(1, subscriberBuffer), filter);
+        Long lastId = parseId(lastEventId);
+        synchronized (fanoutLock) {
+            if (lastId != null) {
+                Frame oldest = replay.peekFirst();
+                long floor = oldest != null ? oldest.id - 1 : sequence.get();
+                if (lastId < floor || lastId > sequence.get()) {
+                    // 缺口超出回放范围（或来自其他实例/重启前），提示客户端全量刷新
+                    subscriber.resetDue = true;
+                }
+                List<Frame> missed = new ArrayList<>();
+                for (Frame f : replay) {
+                    if (f.id > lastId && filter.matches(f)) missed.add(f);
+                }
+                subscriber.preload(missed);
+            }
+            this.subscribers.add(subscriber);
+        }
+        emitter.onCompletion(() -> this.subscribers.remove(subscriber));
+        emitter.onTimeout(() -> this.subscribers.remove(subscriber));
+        emitter.onError(e -> this.subscribers.remove(subscriber));
+        if (subscriber.hasPending()) schedule(subscriber);
         return emitter;
     }
 
+    // null 表示不限，空集表示不匹配任何班级
+    private static Set<Long> intersect(Set<Long> a, Set<Long> b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        Set<Long> r = new HashSet<>(a);
+        r.retainAll(b);
+        return r;
+    }
+
+    private static Long parseId(String id) {
+        if (id == null || id.trim().isEmpty()) return null;
+        try {
+            return Long.parseLong(id.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** 非阻塞投递；分发队列已满时丢弃并计数，不影响调用方 */
     public void emit(Object event) {
-        for (SseEmitter emitter : emitters) {
+        if (event == null) return;
+        if (!inbox.offer(event)) {
+            long dropped = droppedAtIngest.incrementAndGet();
+            if ((dropped & 1023) == 1) {
+                log.warn("Attendance stream inbox full, {} events dropped so far", dropped);
+            }
+        }
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            Object event;
+            try {
+                event = inbox.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                // 每个事件只序列化一次，各订阅者共享同一帧
+                String json = objectMapper.writeValueAsString(event);
+                AttendanceRecord record = recordOf(event);
+                List<Subscriber> targets = new ArrayList<>();
+                synchronized (fanoutLock) {
+                    Frame frame = new Frame(sequence.incrementAndGet(), EVENT_NAME, json, record);
+                    replay.addLast(frame);
+                    while (replay.size() > Math.max(1, replaySize)) replay.pollFirst();
+                    for (Subscriber s : subscribers) {
+                        if (s.filter.matches(frame)) {
+                            s.offer(frame);
+                            targets.add(s);
+                        }
+                    }
+                }
+                for (Subscriber s : targets) {
+                    schedule(s);
+                }
+            } catch (Exception e) {
+                log.warn("Attendance stream dispatch failed", e);
+            }
+        }
+    }
+
+    private static AttendanceRecord recordOf(Object event) {
+        if (event instanceof AttendanceRecord) return (AttendanceRecord) event;
+        if (event instanceof com.campus.card.admin.controller.AttendanceController.FaceIngestResp) {
+            return ((com.campus.card.admin.controller.AttendanceController.FaceIngestResp) event).getRecord();
+        }
+        return null;
+    }
+
+    /** 心跳：给每个连接排一条注释帧，并关闭长时间没有成功发送的连接 */
+    @Scheduled(fixedDelayString = "${attendance.stream.heartbeat-ms:15000}")
+    public void heartbeat() {
+        long now = System.currentTimeMillis();
+        for (Subscriber s : subscribers) {
+            if (now - s.lastSuccessAt > idleTimeoutMs) {
+                subscribers.remove(s);
+                s.close();
+                continue;
+            }
+            s.heartbeatDue = true;
+            schedule(s);
+        }
+    }
+
+    private void schedule(Subscriber s) {
+        if (s.draining.compareAndSet(false, true)) {
+            try {
+                senders.execute(() -> drain(s));
+            } catch (java.util.concurrent.RejectedExecutionException e) {
+                s.draining.set(false);
+            }
+        }
+    }
+
+    // 同一订阅者同时只有一个发送任务，保证事件顺序
+    private void drain(Subscriber s) {
+        try {
+            if (s.resetDue) {
+                s.resetDue = false;
+                s.emitter.send(SseEmitter.event().name("reset").data("{}"));
+                s.lastSuccessAt = System.currentTimeMillis();
+            }
+            while (true) {
+                long dropped = s.takeDropped();
+                if (dropped > 0) {
+                    s.emitter.send(SseEmitter.event().name("dropped").data("{\"count\":" + dropped + "}"));
+                    s.lastSuccessAt = System.currentTimeMillis();
+                }
+                Frame f = s.poll();
+                if (f == null) break;
+                s.emitter.send(SseEmitter.event().id(String.valueOf(f.id)).name(f.name).data(f.json));
+                s.lastSuccessAt = System.currentTimeMillis();
+            }
+            if (s.heartbeatDue) {
+                s.heartbeatDue = false;
+                s.emitter.send(SseEmitter.event().comment("ping"));
+                s.lastSuccessAt = System.currentTimeMillis();
+            }
+        } catch (Exception e) {
+            subscribers.remove(s);
+            s.close();
+            return;
+        } finally {
+            s.draining.set(false);
+        }
+        // 释放标记后可能有新事件到达
+        if (s.hasPending()) schedule(s);
+    }
+
+    private static final class Frame {
+        private final long id;
+        private final String name;
+        private final String json;
+        // 过滤用字段，非考勤记录事件（如未识别的人脸日志）均为空
+        private final Long classId;
+        private final Long studentId;
+        private final Long deviceId;
+        private final String status;
+
+        Frame(long id, String name, String json, AttendanceRecord record) {
+            this.id = id;
+            this.name = name;
+            this.json = json;
+            this.classId = record != null ? record.getClassId() : null;
+            this.studentId = record != null ? record.getStudentId() : null;
+            this.deviceId = record != null ? record.getDeviceId() : null;
+            this.status = record != null ? record.getStatus() : null;
+        }
+    }
+
+    /** 订阅条件，各字段为空表示不限；非考勤记录事件只推给不带任何条件的订阅者 */
+    private static final class Filter {
+        private Set<Long> classIds;
+        private Set<Long> studentIds;
+        private Long deviceId;
+        private String status;
+
+        boolean matches(Frame f) {
+            if (classIds != null && (f.classId == null || !classIds.contains(f.classId))) return false;
+            if (studentIds != null && (f.studentId == null || !studentIds.contains(f.studentId))) return false;
+            if (deviceId != null && !deviceId.equals(f.deviceId)) return false;
+            return status == null || status.equals(f.status);
+        }
+    }
+
+    private static final class Subscriber {
+        private final SseEmitter emitter;
+        private final Filter filter;
+        private final ArrayDeque<Frame> buffer;
+        // 重连补发的事件单独排队，不参与实时缓冲的满丢弃，且先于实时事件发送
+        private final ArrayDeque<Frame> backlog = new ArrayDeque<>();
+        private final int capacity;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private long dropped;
+        private volatile boolean heartbeatDue;
+        private volatile boolean resetDue;
+        private volatile long lastSuccessAt = System.currentTimeMillis();
+
+        Subscriber(SseEmitter emitter, int capacity, Filter filter) {
+            this.emitter = emitter;
+            this.filter = filter;
+            this.capacity = capacity;
+            this.buffer = new ArrayDeque<>(Math.min(capacity, 64));
+        }
+
+        synchronized void offer(Frame f) {
+            if (buffer.size() >= capacity) {
+                buffer.pollFirst();
+                dropped++;
+            }
+            buffer.addLast(f);
+        }
+
+        /** 重连补发：放入独立队列，不受缓冲容量限制，也不会被随后到达的实时事件挤掉 */
+        synchronized void preload(List<Frame> frames) {
+            backlog.addAll(frames);
+        }
+
+        synchronized Frame poll() {
+            Frame f = backlog.pollFirst();
+            return f != null ? f : buffer.pollFirst();
+        }
+
+        synchronized long takeDropped() {
+            long d = dropped;
+            dropped = 0;
+            return d;
+        }
+
+        synchronized boolean hasPending() {
+            return !backlog.isEmpty() || !buffer.isEmpty() || dropped > 0 || heartbeatDue || resetDue;
+        }
+
+        void close() {
             try {
-                emitter.send(SseEmitter.event().name("attendance").data(event));
-            } catch (IOException e) {
-                emitters.remove(emitter);
+                emitter.complete();
+            } catch (Exception ignored) {
+                // 连接已断开
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,37 +1,104 @@
 package com.campus.card.admin.service;
 
 import com.campus.card.admin.domain.Card;
+import com.campus.card.admin.domain.CardBalanceSnapshot;
 import com.campus.card.admin.domain.CardType;
 import com.campus.card.admin.domain.CardTx;
+import com.campus.card.admin.infrastructure.export.CsvWriter;
+import com.campus.card.admin.ledger.CardLedgerEngine;
+import com.campus.card.admin.ledger.CardLedgerException;
 import com.campus.card.admin.repository.CardRepository;
 import com.campus.card.admin.repository.CardTypeRepository;
 import com.campus.card.admin.repository.CardTxRepository;
-import com.campus.card.admin.repository.StudentRepository;
-import com.campus.card.admin.repository.TeacherRepository;
+import com.campus.card.admin.repository.SpecificationQueries;
+import com.campus.card.common.result.CursorPageResult;
 import com.campus.card.common.result.PageResult;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 
 @Service
 public class CardService {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CardService.class);
+
     private final CardRepository cardRepository;
     private final CardTypeRepository cardTypeRepository;
     private final CardTxRepository cardTxRepository;
-    private final StudentRepository studentRepository;
-    private final TeacherRepository teacherRepository;
+    private final CardLedgerEngine ledgerEngine;
+    private final CardSnapshotService snapshotService;
+    private final ConsumeRollupService rollupService;
+    private final AttendanceResolveCache resolveCache;
+    private final SpecificationQueries specificationQueries;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcTemplate jdbcTemplate;
+
+    // 充值/消费是否走按卡串行的记账引擎（默认开启）；关闭时消费退回单条条件 UPDATE 扣款（debitIfSufficient）
+    @Value("${card.ledger.enabled:true}")
+    private boolean ledgerEnabled;
+
+    @Value("${card.ledger.timeout-ms:5000}")
+    private long ledgerTimeoutMs;
+
+    // 卡号包含搜索是否借助 ngram 全文索引（需 MySQL FULLTEXT ... WITH PARSER ngram）。
+    // 默认关闭：索引由 continue-on-error 的补丁创建，可能未建成；开启时启动后核对索引是否存在
+    @Value("${card.search.ngram:false}")
+    private volatile boolean cardNoNgram;
 
     public CardService(CardRepository cardRepository, CardTypeRepository cardTypeRepository, CardTxRepository cardTxRepository,
-                       StudentRepository studentRepository, TeacherRepository teacherRepository) {
+                       CardLedgerEngine ledgerEngine, CardSnapshotService snapshotService,
+                       ConsumeRollupService rollupService, AttendanceResolveCache resolveCache,
+                       SpecificationQueries specificationQueries, ObjectMapper objectMapper,
+                       PlatformTransactionManager transactionManager, JdbcTemplate jdbcTemplate) {
         this.cardRepository = cardRepository;
         this.cardTypeRepository = cardTypeRepository;
         this.cardTxRepository = cardTxRepository;
-        this.studentRepository = studentRepository;
-        this.teacherRepository = teacherRepository;
+        this.ledgerEngine = ledgerEngine;
+        this.snapshotService = snapshotService;
+        this.rollupService = rollupService;
+        this.resolveCache = resolveCache;
+        this.specificationQueries = specificationQueries;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /** 配置开启 ngram 搜索但 card 表上没有 ft_card_no_ngram 时退回纯 LIKE，避免包含搜索全部报错 */
+    @EventListener(ApplicationReadyEvent.class)
+    public void checkCardNoNgramIndex() {
+        if (!cardNoNgram) return;
+        try {
+            Integer n = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.statistics " +
+                    "WHERE table_schema = DATABASE() AND table_name = 'card' AND index_name = 'ft_card_no_ngram'", Integer.class);
+            if (n == null || n == 0) {
+                cardNoNgram = false;
+                log.warn("card.search.ngram is enabled but index ft_card_no_ngram is missing; card number contains search falls back to LIKE");
+            }
+        } catch (Exception e) {
+            cardNoNgram = false;
+            log.warn("Failed to check index ft_card_no_ngram, card number contains search falls back to LIKE", e);
+        }
     }
 
     // 卡种管理
@@ -53,28 +120,85 @@ public class CardService {
     }
 
     // 卡片管理
-    public PageResult<Card> pageList(int page, int size, String cardNo, String holderType, String holderId, String status) {
-        List<Card> list = cardRepository.findAll();
-        if (cardNo != null && !cardNo.isEmpty()) {
-            list = list.stream().filter(c -> c.getCardNo() != null && c.getCardNo().contains(cardNo)).collect(java.util.stream.Collectors.toList());
-        }
-        if (holderType != null && !holderType.isEmpty()) {
-            list = list.stream().filter(c -> holderType.equalsIgnoreCase(c.getHolderType())).collect(java.util.stream.Collectors.toList());
-        }
-        if (holderId != null && !holderId.isEmpty()) {
-            list = list.stream().filter(c -> holderId.equals(c.getHolderId())).collect(java.util.stream.Collectors.toList());
-        }
-        if (status != null && !status.isEmpty()) {
-            list = list.stream().filter(c -> status.equalsIgnoreCase(c.getStatus())).collect(java.util.stream.Collectors.toList());
-        }
-        int total = list.size();
-        int from = Math.max(0, (page - 1) * size);
-        int to = Math.min(total, from + size);
-        List<Card> pageList = from >= total ? java.util.Collections.emptyList() : list.subList(from, to);
-        return PageResult.of(total, pageList);
+    public PageResult<Card> pageList(int page, int size, String cardNo, String cardNoMode, String holderType, String holderId, String status) {
+        org.springframework.data.domain.Pageable pr = org.springframework.data.domain.PageRequest.of(Math.max(page - 1, 0), Math.max(size, 1),
+                org.springframework.data.domain.Sort.by("id"));
+        org.springframework.data.domain.Page<Card> p = cardRepository.findAll(cardSpec(cardNo, cardNoMode, holderType, holderId, status), pr);
+        return PageResult.of(p.getTotalElements(), p.getContent());
+    }
+
+    // 游标分页：按 id 升序，从 cursor（上一页最后一条的 id）之后取，深翻页也只走主键索引范围扫描
+    public CursorPageResult<Card> cursorList(String cursor, int size, String cardNo, String cardNoMode, String holderType, String holderId, String status) {
+        final Long afterId;
+        try {
+            afterId = (cursor == null || cursor.isEmpty()) ? null : Long.valueOf(cursor);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的游标");
+        }
+        int limit = Math.max(size, 1);
+        org.springframework.data.jpa.domain.Specification<Card> spec = cardSpec(cardNo, cardNoMode, holderType, holderId, status);
+        if (afterId != null) {
+            spec = spec.and((root, query, cb) -> cb.greaterThan(root.<Long>get("id"), afterId));
+        }
+        // 多取一条判断是否还有下一页，不做 count
+        List<Card> list = specificationQueries.findTop(Card.class, spec, org.springframework.data.domain.Sort.by("id"), limit + 1);
+        String next = null;
+        if (list.size() > limit) {
+            list = list.subList(0, limit);
+            next = String.valueOf(list.get(limit - 1).getId());
+        }
+        return CursorPageResult.of(list, next);
+    }
+
+    private org.springframework.data.jpa.domain.Specification<Card> cardSpec(String cardNo, String cardNoMode, String holderType, String holderId, String status) {
+        return (root, query, cb) -> {
+            java.util.List<javax.persistence.criteria.Predicate> predicates = new java.util.ArrayList<>();
+            if (cardNo != null && !cardNo.isEmpty()) {
+                if ("prefix".equalsIgnoreCase(cardNoMode)) {
+                    // 前缀匹配可直接使用 card_no 唯一索引
+                    predicates.add(cb.like(root.get("cardNo"), escapeLike(cardNo) + "%", LIKE_ESCAPE));
+                } else {
+                    // 包含匹配：先用 ngram 全文索引缩小候选，再用 LIKE 精确确认
+                    String term = cardNo.replace("\"", "");
+                    if (cardNoNgram && term.length() >= 2) {
+                        predicates.add(cb.greaterThan(
+                                cb.function("match_against", Double.class, root.get("cardNo"), cb.literal("\"" + term + "\"")), 0.0));
+                    }
+                    predicates.add(cb.like(root.get("cardNo"), "%" + escapeLike(cardNo) + "%", LIKE_ESCAPE));
+                }
+            }
+            if (holderType != null && !holderType.isEmpty()) {
+                predicates.add(cb.equal(root.get("holderType"), holderType.toUpperCase()));
+            }
+            if (holderId != null && !holderId.isEmpty()) {
+                predicates.add(cb.equal(root.get("holderId"), holderId));
+            }
+            if (status != null && !status.isEmpty()) {
+                predicates.add(cb.equal(root.get("status"), status.toUpperCase()));
+            }
+            return cb.and(predicates.toArray(new javax.persistence.criteria.Predicate[0]));
+        };
+    }
+
+    // LIKE 转义符不用反斜杠：MySQL 字符串字面量中反斜杠本身是转义符，生成的 ESCAPE '\' 会被错误解析
+    private static final char LIKE_ESCAPE = '!';
+
+    // 转义 LIKE 通配符，避免输入中的 % / _ 扩大匹配范围（前缀模式下还会让索引范围扫描退化）
+    private static String escapeLike(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 8);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == LIKE_ESCAPE || c == '%' || c == '_') sb.append(LIKE_ESCAPE);
+            sb.append(c);
+        }
+        return sb.toString();
     }
 
     public Card issueCard(IssueCardReq req) {
+        return transactionTemplate.execute(status -> doIssueCard(req));
+    }
+
+    private Card doIssueCard(IssueCardReq req) {
         Card card = new Card();
         card.setCardNo(generateCardNo());
         card.setTypeId(req.getTypeId());
@@ -96,32 +220,26 @@ public class CardService {
             tx.setNote(req.getNote());
             cardTxRepository.save(tx);
         }
+        snapshotService.onCardCreated(saved);
+        resolveCache.invalidateCard(saved.getCardNo());
         return saved;
     }
 
+    // 余额查询读取快照（近端缓存命中时无需访问数据库）
     public BalanceInfo getBalance(String cardNo) {
-        Optional<Card> oc = cardRepository.findByCardNo(cardNo);
-        if (!oc.isPresent()) {
+        CardBalanceSnapshot snapshot = snapshotService.get(cardNo);
+        if (snapshot == null) {
             throw new IllegalArgumentException("卡片不存在");
         }
-        Card card = oc.get();
         BalanceInfo info = new BalanceInfo();
         info.setCardNo(cardNo);
-        info.setBalance(card.getBalance());
-        info.setStatus(card.getStatus());
-        info.setHolderType(card.getHolderType());
-        info.setHolderId(card.getHolderId());
-        String holderName = null;
-        if ("STUDENT".equalsIgnoreCase(card.getHolderType())) {
-            holderName = studentRepository.findByStudentNo(card.getHolderId()).map(s -> s.getName()).orElse(null);
-        } else if ("TEACHER".equalsIgnoreCase(card.getHolderType())) {
-            holderName = teacherRepository.findByTeacherNo(card.getHolderId()).map(t -> t.getName()).orElse(null);
-        }
-        info.setHolderName(holderName);
-        String cardTypeName = card.getTypeId() != null ? cardTypeRepository.findById(card.getTypeId()).map(CardType::getName).orElse(null) : null;
-        info.setCardTypeName(cardTypeName);
-        List<CardTx> list = cardTxRepository.findByCardNoOrderByOccurredAtDesc(cardNo);
-        info.setUpdatedAt(list != null && !list.isEmpty() ? list.get(0).getOccurredAt() : card.getCreatedAt());
+        info.setBalance(snapshot.getBalance());
+        info.setStatus(snapshot.getStatus());
+        info.setHolderType(snapshot.getHolderType());
+        info.setHolderId(snapshot.getHolderId());
+        info.setHolderName(snapshot.getHolderName());
+        info.setCardTypeName(snapshot.getCardTypeName());
+        info.setUpdatedAt(snapshot.getLastTxAt() != null ? snapshot.getLastTxAt() : snapshot.getCreatedAt());
         return info;
     }
 
@@ -135,6 +253,75 @@ public class CardService {
         return cardTxRepository.findByCardNoOrderByOccurredAtDesc(cardNo);
     }
 
+    // 流水游标分页，游标格式为 "发生时间_id"，取自上一页最后一条
+    public CursorPageResult<CardTx> cursorTransactions(String cardNo, String type, LocalDateTime startTime, LocalDateTime endTime,
+                                                       String cursor, int size) {
+        LocalDateTime cursorAt = null;
+        Long cursorId = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            int idx = cursor.lastIndexOf('_');
+            try {
+                cursorAt = LocalDateTime.parse(cursor.substring(0, idx));
+                cursorId = Long.valueOf(cursor.substring(idx + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("无效的游标");
+            }
+        }
+        int limit = Math.max(size, 1);
+        String typeFilter = (type != null && !type.isEmpty()) ? type : null;
+        List<CardTx> list = cardTxRepository.findPageByCardNo(cardNo, typeFilter, startTime, endTime, cursorAt, cursorId,
+                org.springframework.data.domain.PageRequest.of(0, limit + 1));
+        String next = null;
+        if (list.size() > limit) {
+            list = list.subList(0, limit);
+            CardTx last = list.get(limit - 1);
+            next = last.getOccurredAt() + "_" + last.getId();
+        }
+        return CursorPageResult.of(list, next);
+    }
+
+    /**
+     * 流水导出：逐行从流式结果集写到输出流（csv 或 ndjson），内存占用与导出量无关。
+     * 须经代理调用以开启只读事务，结果流在事务内消费完毕。
+     */
+    @Transactional(readOnly = true)
+    public void exportTransactions(String cardNo, String type, LocalDateTime startTime, LocalDateTime endTime,
+                                   String format, OutputStream out) throws IOException {
+        String typeFilter = (type != null && !type.isEmpty()) ? type : null;
+        try (Stream<CardTxRepository.TxRow> rows = cardTxRepository.streamByCardNo(cardNo, typeFilter, startTime, endTime)) {
+            if ("ndjson".equalsIgnoreCase(format)) {
+                JsonGenerator gen = objectMapper.getFactory().createGenerator(out).setRootValueSeparator(null);
+                Iterator<CardTxRepository.TxRow> it = rows.iterator();
+                while (it.hasNext()) {
+                    CardTxRepository.TxRow r = it.next();
+                    gen.writeStartObject();
+                    gen.writeObjectField("id", r.getId());
+                    gen.writeStringField("cardNo", r.getCardNo());
+                    gen.writeStringField("type", r.getType());
+                    gen.writeObjectField("amount", r.getAmount());
+                    gen.writeObjectField("balanceAfter", r.getBalanceAfter());
+                    gen.writeStringField("merchant", r.getMerchant());
+                    gen.writeStringField("occurredAt", r.getOccurredAt() != null ? r.getOccurredAt().toString() : null);
+                    gen.writeStringField("note", r.getNote());
+                    gen.writeEndObject();
+                    gen.writeRaw('\n');
+                }
+                gen.flush();
+            } else {
+                CsvWriter csv = CsvWriter.utf8(out);
+                csv.row("id", "cardNo", "type", "amount", "balanceAfter", "merchant", "occurredAt", "note");
+                Iterator<CardTxRepository.TxRow> it = rows.iterator();
+                while (it.hasNext()) {
+                    CardTxRepository.TxRow r = it.next();
+                    csv.field(r.getId()).field(r.getCardNo()).field(r.getType()).field(r.getAmount())
+                            .field(r.getBalanceAfter()).field(r.getMerchant()).field(r.getOccurredAt()).field(r.getNote())
+                            .endRow();
+                }
+                csv.flush();
+            }
+        }
+    }
+
     private String generateCardNo() {
         return "C" + System.currentTimeMillis() + String.format("%03d", (int)(Math.random() * 1000));
     }
@@ -179,26 +366,38 @@ public class CardService {
         if (req.getAmount() == null || req.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
             throw new IllegalArgumentException("充值金额必须为正数");
         }
-        Optional<Card> oc = cardRepository.findByCardNo(req.getCardNo());
-        if (!oc.isPresent()) {
-            throw new IllegalArgumentException("卡片不存在");
-        }
-        Card card = oc.get();
-        if (!"ACTIVE".equalsIgnoreCase(card.getStatus())) {
-            throw new IllegalStateException("当前卡片状态不允许充值");
-        }
-        BigDecimal newBalance = (card.getBalance() != null ? card.getBalance() : BigDecimal.ZERO).add(req.getAmount());
-        card.setBalance(newBalance);
-        cardRepository.save(card);
-        CardTx tx = new CardTx();
-        tx.setCardNo(card.getCardNo());
-        tx.setType("RECHARGE");
-        tx.setAmount(req.getAmount());
-        tx.setBalanceAfter(newBalance);
-        tx.setMerchant(req.getMethod() != null ? req.getMethod() : "UNKNOWN");
-        tx.setOccurredAt(LocalDateTime.now());
-        tx.setNote(req.getNote());
-        cardTxRepository.save(tx);
+        if (ledgerEnabled) {
+            CardLedgerEngine.LedgerResult r = awaitLedger(ledgerEngine.recharge(req.getCardNo(), req.getAmount(),
+                    req.getMethod() != null ? req.getMethod() : "UNKNOWN", req.getNote()));
+            RechargeResult result = new RechargeResult();
+            result.setSuccess(true);
+            result.setBalance(r.getBalance());
+            return result;
+        }
+        BigDecimal newBalance = transactionTemplate.execute(status -> {
+            Optional<Card> oc = cardRepository.findByCardNo(req.getCardNo());
+            if (!oc.isPresent()) {
+                throw new IllegalArgumentException("卡片不存在");
+            }
+            Card card = oc.get();
+            if (!"ACTIVE".equalsIgnoreCase(card.getStatus())) {
+                throw CardLedgerException.statusNotAllowed("当前卡片状态不允许充值");
+            }
+            BigDecimal balance = (card.getBalance() != null ? card.getBalance() : BigDecimal.ZERO).add(req.getAmount());
+            card.setBalance(balance);
+            cardRepository.save(card);
+            CardTx tx = new CardTx();
+            tx.setCardNo(card.getCardNo());
+            tx.setType("RECHARGE");
+            tx.setAmount(req.getAmount());
+            tx.setBalanceAfter(balance);
+            tx.setMerchant(req.getMethod() != null ? req.getMethod() : "UNKNOWN");
+            tx.setOccurredAt(LocalDateTime.now());
+            tx.setNote(req.getNote());
+            cardTxRepository.save(tx);
+            snapshotService.recordTxs(java.util.Collections.singletonList(tx));
+            return balance;
+        });
         RechargeResult result = new RechargeResult();
         result.setSuccess(true);
         result.setBalance(newBalance);
@@ -211,6 +410,7 @@ public class CardService {
         private BigDecimal amount; // 正数
         private String merchant;
         private String note;
+        private LocalDateTime occurredAt; // 可选：POS 离线缓存的刷卡时间，仅批量消费使用
     }
 
     @Data
@@ -223,36 +423,145 @@ public class CardService {
         if (req.getAmount() == null || req.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
             throw new IllegalArgumentException("消费金额必须为正数");
         }
-        Optional<Card> oc = cardRepository.findByCardNo(req.getCardNo());
+        if (ledgerEnabled) {
+            CardLedgerEngine.LedgerResult r = awaitLedger(ledgerEngine.consume(req.getCardNo(), req.getAmount(),
+                    req.getMerchant(), req.getNote()));
+            ConsumeResult result = new ConsumeResult();
+            result.setSuccess(true);
+            result.setBalance(r.getBalance());
+            return result;
+        }
+        // 条件 UPDATE 一次完成校验与扣款，避免先查后写的丢失更新窗口
+        BigDecimal newBalance = transactionTemplate.execute(status -> {
+            if (cardRepository.debitIfSufficient(req.getCardNo(), req.getAmount()) == 0) {
+                throw debitFailure(req.getCardNo(), req.getAmount());
+            }
+            // 本事务已持有该行锁，读到的即扣款后的余额
+            BigDecimal balance = cardRepository.findBalanceByCardNo(req.getCardNo());
+            CardTx tx = new CardTx();
+            tx.setCardNo(req.getCardNo());
+            tx.setType("CONSUME");
+            tx.setAmount(req.getAmount().negate()); // 消费记录为负值
+            tx.setBalanceAfter(balance);
+            tx.setMerchant(req.getMerchant());
+            tx.setOccurredAt(LocalDateTime.now());
+            tx.setNote(req.getNote());
+            cardTxRepository.save(tx);
+            snapshotService.recordTxs(java.util.Collections.singletonList(tx));
+            rollupService.recordTxs(java.util.Collections.singletonList(tx));
+            return balance;
+        });
+        ConsumeResult result = new ConsumeResult();
+        result.setSuccess(true);
+        result.setBalance(newBalance);
+        return result;
+    }
+
+    // 条件扣款未命中时补查一次，区分卡不存在、状态不允许与余额不足
+    private RuntimeException debitFailure(String cardNo, BigDecimal amount) {
+        Optional<Card> oc = cardRepository.findByCardNo(cardNo);
         if (!oc.isPresent()) {
-            throw new IllegalArgumentException("卡片不存在");
+            return new IllegalArgumentException("卡片不存在");
         }
         Card card = oc.get();
         if (!"ACTIVE".equalsIgnoreCase(card.getStatus())) {
-            throw new IllegalStateException("当前卡片状态不允许消费");
+            return CardLedgerException.statusNotAllowed("当前卡片状态不允许消费");
         }
         BigDecimal current = card.getBalance() != null ? card.getBalance() : BigDecimal.ZERO;
-        if (current.compareTo(req.getAmount()) < 0) {
-            throw new IllegalStateException("余额不足");
+        if (current.compareTo(amount) < 0) {
+            return CardLedgerException.insufficientBalance("余额不足");
         }
-        BigDecimal newBalance = current.subtract(req.getAmount());
-        card.setBalance(newBalance);
-        cardRepository.save(card);
-        CardTx tx = new CardTx();
-        tx.setCardNo(card.getCardNo());
-        tx.setType("CONSUME");
-        tx.setAmount(req.getAmount().negate()); // 消费记录为负值
-        tx.setBalanceAfter(newBalance);
-        tx.setMerchant(req.getMerchant());
-        tx.setOccurredAt(LocalDateTime.now());
-        tx.setNote(req.getNote());
-        cardTxRepository.save(tx);
-        ConsumeResult result = new ConsumeResult();
-        result.setSuccess(true);
-        result.setBalance(newBalance);
+        return CardLedgerException.concurrentModification("卡片余额已变动，请重试");
+    }
+
+    @Data
+    public static class BatchConsumeReq {
+        private List<ConsumeReq> items;
+    }
+
+    @Data
+    public static class ConsumeItemResult {
+        private int index;
+        private String cardNo;
+        private boolean success;
+        private int code; // 0 成功；失败时与单笔接口的错误码一致
+        private String message;
+        private BigDecimal balance;
+    }
+
+    @Data
+    public static class BatchConsumeResult {
+        private int successCount;
+        private int failCount;
+        private List<ConsumeItemResult> items;
+    }
+
+    /**
+     * 批量消费：POS 网络恢复后一次上送缓存的刷卡记录。
+     * 全部提交给记账引擎，同卡按提交顺序落到同一通道依次记账，各通道成批提交事务并批量写入流水；
+     * 每笔返回独立结果，单笔失败不影响其他记录。
+     */
+    public BatchConsumeResult batchConsume(BatchConsumeReq req) {
+        List<ConsumeReq> items = req.getItems() != null ? req.getItems() : java.util.Collections.<ConsumeReq>emptyList();
+        List<CompletableFuture<CardLedgerEngine.LedgerResult>> futures = new java.util.ArrayList<>(items.size());
+        for (ConsumeReq item : items) {
+            if (item == null || item.getAmount() == null || item.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
+                CompletableFuture<CardLedgerEngine.LedgerResult> f = new CompletableFuture<>();
+                f.completeExceptionally(new IllegalArgumentException("消费金额必须为正数"));
+                futures.add(f);
+                continue;
+            }
+            futures.add(ledgerEngine.consume(item.getCardNo(), item.getAmount(), item.getMerchant(), item.getNote(), item.getOccurredAt()));
+        }
+        long deadline = System.currentTimeMillis() + ledgerTimeoutMs;
+        List<ConsumeItemResult> results = new java.util.ArrayList<>(items.size());
+        int success = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            ConsumeItemResult r = new ConsumeItemResult();
+            r.setIndex(i);
+            r.setCardNo(items.get(i) != null ? items.get(i).getCardNo() : null);
+            try {
+                CardLedgerEngine.LedgerResult lr = awaitLedger(futures.get(i), Math.max(0, deadline - System.currentTimeMillis()));
+                r.setSuccess(true);
+                r.setBalance(lr.getBalance());
+                success++;
+            } catch (CardLedgerException e) {
+                r.setCode(e.getCode());
+                r.setMessage(e.getMessage());
+            } catch (RuntimeException e) {
+                r.setCode(400);
+                r.setMessage(e.getMessage());
+            }
+            results.add(r);
+        }
+        BatchConsumeResult result = new BatchConsumeResult();
+        result.setSuccessCount(success);
+        result.setFailCount(results.size() - success);
+        result.setItems(results);
         return result;
     }
 
+    private <T> T awaitLedger(CompletableFuture<T> future) {
+        return awaitLedger(future, ledgerTimeoutMs);
+    }
+
+    private <T> T awaitLedger(CompletableFuture<T> future, long timeoutMs) {
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("记账失败", cause);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("记账超时，请稍后查询余额确认结果");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("记账被中断");
+        }
+    }
+
     @Data
     public static class LossReq {
         private String cardNo;
@@ -271,58 +580,37 @@ public class CardService {
     }
 
     public void reportLoss(String cardNo) {
-        Optional<Card> oc = cardRepository.findByCardNo(cardNo);
-        if (!oc.isPresent()) {
-            throw new IllegalArgumentException("卡片不存在");
-        }
-        Card card = oc.get();
-        if ("CANCELLED".equalsIgnoreCase(card.getStatus())) {
-            throw new IllegalStateException("已注销卡不可挂失");
-        }
-        card.setStatus("LOST");
-        cardRepository.save(card);
+        changeStatus(cardNo, java.util.Arrays.asList("ACTIVE", "FROZEN", "LOST"), "LOST", "已注销卡不可挂失");
     }
 
     // 新增：冻结
     public void freeze(String cardNo) {
-        Optional<Card> oc = cardRepository.findByCardNo(cardNo);
-        if (!oc.isPresent()) {
-            throw new IllegalArgumentException("卡片不存在");
-        }
-        Card card = oc.get();
-        if ("CANCELLED".equalsIgnoreCase(card.getStatus())) {
-            throw new IllegalStateException("已注销卡不可冻结");
-        }
         // LOST 状态也允许冻结，统一置为 FROZEN
-        card.setStatus("FROZEN");
-        cardRepository.save(card);
+        changeStatus(cardNo, java.util.Arrays.asList("ACTIVE", "LOST", "FROZEN"), "FROZEN", "已注销卡不可冻结");
     }
 
     public void unloss(String cardNo) {
-        Optional<Card> oc = cardRepository.findByCardNo(cardNo);
-        if (!oc.isPresent()) {
-            throw new IllegalArgumentException("卡片不存在");
-        }
-        Card card = oc.get();
-        if (!"LOST".equalsIgnoreCase(card.getStatus())) {
-            throw new IllegalStateException("仅挂失状态可解挂");
-        }
-        card.setStatus("ACTIVE");
-        cardRepository.save(card);
+        changeStatus(cardNo, java.util.Collections.singletonList("LOST"), "ACTIVE", "仅挂失状态可解挂");
     }
 
     // 新增：解冻
     public void unfreeze(String cardNo) {
-        Optional<Card> oc = cardRepository.findByCardNo(cardNo);
-        if (!oc.isPresent()) {
-            throw new IllegalArgumentException("卡片不存在");
-        }
-        Card card = oc.get();
-        if (!"FROZEN".equalsIgnoreCase(card.getStatus())) {
-            throw new IllegalStateException("仅冻结状态可解冻");
-        }
-        card.setStatus("ACTIVE");
-        cardRepository.save(card);
+        changeStatus(cardNo, java.util.Collections.singletonList("FROZEN"), "ACTIVE", "仅冻结状态可解冻");
+    }
+
+    // 状态变更走条件 UPDATE 只改 status，不 save 读出的实体，避免用旧余额覆盖记账通道并发写入的余额
+    private void changeStatus(String cardNo, java.util.Collection<String> fromStatuses, String toStatus, String notAllowedMsg) {
+        transactionTemplate.execute(status -> {
+            if (cardRepository.updateStatusIfIn(cardNo, fromStatuses, toStatus) == 0) {
+                if (!cardRepository.findByCardNo(cardNo).isPresent()) {
+                    throw new IllegalArgumentException("卡片不存在");
+                }
+                throw new IllegalStateException(notAllowedMsg);
+            }
+            snapshotService.syncStatus(cardNo, toStatus);
+            return null;
+        });
+        resolveCache.invalidateCard(cardNo);
     }
 
     @Data
@@ -333,29 +621,36 @@ public class CardService {
     }
 
     public void cancel(CancelReq req) {
-        Optional<Card> oc = cardRepository.findByCardNo(req.getCardNo());
-        if (!oc.isPresent()) {
-            throw new IllegalArgumentException("卡片不存在");
-        }
-        Card card = oc.get();
-        if ("CANCELLED".equalsIgnoreCase(card.getStatus())) {
-            return; // 已注销
-        }
-        BigDecimal current = card.getBalance() != null ? card.getBalance() : BigDecimal.ZERO;
-        card.setStatus("CANCELLED");
-        card.setBalance(BigDecimal.ZERO);
-        cardRepository.save(card);
-        if (req.isRefund() && current.compareTo(BigDecimal.ZERO) > 0) {
-            CardTx tx = new CardTx();
-            tx.setCardNo(card.getCardNo());
-            tx.setType("REFUND");
-            tx.setAmount(current);
-            tx.setBalanceAfter(BigDecimal.ZERO);
-            tx.setMerchant("CARD_CENTER");
-            tx.setOccurredAt(LocalDateTime.now());
-            tx.setNote(req.getNote() != null ? req.getNote() : "注销退款");
-            cardTxRepository.save(tx);
-        }
+        transactionTemplate.execute(status -> {
+            Optional<Card> oc = cardRepository.findByCardNo(req.getCardNo());
+            if (!oc.isPresent()) {
+                throw new IllegalArgumentException("卡片不存在");
+            }
+            Card card = oc.get();
+            if ("CANCELLED".equalsIgnoreCase(card.getStatus())) {
+                return null; // 已注销
+            }
+            BigDecimal current = card.getBalance() != null ? card.getBalance() : BigDecimal.ZERO;
+            // 按读取时的版本号注销清零，期间若有消费/充值则拒绝，避免退款金额与实际余额不符
+            if (cardRepository.cancelIfVersion(card.getCardNo(), card.getVersion()) == 0) {
+                throw CardLedgerException.concurrentModification("卡片余额已变动，请重试");
+            }
+            if (req.isRefund() && current.compareTo(BigDecimal.ZERO) > 0) {
+                CardTx tx = new CardTx();
+                tx.setCardNo(card.getCardNo());
+                tx.setType("REFUND");
+                tx.setAmount(current);
+                tx.setBalanceAfter(BigDecimal.ZERO);
+                tx.setMerchant("CARD_CENTER");
+                tx.setOccurredAt(LocalDateTime.now());
+                tx.setNote(req.getNote() != null ? req.getNote() : "注销退款");
+                cardTxRepository.save(tx);
+                snapshotService.recordTxs(java.util.Collections.singletonList(tx));
+            }
+            snapshotService.syncState(card.getCardNo(), "CANCELLED", BigDecimal.ZERO);
+            resolveCache.invalidateCard(card.getCardNo());
+            return null;
+        });
     }
 
     @Data
@@ -400,13 +695,17 @@ public class CardService {
     }
 
     public ReplaceResult replaceCard(ReplaceReq req) {
+        return transactionTemplate.execute(status -> doReplaceCard(req));
+    }
+
+    private ReplaceResult doReplaceCard(ReplaceReq req) {
         Optional<Card> oc = cardRepository.findByCardNo(req.getOldCardNo());
         if (!oc.isPresent()) {
             throw new IllegalArgumentException("原卡不存在");
         }
         Card old = oc.get();
         if (!"ACTIVE".equalsIgnoreCase(old.getStatus()) && !"LOST".equalsIgnoreCase(old.getStatus())) {
-            throw new IllegalStateException("当前卡片状态不支持换/补卡");
+            throw CardLedgerException.statusNotAllowed("当前卡片状态不支持换/补卡");
         }
         Card newCard = new Card();
         newCard.setCardNo(generateCardNo());
@@ -424,13 +723,16 @@ public class CardService {
         }
         BigDecimal newBalance = carry.subtract(fee);
         if (newBalance.compareTo(BigDecimal.ZERO) < 0) {
-            throw new IllegalStateException("余额不足以扣除工本费");
+            throw CardLedgerException.insufficientBalance("余额不足以扣除工本费");
+        }
+        // 先按版本号注销原卡，确保结转金额就是注销瞬间的余额
+        if (cardRepository.cancelIfVersion(old.getCardNo(), old.getVersion()) == 0) {
+            throw CardLedgerException.concurrentModification("原卡余额已变动，请重试");
         }
+        snapshotService.syncState(old.getCardNo(), "CANCELLED", BigDecimal.ZERO);
+        resolveCache.invalidateCard(old.getCardNo());
         newCard.setBalance(newBalance);
         Card savedNew = cardRepository.save(newCard);
-        old.setStatus("CANCELLED");
-        old.setBalance(BigDecimal.ZERO);
-        cardRepository.save(old);
         if (fee.compareTo(BigDecimal.ZERO) > 0) {
             CardTx feeTx = new CardTx();
             feeTx.setCardNo(savedNew.getCardNo());
@@ -441,7 +743,10 @@ public class CardService {
             feeTx.setOccurredAt(LocalDateTime.now());
             feeTx.setNote(req.getNote() != null ? req.getNote() : "换/补卡工本费");
             cardTxRepository.save(feeTx);
+            rollupService.recordTxs(java.util.Collections.singletonList(feeTx));
         }
+        snapshotService.onCardCreated(savedNew);
+        resolveCache.invalidateCard(savedNew.getCardNo());
         ReplaceResult result = new ReplaceResult();
         result.setSuccess(true);
         result.setNewCardNo(savedNew.getCardNo());
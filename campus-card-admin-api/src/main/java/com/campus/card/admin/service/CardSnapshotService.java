@@ -0,0 +1,161 @@
+package com.campus.card.admin.service;
+
+import com.campus.card.admin.domain.Card;
+import com.campus.card.admin.domain.CardBalanceSnapshot;
+import com.campus.card.admin.domain.CardTx;
+import com.campus.card.admin.domain.CardType;
+import com.campus.card.admin.repository.CardBalanceSnapshotRepository;
+import com.campus.card.admin.repository.CardRepository;
+import com.campus.card.admin.repository.CardTxRepository;
+import com.campus.card.admin.repository.CardTypeRepository;
+import com.campus.card.admin.repository.StudentRepository;
+import com.campus.card.admin.repository.TeacherRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 维护 card_balance_snapshot 并提供带近端缓存的余额查询。
+ * 写入方法须在写 CardTx / 卡状态的同一事务内调用；缓存在变更时立即失效，并在事务提交后再失效一次，
+ * 防止提交前被并发读回填旧值。多节点部署时其他节点的缓存依靠 TTL 收敛。
+ */
+@Service
+public class CardSnapshotService {
+    private final CardBalanceSnapshotRepository snapshotRepository;
+    private final CardRepository cardRepository;
+    private final CardTxRepository cardTxRepository;
+    private final CardTypeRepository cardTypeRepository;
+    private final StudentRepository studentRepository;
+    private final TeacherRepository teacherRepository;
+    private final Cache<String, CardBalanceSnapshot> cache;
+
+    public CardSnapshotService(CardBalanceSnapshotRepository snapshotRepository, CardRepository cardRepository,
+                               CardTxRepository cardTxRepository, CardTypeRepository cardTypeRepository,
+                               StudentRepository studentRepository, TeacherRepository teacherRepository,
+                               @Value("${card.snapshot.cache-size:100000}") long cacheSize,
+                               @Value("${card.snapshot.cache-ttl-seconds:30}") long cacheTtlSeconds) {
+        this.snapshotRepository = snapshotRepository;
+        this.cardRepository = cardRepository;
+        this.cardTxRepository = cardTxRepository;
+        this.cardTypeRepository = cardTypeRepository;
+        this.studentRepository = studentRepository;
+        this.teacherRepository = teacherRepository;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTtlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /** 查询快照：近端缓存 -> 主键读取 -> 缺失时按卡片重建；卡不存在返回 null */
+    public CardBalanceSnapshot get(String cardNo) {
+        if (cardNo == null || cardNo.isEmpty()) return null;
+        return cache.get(cardNo, this::load);
+    }
+
+    private CardBalanceSnapshot load(String cardNo) {
+        CardBalanceSnapshot s = snapshotRepository.findById(cardNo).orElse(null);
+        if (s != null) return s;
+        Card card = cardRepository.findByCardNo(cardNo).orElse(null);
+        if (card == null) return null;
+        try {
+            return rebuild(card);
+        } catch (org.springframework.dao.DataIntegrityViolationException e) {
+            // 并发写流水时已由写入方建好快照
+            return snapshotRepository.findById(cardNo).orElse(null);
+        }
+    }
+
+    /** 新开卡：生成快照（持卡人姓名、卡种名称只在此时及重建时查询） */
+    public void onCardCreated(Card card) {
+        rebuild(card);
+        invalidate(card.getCardNo());
+    }
+
+    /** 记录一组新写入的流水，同卡合并为一次更新 */
+    public void recordTxs(Collection<CardTx> txs) {
+        if (txs == null || txs.isEmpty()) return;
+        Map<String, TxDelta> deltas = new LinkedHashMap<>();
+        for (CardTx tx : txs) {
+            TxDelta d = deltas.computeIfAbsent(tx.getCardNo(), k -> new TxDelta());
+            d.balance = tx.getBalanceAfter();
+            d.count++;
+            if (d.lastTxAt == null || (tx.getOccurredAt() != null && tx.getOccurredAt().isAfter(d.lastTxAt))) {
+                d.lastTxAt = tx.getOccurredAt();
+            }
+        }
+        LocalDateTime now = LocalDateTime.now();
+        for (Map.Entry<String, TxDelta> e : deltas.entrySet()) {
+            TxDelta d = e.getValue();
+            if (snapshotRepository.applyTx(e.getKey(), d.balance, d.count, d.lastTxAt, now) == 0) {
+                // 尚无快照（历史卡片），按当前库内数据完整重建，已包含本事务写入的流水
+                cardRepository.findByCardNo(e.getKey()).ifPresent(this::rebuild);
+            }
+            invalidate(e.getKey());
+        }
+    }
+
+    /** 卡片状态变化（挂失、冻结等），余额不变，不回写可能已过期的余额 */
+    public void syncStatus(String cardNo, String status) {
+        snapshotRepository.updateStatus(cardNo, status, LocalDateTime.now());
+        invalidate(cardNo);
+    }
+
+    /** 卡片状态与余额在无流水情况下一并变化（注销清零），须与按版本号的卡片更新在同一事务内 */
+    public void syncState(String cardNo, String status, BigDecimal balance) {
+        snapshotRepository.updateState(cardNo, status, balance, LocalDateTime.now());
+        invalidate(cardNo);
+    }
+
+    private CardBalanceSnapshot rebuild(Card card) {
+        CardBalanceSnapshot s = new CardBalanceSnapshot();
+        s.setCardNo(card.getCardNo());
+        s.setBalance(card.getBalance() != null ? card.getBalance() : BigDecimal.ZERO);
+        s.setStatus(card.getStatus());
+        s.setHolderType(card.getHolderType());
+        s.setHolderId(card.getHolderId());
+        String holderName = null;
+        if ("STUDENT".equalsIgnoreCase(card.getHolderType())) {
+            holderName = studentRepository.findByStudentNo(card.getHolderId()).map(st -> st.getName()).orElse(null);
+        } else if ("TEACHER".equalsIgnoreCase(card.getHolderType())) {
+            holderName = teacherRepository.findByTeacherNo(card.getHolderId()).map(t -> t.getName()).orElse(null);
+        }
+        s.setHolderName(holderName);
+        s.setCardTypeName(card.getTypeId() != null ? cardTypeRepository.findById(card.getTypeId()).map(CardType::getName).orElse(null) : null);
+        List<Object[]> summary = cardTxRepository.summarizeByCardNo(card.getCardNo());
+        Object[] row = summary.isEmpty() ? null : summary.get(0);
+        s.setTxCount(row != null && row[0] != null ? ((Number) row[0]).longValue() : 0L);
+        s.setLastTxAt(row != null ? (LocalDateTime) row[1] : null);
+        s.setCreatedAt(card.getCreatedAt());
+        s.setUpdatedAt(LocalDateTime.now());
+        return snapshotRepository.save(s);
+    }
+
+    private void invalidate(String cardNo) {
+        cache.invalidate(cardNo);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache.invalidate(cardNo);
+                }
+            });
+        }
+    }
+
+    private static final class TxDelta {
+        private BigDecimal balance;
+        private long count;
+        private LocalDateTime lastTxAt;
+    }
+}
@@ -19,11 +19,14 @@ public class ClazzService {
     private final ClazzRepository repository;
     private final StudentRepository studentRepository;
     private final TeacherRepository teacherRepository;
+    private final AttendanceResolveCache resolveCache;
 
-    public ClazzService(ClazzRepository repository, StudentRepository studentRepository, TeacherRepository teacherRepository) {
+    public ClazzService(ClazzRepository repository, StudentRepository studentRepository, TeacherRepository teacherRepository,
+                        AttendanceResolveCache resolveCache) {
         this.repository = repository;
         this.studentRepository = studentRepository;
         this.teacherRepository = teacherRepository;
+        this.resolveCache = resolveCache;
     }
 
     public PageResult<Clazz> pageList(int page, int size, String name, Long gradeId, Long schoolId) {
@@ -142,6 +145,7 @@ public class ClazzService {
                 for (StudentInfo s : list) {
                     s.setClassId(targetClassId);
                     studentRepository.save(s);
+                    resolveCache.invalidateStudent(s.getStudentNo());
                     moved++;
                 }
             }
@@ -184,6 +188,7 @@ public class ClazzService {
             if (sourceClassId.equals(s.getClassId())) {
                 s.setClassId(newClass.getId());
                 studentRepository.save(s);
+                resolveCache.invalidateStudent(s.getStudentNo());
                 moved++;
             }
         }
@@ -0,0 +1,182 @@
+package com.campus.card.admin.service;
+
+import com.campus.card.admin.domain.AttendanceRecord;
+import com.campus.card.admin.domain.AttendanceRule;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.BitSet;
+import java.util.Set;
+
+/**
+ * 编译后的考勤规则快照（不可变，可在线程间共享）：
+ * 工作日掩码、节假日/调休展开成的按日位图、迟到/早退阈值都在构建时一次算好，
+ * 逐条判定只做位运算和时间比较，不再读取设置或解析字符串。
+ */
+public final class CompiledAttendanceRule {
+    // 节假日/调休可展开的最大天数，超出的配置视为无效
+    private static final int MAX_CALENDAR_DAYS = 36600;
+
+    private final long version;
+    private final boolean enabled;
+    private final boolean[] workDays = new boolean[8]; // 下标为 DayOfWeek.getValue()
+    private final long calendarStart; // 位图起始日（epochDay）
+    private final int calendarDays;
+    private final BitSet overridden; // 该日有节假日/调休配置
+    private final BitSet working;    // 覆盖后的该日是否上班
+    private final long lateAfterNanos;   // 到校晚于该时刻为迟到，-1 表示不判定
+    private final long earlyBeforeNanos; // 离校早于该时刻为早退，-1 表示不判定
+
+    private CompiledAttendanceRule(long version, boolean enabled, long calendarStart, int calendarDays,
+                                   BitSet overridden, BitSet working, long lateAfterNanos, long earlyBeforeNanos) {
+        this.version = version;
+        this.enabled = enabled;
+        this.calendarStart = calendarStart;
+        this.calendarDays = calendarDays;
+        this.overridden = overridden;
+        this.working = working;
+        this.lateAfterNanos = lateAfterNanos;
+        this.earlyBeforeNanos = earlyBeforeNanos;
+    }
+
+    public static CompiledAttendanceRule compile(AttendanceRule rule, AttendanceService.AttendanceSettings settings,
+                                                 Set<DayOfWeek> workDays, long version) {
+        // 节假日与调休的日期范围
+        LocalDate min = null;
+        LocalDate max = null;
+        if (settings != null && settings.getHolidays() != null) {
+            for (AttendanceService.Holiday h : settings.getHolidays()) {
+                LocalDate s = parseDate(h.getStartDate());
+                LocalDate e = parseDate(h.getEndDate());
+                if (s == null || e == null || e.isBefore(s)) continue;
+                if (min == null || s.isBefore(min)) min = s;
+                if (max == null || e.isAfter(max)) max = e;
+            }
+        }
+        if (settings != null && settings.getAdjustments() != null) {
+            for (AttendanceService.Adjustment a : settings.getAdjustments()) {
+                LocalDate d = parseDate(a.getDate());
+                if (d == null) continue;
+                if (min == null || d.isBefore(min)) min = d;
+                if (max == null || d.isAfter(max)) max = d;
+            }
+        }
+        long start = min != null ? min.toEpochDay() : 0L;
+        int days = min != null ? (int) Math.min(MAX_CALENDAR_DAYS, max.toEpochDay() - start + 1) : 0;
+        BitSet overridden = new BitSet(days);
+        BitSet working = new BitSet(days);
+        if (days > 0) {
+            // 先按节假日置为休息，再按调休逐条覆盖（与原判定顺序一致，后出现的调休优先）
+            for (AttendanceService.Holiday h : settings.getHolidays() != null ? settings.getHolidays()
+                    : java.util.Collections.<AttendanceService.Holiday>emptyList()) {
+                LocalDate s = parseDate(h.getStartDate());
+                LocalDate e = parseDate(h.getEndDate());
+                if (s == null || e == null || e.isBefore(s)) continue;
+                int from = (int) Math.max(0, s.toEpochDay() - start);
+                int to = (int) Math.min(days, e.toEpochDay() - start + 1);
+                if (from < to) {
+                    overridden.set(from, to);
+                    working.clear(from, to);
+                }
+            }
+            for (AttendanceService.Adjustment a : settings.getAdjustments() != null ? settings.getAdjustments()
+                    : java.util.Collections.<AttendanceService.Adjustment>emptyList()) {
+                LocalDate d = parseDate(a.getDate());
+                if (d == null) continue;
+                long idx = d.toEpochDay() - start;
+                if (idx < 0 || idx >= days) continue;
+                boolean work = "WORK".equalsIgnoreCase(a.getType());
+                boolean off = "OFF".equalsIgnoreCase(a.getType());
+                if (!work && !off) continue;
+                overridden.set((int) idx);
+                working.set((int) idx, work);
+            }
+        }
+
+        // 参考时间：优先使用时段配置中最早开始/最晚结束，否则用规则上下学时间
+        LocalTime startRef = rule.getWorkStart();
+        LocalTime endRef = rule.getWorkEnd();
+        if (settings != null && settings.getPeriods() != null) {
+            LocalTime minStart = null;
+            LocalTime maxEnd = null;
+            for (AttendanceService.TimePeriod p : settings.getPeriods()) {
+                LocalTime ps = parseTime(p.getStart());
+                LocalTime pe = parseTime(p.getEnd());
+                if (ps != null && (minStart == null || ps.isBefore(minStart))) minStart = ps;
+                if (pe != null && (maxEnd == null || pe.isAfter(maxEnd))) maxEnd = pe;
+            }
+            if (minStart != null) startRef = minStart;
+            if (maxEnd != null) endRef = maxEnd;
+        }
+        int lateGrace = rule.getLateGraceMin() != null ? rule.getLateGraceMin() : 0;
+        int earlyGrace = rule.getEarlyGraceMin() != null ? rule.getEarlyGraceMin() : 0;
+        long lateAfter = startRef != null ? startRef.plusMinutes(lateGrace).toNanoOfDay() : -1L;
+        long earlyBefore = endRef != null ? endRef.minusMinutes(earlyGrace).toNanoOfDay() : -1L;
+
+        CompiledAttendanceRule compiled = new CompiledAttendanceRule(version, rule.getEnabled() == null || rule.getEnabled(),
+                start, days, overridden, working, lateAfter, earlyBefore);
+        for (DayOfWeek d : workDays) {
+            compiled.workDays[d.getValue()] = true;
+        }
+        return compiled;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** 该日是否为工作日（节假日/调休优先于星期规则） */
+    public boolean isWorkingDay(LocalDate date) {
+        long idx = date.toEpochDay() - calendarStart;
+        if (idx >= 0 && idx < calendarDays && overridden.get((int) idx)) {
+            return working.get((int) idx);
+        }
+        return workDays[date.getDayOfWeek().getValue()];
+    }
+
+    /** 根据规则判定记录状态（迟到/早退/正常），非工作日不判定，缺勤沿用原状态 */
+    public String classify(AttendanceRecord r) {
+        LocalDateTime at = r.getAttendanceTime();
+        if (at == null) return "normal";
+        if (!isWorkingDay(at.toLocalDate())) return "normal";
+        if ("absence".equalsIgnoreCase(String.valueOf(r.getStatus()))) return "absence";
+        long t = at.toLocalTime().toNanoOfDay();
+        if ("in".equalsIgnoreCase(String.valueOf(r.getAttendanceType()))) {
+            return lateAfterNanos >= 0 && t > lateAfterNanos ? "late" : "normal";
+        } else if ("out".equalsIgnoreCase(String.valueOf(r.getAttendanceType()))) {
+            return earlyBeforeNanos >= 0 && t < earlyBeforeNanos ? "early" : "normal";
+        }
+        return "normal";
+    }
+
+    /** 记录应有的状态：规则启用时按规则判定；停用时回到原始状态，缺勤保持缺勤，其余（含旧的迟到/早退）一律为正常 */
+    public String statusOf(AttendanceRecord r) {
+        if (enabled) return classify(r);
+        return "absence".equalsIgnoreCase(String.valueOf(r.getStatus())) ? "absence" : "normal";
+    }
+
+    // 无法解析的日期/时间配置忽略，不再让单条错误配置导致整个统计失败
+    private static LocalDate parseDate(String s) {
+        if (s == null || s.trim().isEmpty()) return null;
+        try {
+            return LocalDate.parse(s.trim());
+        } catch (java.time.format.DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static LocalTime parseTime(String s) {
+        if (s == null || s.trim().isEmpty()) return null;
+        try {
+            return LocalTime.parse(s.trim());
+        } catch (java.time.format.DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.campus.card.admin.service;
+
+import com.campus.card.admin.domain.Card;
+import com.campus.card.admin.domain.CardTx;
+import com.campus.card.admin.domain.Clazz;
+import com.campus.card.admin.domain.StudentInfo;
+import com.campus.card.admin.repository.CardRepository;
+import com.campus.card.admin.repository.ClazzRepository;
+import com.campus.card.admin.repository.ConsumeRollupWriter;
+import com.campus.card.admin.repository.StudentRepository;
+import com.campus.card.common.money.Cents;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 维护按小时/按日的消费汇总表（consume_rollup_hourly / consume_rollup_daily）。
+ * 写入 CONSUME 流水的同一事务内调用 recordTxs 增量累加；rebuild 按日从 card_tx 重算，用于历史回填与对账。
+ */
+@Service
+public class ConsumeRollupService {
+    private final ConsumeRollupWriter rollupWriter;
+    private final CardRepository cardRepository;
+    private final StudentRepository studentRepository;
+    private final ClazzRepository clazzRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${report.rollup.reconcile-enabled:true}")
+    private boolean reconcileEnabled;
+
+    public ConsumeRollupService(ConsumeRollupWriter rollupWriter, CardRepository cardRepository,
+                                StudentRepository studentRepository, ClazzRepository clazzRepository,
+                                PlatformTransactionManager transactionManager) {
+        this.rollupWriter = rollupWriter;
+        this.cardRepository = cardRepository;
+        this.studentRepository = studentRepository;
+        this.clazzRepository = clazzRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /** 累加一批新写入的流水（非 CONSUME 类型忽略） */
+    public void recordTxs(Collection<CardTx> txs) {
+        if (txs == null || txs.isEmpty()) return;
+        List<CardTx> consumes = new ArrayList<>(txs.size());
+        Set<String> cardNos = new HashSet<>();
+        for (CardTx tx : txs) {
+            if (!"CONSUME".equalsIgnoreCase(tx.getType()) || tx.getAmount() == null || tx.getOccurredAt() == null) continue;
+            consumes.add(tx);
+            cardNos.add(tx.getCardNo());
+        }
+        if (consumes.isEmpty()) return;
+        Map<String, Holder> holders = resolveHolders(cardNos);
+        Map<String, ConsumeRollupWriter.Delta> hourly = new LinkedHashMap<>();
+        Map<String, ConsumeRollupWriter.Delta> daily = new LinkedHashMap<>();
+        for (CardTx tx : consumes) {
+            long cents = Cents.abs(tx.getAmount());
+            String merchant = tx.getMerchant() != null ? tx.getMerchant() : "";
+            Holder h = holders.getOrDefault(tx.getCardNo(), Holder.NONE);
+            LocalDateTime hour = tx.getOccurredAt().truncatedTo(ChronoUnit.HOURS);
+            LocalDateTime day = tx.getOccurredAt().toLocalDate().atStartOfDay();
+            hourly.computeIfAbsent(hour + "|" + tx.getCardNo() + "|" + merchant,
+                    k -> new ConsumeRollupWriter.Delta(hour, tx.getCardNo(), merchant, h.studentId, h.classId, h.schoolId)).add(cents);
+            daily.computeIfAbsent(day + "|" + tx.getCardNo() + "|" + merchant,
+                    k -> new ConsumeRollupWriter.Delta(day, tx.getCardNo(), merchant, h.studentId, h.classId, h.schoolId)).add(cents);
+        }
+        rollupWriter.upsert(ConsumeRollupWriter.HOURLY, hourly.values());
+        rollupWriter.upsert(ConsumeRollupWriter.DAILY, daily.values());
+    }
+
+    /** 按日重建 [startDate, endDate] 的汇总，每天一个事务，返回写入的日汇总行数 */
+    public int rebuild(LocalDate startDate, LocalDate endDate) {
+        if (startDate == null || endDate == null || endDate.isBefore(startDate)) {
+            throw new IllegalArgumentException("日期范围无效");
+        }
+        int rows = 0;
+        for (LocalDate d = startDate; !d.isAfter(endDate); d = d.plusDays(1)) {
+            LocalDateTime from = d.atStartOfDay();
+            LocalDateTime to = d.plusDays(1).atStartOfDay();
+            Integer n = transactionTemplate.execute(status -> {
+                rollupWriter.rebuild(ConsumeRollupWriter.HOURLY, from, to);
+                return rollupWriter.rebuild(ConsumeRollupWriter.DAILY, from, to);
+            });
+            rows += n != null ? n : 0;
+        }
+        return rows;
+    }
+
+    // 每日凌晨对前一天做一次全量重算，修正异常中断或手工改数造成的偏差
+    @Scheduled(cron = "${report.rollup.reconcile-cron:0 30 2 * * *}")
+    public void reconcileYesterday() {
+        if (!reconcileEnabled) return;
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        try {
+            rebuild(yesterday, yesterday);
+        } catch (Exception e) {
+            org.slf4j.LoggerFactory.getLogger(ConsumeRollupService.class).warn("Consume rollup reconcile failed for {}", yesterday, e);
+        }
+    }
+
+    private Map<String, Holder> resolveHolders(Set<String> cardNos) {
+        Map<String, String> studentNoByCard = new HashMap<>();
+        for (Card c : cardRepository.findByCardNoIn(cardNos)) {
+            if ("STUDENT".equalsIgnoreCase(c.getHolderType()) && c.getHolderId() != null) {
+                studentNoByCard.put(c.getCardNo(), c.getHolderId());
+            }
+        }
+        Map<String, Holder> result = new HashMap<>();
+        if (studentNoByCard.isEmpty()) return result;
+        Map<String, StudentInfo> students = new HashMap<>();
+        Set<Long> classIds = new HashSet<>();
+        for (StudentInfo s : studentRepository.findByStudentNoIn(new HashSet<>(studentNoByCard.values()))) {
+            students.put(s.getStudentNo(), s);
+            if (s.getClassId() != null) classIds.add(s.getClassId());
+        }
+        Map<Long, Long> schoolByClass = new HashMap<>();
+        if (!classIds.isEmpty()) {
+            for (Clazz c : clazzRepository.findAllById(classIds)) {
+                schoolByClass.put(c.getId(), c.getSchoolId());
+            }
+        }
+        for (Map.Entry<String, String> e : studentNoByCard.entrySet()) {
+            StudentInfo s = students.get(e.getValue());
+            if (s == null) continue;
+            result.put(e.getKey(), new Holder(s.getId(), s.getClassId(), s.getClassId() != null ? schoolByClass.get(s.getClassId()) : null));
+        }
+        return result;
+    }
+
+    private static final class Holder {
+        static final Holder NONE = new Holder(null, null, null);
+        private final Long studentId;
+        private final Long classId;
+        private final Long schoolId;
+
+        Holder(Long studentId, Long classId, Long schoolId) {
+            this.studentId = studentId;
+            this.classId = classId;
+            this.schoolId = schoolId;
+        }
+    }
+}
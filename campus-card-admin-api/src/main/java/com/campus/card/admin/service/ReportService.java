@@ -3,12 +3,22 @@ package com.campus.card.admin.service;
 import com.campus.card.admin.domain.Card;
 import com.campus.card.admin.domain.CardTx;
 import com.campus.card.admin.domain.Clazz;
+import com.campus.card.admin.domain.School;
 import com.campus.card.admin.domain.StudentInfo;
 import com.campus.card.admin.repository.CardRepository;
 import com.campus.card.admin.repository.CardTxRepository;
 import com.campus.card.admin.repository.ClazzRepository;
+import com.campus.card.admin.repository.ConsumeDailyRollupRepository;
+import com.campus.card.admin.repository.ConsumeHourlyRollupRepository;
+import com.campus.card.admin.repository.ConsumeRollupTotals;
+import com.campus.card.admin.repository.SchoolRepository;
 import com.campus.card.admin.repository.StudentRepository;
+import com.campus.card.admin.report.RankingAccumulator;
+import com.campus.card.admin.report.TopK;
+import com.campus.card.common.money.Cents;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
@@ -16,56 +26,90 @@ import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class ReportService {
+    // 排行榜单次返回的最大名次数，防止超大 limit 按分区分配巨大的堆
+    private static final int MAX_RANKING_LIMIT = 1000;
+
     private final CardRepository cardRepository;
     private final CardTxRepository cardTxRepository;
     private final StudentRepository studentRepository;
     private final ClazzRepository clazzRepository;
+    private final SchoolRepository schoolRepository;
+    private final ConsumeDailyRollupRepository dailyRollupRepository;
+    private final ConsumeHourlyRollupRepository hourlyRollupRepository;
 
     public ReportService(CardRepository cardRepository,
                          CardTxRepository cardTxRepository,
                          StudentRepository studentRepository,
-                         ClazzRepository clazzRepository) {
+                         ClazzRepository clazzRepository,
+                         SchoolRepository schoolRepository,
+                         ConsumeDailyRollupRepository dailyRollupRepository,
+                         ConsumeHourlyRollupRepository hourlyRollupRepository) {
         this.cardRepository = cardRepository;
         this.cardTxRepository = cardTxRepository;
         this.studentRepository = studentRepository;
         this.clazzRepository = clazzRepository;
+        this.schoolRepository = schoolRepository;
+        this.dailyRollupRepository = dailyRollupRepository;
+        this.hourlyRollupRepository = hourlyRollupRepository;
     }
 
+    // 日/月/趋势/排行均读取消费汇总表（金额以分存储），不再扫描原始流水
     public StatsResp dailyConsume(LocalDate date) {
+        LocalDateTime day = date.atStartOfDay();
+        long cents = 0;
+        long count = 0;
+        for (ConsumeRollupTotals.BucketTotal t : dailyRollupRepository.sumByDay(day, day)) {
+            cents += t.getAmountCents();
+            count += t.getTxCount();
+        }
+        StatsResp resp = new StatsResp();
+        resp.setTotalAmount(Cents.toYuan(cents));
+        resp.setTxCount((int) count);
+        return resp;
+    }
+
+    public List<HourStat> hourlyConsume(LocalDate date) {
         LocalDateTime start = date.atStartOfDay();
-        LocalDateTime end = date.atTime(LocalTime.MAX);
-        List<CardTx> txs = cardTxRepository.findByTypeAndOccurredAtBetweenOrderByOccurredAtAsc("CONSUME", start, end);
-        return aggregateStats(txs);
+        LocalDateTime end = start.plusHours(23);
+        Map<Integer, ConsumeRollupTotals.BucketTotal> byHour = new HashMap<>();
+        for (ConsumeRollupTotals.BucketTotal t : hourlyRollupRepository.sumByHour(start, end)) {
+            byHour.put(t.getBucket().getHour(), t);
+        }
+        List<HourStat> series = new ArrayList<>(24);
+        for (int h = 0; h < 24; h++) {
+            ConsumeRollupTotals.BucketTotal t = byHour.get(h);
+            series.add(t != null ? new HourStat(h, Cents.toYuan(t.getAmountCents()), t.getTxCount().intValue())
+                    : new HourStat(h, Cents.toYuan(0), 0));
+        }
+        return series;
     }
 
     public MonthlyResp monthlyConsume(int year, int month) {
         LocalDate startDate = LocalDate.of(year, month, 1);
         LocalDate endDate = startDate.withDayOfMonth(startDate.lengthOfMonth());
-        LocalDateTime start = startDate.atStartOfDay();
-        LocalDateTime end = endDate.atTime(LocalTime.MAX);
-        List<CardTx> txs = cardTxRepository.findByTypeAndOccurredAtBetweenOrderByOccurredAtAsc("CONSUME", start, end);
-        Map<Integer, List<CardTx>> byDay = new HashMap<>();
-        for (CardTx tx : txs) {
-            int d = tx.getOccurredAt().getDayOfMonth();
-            byDay.computeIfAbsent(d, k -> new ArrayList<>()).add(tx);
+        Map<Integer, ConsumeRollupTotals.BucketTotal> byDay = new HashMap<>();
+        for (ConsumeRollupTotals.BucketTotal t : dailyRollupRepository.sumByDay(startDate.atStartOfDay(), endDate.atStartOfDay())) {
+            byDay.put(t.getBucket().getDayOfMonth(), t);
         }
         List<DayStat> series = new ArrayList<>();
-        BigDecimal total = BigDecimal.ZERO;
+        long totalCents = 0;
         int count = 0;
         for (int d = 1; d <= startDate.lengthOfMonth(); d++) {
-            List<CardTx> list = byDay.getOrDefault(d, Collections.emptyList());
-            StatsResp s = aggregateStats(list);
-            series.add(new DayStat(d, s.getTotalAmount(), s.getTxCount()));
-            total = total.add(s.getTotalAmount());
-            count += s.getTxCount();
+            ConsumeRollupTotals.BucketTotal t = byDay.get(d);
+            long cents = t != null ? t.getAmountCents() : 0L;
+            int n = t != null ? t.getTxCount().intValue() : 0;
+            series.add(new DayStat(d, Cents.toYuan(cents), n));
+            totalCents += cents;
+            count += n;
         }
         MonthlyResp resp = new MonthlyResp();
         resp.setYear(year);
         resp.setMonth(month);
-        resp.setTotalAmount(total);
+        resp.setTotalAmount(Cents.toYuan(totalCents));
         resp.setTxCount(count);
         resp.setSeries(series);
         return resp;
@@ -75,30 +119,22 @@ public class ReportService {
         if (classId == null) throw new IllegalArgumentException("classId 必填");
         Clazz clazz = clazzRepository.findById(classId).orElse(null);
         List<StudentInfo> students = studentRepository.findByClassId(classId);
-        Set<String> studentNos = students.stream().map(StudentInfo::getStudentNo).filter(Objects::nonNull).collect(Collectors.toSet());
         LocalDateTime start = startDate != null ? startDate.atStartOfDay() : LocalDate.now().minusDays(30).atStartOfDay();
         LocalDateTime end = endDate != null ? endDate.atTime(LocalTime.MAX) : LocalDateTime.now();
-        BigDecimal total = BigDecimal.ZERO;
+        Map<Long, CardTxRepository.StudentConsumeRow> sums = new HashMap<>();
+        for (CardTxRepository.StudentConsumeRow row : cardTxRepository.sumConsumeByStudentOfClass(classId, start, end)) {
+            sums.put(row.getStudentId(), row);
+        }
+        long totalCents = 0;
         int count = 0;
         List<StudentStat> breakdown = new ArrayList<>();
         for (StudentInfo s : students) {
-            String sno = s.getStudentNo();
-            if (sno == null) continue;
-            List<Card> cards = cardRepository.findByHolderTypeAndHolderId("STUDENT", sno);
-            BigDecimal personTotal = BigDecimal.ZERO;
-            int personCount = 0;
-            for (Card card : cards) {
-                List<CardTx> txs = cardTxRepository.findByCardNoAndOccurredAtBetweenOrderByOccurredAtDesc(card.getCardNo(), start, end);
-                for (CardTx tx : txs) {
-                    if (!"CONSUME".equalsIgnoreCase(tx.getType())) continue;
-                    personTotal = personTotal.add(tx.getAmount().abs());
-                    personCount++;
-                }
-            }
-            if (personCount > 0) {
-                breakdown.add(new StudentStat(s.getId(), s.getName(), s.getStudentNo(), personTotal, personCount));
-            }
-            total = total.add(personTotal);
+            CardTxRepository.StudentConsumeRow row = sums.get(s.getId());
+            if (row == null || s.getStudentNo() == null) continue;
+            int personCount = row.getTxCount().intValue();
+            long personCents = Cents.of(row.getTotalAmount());
+            breakdown.add(new StudentStat(s.getId(), s.getName(), s.getStudentNo(), Cents.toYuan(personCents), personCount));
+            totalCents += personCents;
             count += personCount;
         }
         breakdown.sort((a, b) -> b.getTotalAmount().compareTo(a.getTotalAmount()));
@@ -106,7 +142,7 @@ public class ReportService {
         resp.setClassId(classId);
         resp.setClassName(clazz != null ? clazz.getName() : null);
         resp.setStudentCount(students.size());
-        resp.setTotalAmount(total);
+        resp.setTotalAmount(Cents.toYuan(totalCents));
         resp.setTxCount(count);
         resp.setBreakdown(breakdown);
         return resp;
@@ -125,92 +161,120 @@ public class ReportService {
         LocalDateTime start = startDate != null ? startDate.atStartOfDay() : LocalDate.now().minusDays(30).atStartOfDay();
         LocalDateTime end = endDate != null ? endDate.atTime(LocalTime.MAX) : LocalDateTime.now();
         List<Card> cards = cardRepository.findByHolderTypeAndHolderId("STUDENT", sno);
-        Map<LocalDate, List<CardTx>> daily = new TreeMap<>();
-        BigDecimal total = BigDecimal.ZERO;
-        int count = 0;
-        for (Card card : cards) {
-            List<CardTx> txs = cardTxRepository.findByCardNoAndOccurredAtBetweenOrderByOccurredAtDesc(card.getCardNo(), start, end);
-            for (CardTx tx : txs) {
-                if (!"CONSUME".equalsIgnoreCase(tx.getType())) continue;
-                total = total.add(tx.getAmount().abs());
-                count++;
-                LocalDate d = tx.getOccurredAt().toLocalDate();
-                daily.computeIfAbsent(d, k -> new ArrayList<>()).add(tx);
-            }
+        Map<LocalDate, Cents.Sum> daily = new TreeMap<>();
+        Cents.Sum total = new Cents.Sum();
+        Set<String> cardNos = cards.stream().map(Card::getCardNo).collect(Collectors.toSet());
+        List<CardTx> txs = cardNos.isEmpty() ? Collections.emptyList()
+                : cardTxRepository.findByCardNoInAndTypeAndOccurredAtBetween(cardNos, "CONSUME", start, end);
+        for (CardTx tx : txs) {
+            long cents = Cents.abs(tx.getAmount());
+            total.add(cents);
+            daily.computeIfAbsent(tx.getOccurredAt().toLocalDate(), k -> new Cents.Sum()).add(cents);
+        }
+        List<DayStat> series = new ArrayList<>(daily.size());
+        for (Map.Entry<LocalDate, Cents.Sum> e : daily.entrySet()) {
+            series.add(new DayStat(e.getKey().getDayOfMonth(), e.getValue().toYuan(), e.getValue().getCount()));
         }
-        List<DayStat> series = daily.entrySet().stream()
-                .map(e -> {
-                    StatsResp s1 = aggregateStats(e.getValue());
-                    return new DayStat(e.getKey().getDayOfMonth(), s1.getTotalAmount(), s1.getTxCount());
-                })
-                .collect(Collectors.toList());
         PersonalResp resp = new PersonalResp();
         resp.setStudentId(s.getId());
         resp.setStudentNo(s.getStudentNo());
         resp.setStudentName(s.getName());
-        resp.setTotalAmount(total);
-        resp.setTxCount(count);
+        resp.setTotalAmount(total.toYuan());
+        resp.setTxCount(total.getCount());
         resp.setSeries(series);
         return resp;
     }
 
     public List<RankingItem> ranking(LocalDate startDate, LocalDate endDate, int limit) {
         LocalDateTime start = startDate != null ? startDate.atStartOfDay() : LocalDate.now().minusDays(30).atStartOfDay();
-        LocalDateTime end = endDate != null ? endDate.atTime(LocalTime.MAX) : LocalDateTime.now();
-        List<CardTx> txs = cardTxRepository.findByTypeAndOccurredAtBetweenOrderByOccurredAtAsc("CONSUME", start, end);
-        Map<String, BigDecimal> byCard = new HashMap<>();
-        for (CardTx tx : txs) {
-            byCard.merge(tx.getCardNo(), tx.getAmount().abs(), BigDecimal::add);
+        LocalDateTime end = endDate != null ? endDate.atStartOfDay() : LocalDate.now().atStartOfDay();
+        List<ConsumeRollupTotals.StudentTotal> totals = dailyRollupRepository.sumByStudent(start, end,
+                PageRequest.of(0, rankingLimit(limit)));
+        if (totals.isEmpty()) return new ArrayList<>();
+        Set<Long> ids = totals.stream().map(ConsumeRollupTotals.StudentTotal::getStudentId).collect(Collectors.toSet());
+        Map<Long, StudentInfo> students = new HashMap<>();
+        for (StudentInfo si : studentRepository.findAllById(ids)) {
+            students.put(si.getId(), si);
         }
-        Map<Long, RankingItem> byStudent = new HashMap<>();
-        for (Map.Entry<String, BigDecimal> e : byCard.entrySet()) {
-            String cardNo = e.getKey();
-            BigDecimal amt = e.getValue();
-            Optional<Card> oc = cardRepository.findByCardNo(cardNo);
-            if (!oc.isPresent()) continue;
-            Card card = oc.get();
-            if (!"STUDENT".equalsIgnoreCase(card.getHolderType())) continue;
-            String sno = card.getHolderId();
-            Optional<StudentInfo> os = studentRepository.findByStudentNo(sno);
-            if (!os.isPresent()) continue;
-            StudentInfo si = os.get();
-            RankingItem item = byStudent.computeIfAbsent(si.getId(), k -> new RankingItem(si.getId(), si.getName(), si.getStudentNo(), BigDecimal.ZERO));
-            item.setTotalAmount(item.getTotalAmount().add(amt));
+        List<RankingItem> list = new ArrayList<>(totals.size());
+        for (ConsumeRollupTotals.StudentTotal t : totals) {
+            StudentInfo si = students.get(t.getStudentId());
+            if (si == null) continue;
+            list.add(new RankingItem(si.getId(), si.getName(), si.getStudentNo(), Cents.toYuan(t.getAmountCents())));
         }
-        List<RankingItem> list = new ArrayList<>(byStudent.values());
-        list.sort((a, b) -> b.getTotalAmount().compareTo(a.getTotalAmount()));
-        return list.subList(0, Math.min(limit <= 0 ? 10 : limit, list.size()));
+        return list;
     }
 
-    public List<DayStat> trend(LocalDate startDate, LocalDate endDate) {
+    private static int rankingLimit(int limit) {
+        return limit <= 0 ? 10 : Math.min(limit, MAX_RANKING_LIMIT);
+    }
+
+    /**
+     * 分区排行（按学校/班级/商户各取前 K 名学生）：流式读取日汇总行，按分区累加到原始 long 表，
+     * 再用容量为 K 的小顶堆取前 K，不对全部学生排序。
+     */
+    @Transactional(readOnly = true)
+    public List<RankingGroup> rankingByPartition(String partitionBy, LocalDate startDate, LocalDate endDate, int limit) {
+        String by = partitionBy != null ? partitionBy.trim().toUpperCase() : "";
+        if (!"SCHOOL".equals(by) && !"CLASS".equals(by) && !"MERCHANT".equals(by)) {
+            throw new IllegalArgumentException("partitionBy 仅支持 SCHOOL、CLASS、MERCHANT");
+        }
         LocalDateTime start = startDate != null ? startDate.atStartOfDay() : LocalDate.now().minusDays(30).atStartOfDay();
-        LocalDateTime end = endDate != null ? endDate.atTime(LocalTime.MAX) : LocalDateTime.now();
-        List<CardTx> txs = cardTxRepository.findByTypeAndOccurredAtBetweenOrderByOccurredAtAsc("CONSUME", start, end);
-        Map<LocalDate, List<CardTx>> daily = new TreeMap<>();
-        for (CardTx tx : txs) {
-            LocalDate d = tx.getOccurredAt().toLocalDate();
-            daily.computeIfAbsent(d, k -> new ArrayList<>()).add(tx);
+        LocalDateTime end = endDate != null ? endDate.atStartOfDay() : LocalDate.now().atStartOfDay();
+        RankingAccumulator<String> acc = new RankingAccumulator<>();
+        try (Stream<ConsumeRollupTotals.RankingRow> rows = dailyRollupRepository.streamForRanking(start, end)) {
+            rows.forEach(r -> {
+                String key = "SCHOOL".equals(by) ? (r.getSchoolId() != null ? r.getSchoolId().toString() : null)
+                        : "CLASS".equals(by) ? (r.getClassId() != null ? r.getClassId().toString() : null)
+                        : r.getMerchant();
+                if (key != null) acc.accept(key, r.getStudentId(), r.getAmountCents());
+            });
         }
-        List<DayStat> series = new ArrayList<>();
-        for (Map.Entry<LocalDate, List<CardTx>> e : daily.entrySet()) {
-            StatsResp s = aggregateStats(e.getValue());
-            series.add(new DayStat(e.getKey().getDayOfMonth(), s.getTotalAmount(), s.getTxCount()));
+        Map<String, TopK> tops = acc.topK(rankingLimit(limit));
+        Map<String, long[][]> sorted = new LinkedHashMap<>();
+        Set<Long> studentIds = new HashSet<>();
+        for (Map.Entry<String, TopK> e : tops.entrySet()) {
+            long[][] entries = e.getValue().sortedDesc();
+            sorted.put(e.getKey(), entries);
+            for (long[] kv : entries) studentIds.add(kv[0]);
         }
-        return series;
+        Map<Long, StudentInfo> students = new HashMap<>();
+        for (StudentInfo si : studentRepository.findAllById(studentIds)) {
+            students.put(si.getId(), si);
+        }
+        Map<String, String> names = partitionNames(by, sorted.keySet());
+        List<RankingGroup> groups = new ArrayList<>(sorted.size());
+        for (Map.Entry<String, long[][]> e : sorted.entrySet()) {
+            List<RankingItem> items = new ArrayList<>(e.getValue().length);
+            for (long[] kv : e.getValue()) {
+                StudentInfo si = students.get(kv[0]);
+                items.add(new RankingItem(kv[0], si != null ? si.getName() : null, si != null ? si.getStudentNo() : null, Cents.toYuan(kv[1])));
+            }
+            groups.add(new RankingGroup(e.getKey(), names.getOrDefault(e.getKey(), e.getKey()), items));
+        }
+        return groups;
     }
 
-    private StatsResp aggregateStats(List<CardTx> txs) {
-        BigDecimal total = BigDecimal.ZERO;
-        int count = 0;
-        for (CardTx tx : txs) {
-            if (!"CONSUME".equalsIgnoreCase(tx.getType())) continue;
-            total = total.add(tx.getAmount().abs());
-            count++;
+    private Map<String, String> partitionNames(String by, Set<String> keys) {
+        Map<String, String> names = new HashMap<>();
+        if ("MERCHANT".equals(by) || keys.isEmpty()) return names;
+        Set<Long> ids = keys.stream().map(Long::valueOf).collect(Collectors.toSet());
+        if ("CLASS".equals(by)) {
+            for (Clazz c : clazzRepository.findAllById(ids)) names.put(c.getId().toString(), c.getName());
+        } else {
+            for (School sc : schoolRepository.findAllById(ids)) names.put(sc.getId().toString(), sc.getName());
         }
-        StatsResp resp = new StatsResp();
-        resp.setTotalAmount(total);
-        resp.setTxCount(count);
-        return resp;
+        return names;
+    }
+
+    public List<DayStat> trend(LocalDate startDate, LocalDate endDate) {
+        LocalDateTime start = startDate != null ? startDate.atStartOfDay() : LocalDate.now().minusDays(30).atStartOfDay();
+        LocalDateTime end = endDate != null ? endDate.atStartOfDay() : LocalDate.now().atStartOfDay();
+        List<DayStat> series = new ArrayList<>();
+        for (ConsumeRollupTotals.BucketTotal t : dailyRollupRepository.sumByDay(start, end)) {
+            series.add(new DayStat(t.getBucket().getDayOfMonth(), Cents.toYuan(t.getAmountCents()), t.getTxCount().intValue()));
+        }
+        return series;
     }
 
     public static class StatsResp {
@@ -236,6 +300,20 @@ public class ReportService {
         public void setTxCount(int txCount) { this.txCount = txCount; }
     }
 
+    public static class HourStat {
+        private int hour;
+        private BigDecimal totalAmount;
+        private int txCount;
+        public HourStat() {}
+        public HourStat(int hour, BigDecimal totalAmount, int txCount) { this.hour = hour; this.totalAmount = totalAmount; this.txCount = txCount; }
+        public int getHour() { return hour; }
+        public void setHour(int hour) { this.hour = hour; }
+        public BigDecimal getTotalAmount() { return totalAmount; }
+        public void setTotalAmount(BigDecimal totalAmount) { this.totalAmount = totalAmount; }
+        public int getTxCount() { return txCount; }
+        public void setTxCount(int txCount) { this.txCount = txCount; }
+    }
+
     public static class MonthlyResp extends StatsResp {
         private int year;
         private int month;
@@ -300,6 +378,22 @@ public class ReportService {
         public void setSeries(List<DayStat> series) { this.series = series; }
     }
 
+    public static class RankingGroup {
+        private String partitionKey;
+        private String partitionName;
+        private List<RankingItem> items;
+        public RankingGroup() {}
+        public RankingGroup(String partitionKey, String partitionName, List<RankingItem> items) {
+            this.partitionKey = partitionKey; this.partitionName = partitionName; this.items = items;
+        }
+        public String getPartitionKey() { return partitionKey; }
+        public void setPartitionKey(String partitionKey) { this.partitionKey = partitionKey; }
+        public String getPartitionName() { return partitionName; }
+        public void setPartitionName(String partitionName) { this.partitionName = partitionName; }
+        public List<RankingItem> getItems() { return items; }
+        public void setItems(List<RankingItem> items) { this.items = items; }
+    }
+
     public static class RankingItem {
         private Long studentId;
         private String studentName;
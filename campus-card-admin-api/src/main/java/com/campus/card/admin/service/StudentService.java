@@ -23,10 +23,13 @@ import com.campus.card.admin.repository.ClazzRepository;
 public class StudentService {
     private final StudentRepository repository;
     private final ClazzRepository clazzRepository;
+    private final AttendanceResolveCache resolveCache;
 
-    public StudentService(StudentRepository repository, ClazzRepository clazzRepository) {
+    public StudentService(StudentRepository repository, ClazzRepository clazzRepository,
+                          AttendanceResolveCache resolveCache) {
         this.repository = repository;
         this.clazzRepository = clazzRepository;
+        this.resolveCache = resolveCache;
     }
 
     public PageResult<StudentInfo> pageList(int page, int size, String name, Long classId, Long gradeId, Long schoolId,
@@ -103,15 +106,24 @@ public class StudentService {
         if (info.getStatus() == null) info.setStatus(1);
         if (info.getStudentNo() == null) throw new IllegalArgumentException("学号不能为空");
         if (repository.existsByStudentNo(info.getStudentNo())) throw new IllegalStateException("学号已存在");
-        return repository.save(info);
+        StudentInfo saved = repository.save(info);
+        resolveCache.invalidateStudent(saved.getStudentNo());
+        return saved;
     }
 
     public StudentInfo update(Long id, StudentInfo body) {
+        // 学号可能被修改，新旧学号都要失效
+        repository.findById(id).ifPresent(old -> resolveCache.invalidateStudent(old.getStudentNo()));
         body.setId(id);
-        return repository.save(body);
+        StudentInfo saved = repository.save(body);
+        resolveCache.invalidateStudent(saved.getStudentNo());
+        return saved;
     }
 
-    public void delete(Long id) { repository.deleteById(id); }
+    public void delete(Long id) {
+        repository.findById(id).ifPresent(old -> resolveCache.invalidateStudent(old.getStudentNo()));
+        repository.deleteById(id);
+    }
 
     public ImportResult importCsv(InputStream input, Long defaultClassId) {
         ImportResult result = new ImportResult();
@@ -170,6 +182,7 @@ public class StudentService {
                     info.setClassId(classId);
                     info.setStatus(status == null ? 1 : status);
                     repository.save(info);
+                    resolveCache.invalidateStudent(studentNo);
                     success++;
                 } catch (Exception ex) {
                     error++;
@@ -192,6 +205,7 @@ public class StudentService {
         if (!os.isPresent()) throw new IllegalArgumentException("学生不存在");
         StudentInfo s = os.get();
         s.setStatus(1);
+        resolveCache.invalidateStudent(s.getStudentNo());
         return repository.save(s);
     }
 
@@ -200,6 +214,7 @@ public class StudentService {
         if (!os.isPresent()) throw new IllegalArgumentException("学生不存在");
         StudentInfo s = os.get();
         s.setStatus(0);
+        resolveCache.invalidateStudent(s.getStudentNo());
         return repository.save(s);
     }
 
@@ -208,6 +223,7 @@ public class StudentService {
         if (!os.isPresent()) throw new IllegalArgumentException("学生不存在");
         StudentInfo s = os.get();
         s.setStatus(2); // 2: 毕业
+        resolveCache.invalidateStudent(s.getStudentNo());
         return repository.save(s);
     }
 
@@ -239,6 +255,7 @@ public class StudentService {
                 StudentInfo s = os.get();
                 s.setClassId(targetClassId);
                 repository.save(s);
+                resolveCache.invalidateStudent(s.getStudentNo());
                 success++;
             } catch (Exception ex) {
                 errors.add("学生ID " + sid + " 转班失败: " + ex.getMessage());
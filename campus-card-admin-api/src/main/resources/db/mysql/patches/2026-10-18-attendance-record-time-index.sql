@@ -0,0 +1,19 @@
+-- Patch: composite indexes for attendance list filtering and keyset paging by (attendance_time, id)
+SET NAMES utf8mb4;
+
+ALTER TABLE attendance_record ADD INDEX idx_attendance_class_time (class_id, attendance_time);
+-- idx_attendance_class is a prefix of the new index
+ALTER TABLE attendance_record DROP INDEX idx_attendance_class;
+-- (student_id, attendance_time) is the leading part of uk_attendance_dedup, which makes the single-column index redundant.
+-- That key comes from 2026-10-18-attendance-record-unique.sql and may be missing if that patch failed,
+-- so only drop idx_attendance_student when uk_attendance_dedup exists (and the old index is still there)
+SET @attendance_student_idx_sql := IF(
+  EXISTS (SELECT 1 FROM information_schema.statistics
+          WHERE table_schema = DATABASE() AND table_name = 'attendance_record' AND index_name = 'uk_attendance_dedup')
+  AND EXISTS (SELECT 1 FROM information_schema.statistics
+          WHERE table_schema = DATABASE() AND table_name = 'attendance_record' AND index_name = 'idx_attendance_student'),
+  'ALTER TABLE attendance_record DROP INDEX idx_attendance_student',
+  'DO 0');
+PREPARE attendance_student_idx_stmt FROM @attendance_student_idx_sql;
+EXECUTE attendance_student_idx_stmt;
+DEALLOCATE PREPARE attendance_student_idx_stmt;
@@ -0,0 +1,30 @@
+-- Patch: unique key on attendance_record so batch ingest can insert idempotently instead of checking existence first
+SET NAMES utf8mb4;
+
+-- Patches re-run on every start (spring.sql.init.mode=always): the duplicate cleanup (a full self-join)
+-- and the ALTER only run while uk_attendance_dedup does not exist yet
+SET @attendance_dedup_missing := NOT EXISTS (
+  SELECT 1 FROM information_schema.statistics
+  WHERE table_schema = DATABASE() AND table_name = 'attendance_record' AND index_name = 'uk_attendance_dedup');
+
+-- Remove existing duplicates, keeping the earliest row of each group
+SET @attendance_dedup_sql := IF(@attendance_dedup_missing,
+  'DELETE r FROM attendance_record r
+   JOIN attendance_record k
+     ON k.student_id = r.student_id
+    AND k.attendance_time = r.attendance_time
+    AND k.check_type = r.check_type
+    AND k.attendance_type = r.attendance_type
+    AND k.id < r.id',
+  'DO 0');
+PREPARE attendance_dedup_stmt FROM @attendance_dedup_sql;
+EXECUTE attendance_dedup_stmt;
+DEALLOCATE PREPARE attendance_dedup_stmt;
+
+SET @attendance_dedup_sql := IF(@attendance_dedup_missing,
+  'ALTER TABLE attendance_record
+     ADD UNIQUE KEY uk_attendance_dedup (student_id, attendance_time, check_type, attendance_type)',
+  'DO 0');
+PREPARE attendance_dedup_stmt FROM @attendance_dedup_sql;
+EXECUTE attendance_dedup_stmt;
+DEALLOCATE PREPARE attendance_dedup_stmt;
@@ -0,0 +1,4 @@
+-- Patch: record which rule snapshot classified each attendance row; NULL rows are picked up by the re-classification job
+SET NAMES utf8mb4;
+
+ALTER TABLE attendance_record ADD COLUMN rule_version BIGINT NULL AFTER remark;
@@ -0,0 +1,34 @@
+-- Patch: per-card balance snapshot maintained alongside card_tx writes
+SET NAMES utf8mb4;
+
+CREATE TABLE IF NOT EXISTS card_balance_snapshot (
+  card_no VARCHAR(64) PRIMARY KEY,
+  balance DECIMAL(10,2) NOT NULL DEFAULT 0,
+  status VARCHAR(16) NULL,
+  holder_type VARCHAR(16) NULL,
+  holder_id VARCHAR(64) NULL,
+  holder_name VARCHAR(64) NULL,
+  card_type_name VARCHAR(64) NULL,
+  last_tx_at DATETIME NULL,
+  tx_count BIGINT NOT NULL DEFAULT 0,
+  created_at DATETIME NULL,
+  updated_at DATETIME NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- One-shot backfill: this patch re-runs on every start (spring.sql.init.mode=always), so the
+-- backfill only runs while the snapshot table is still empty; afterwards missing rows are rebuilt lazily on read
+SET @card_snapshot_backfill := IF(EXISTS (SELECT 1 FROM card_balance_snapshot),
+  'DO 0',
+  'INSERT IGNORE INTO card_balance_snapshot
+     (card_no, balance, status, holder_type, holder_id, holder_name, card_type_name, last_tx_at, tx_count, created_at, updated_at)
+   SELECT c.card_no, c.balance, c.status, c.holder_type, c.holder_id,
+          COALESCE(s.name, t.name), ct.name, x.last_tx_at, COALESCE(x.tx_count, 0), c.created_at, CURRENT_TIMESTAMP
+   FROM card c
+   LEFT JOIN student s ON c.holder_type = ''STUDENT'' AND s.student_no = c.holder_id
+   LEFT JOIN teacher t ON c.holder_type = ''TEACHER'' AND t.teacher_no = c.holder_id
+   LEFT JOIN card_type ct ON ct.id = c.type_id
+   LEFT JOIN (SELECT card_no, MAX(occurred_at) AS last_tx_at, COUNT(*) AS tx_count FROM card_tx GROUP BY card_no) x
+     ON x.card_no = c.card_no');
+PREPARE card_snapshot_backfill_stmt FROM @card_snapshot_backfill;
+EXECUTE card_snapshot_backfill_stmt;
+DEALLOCATE PREPARE card_snapshot_backfill_stmt;
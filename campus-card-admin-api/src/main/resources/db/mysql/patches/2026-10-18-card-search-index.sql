@@ -0,0 +1,6 @@
+-- Patch: indexes for server-side card list filtering
+-- ngram full-text index narrows card_no "contains" search; status index serves status filter + id ordering
+SET NAMES utf8mb4;
+
+ALTER TABLE card ADD FULLTEXT INDEX ft_card_no_ngram (card_no) WITH PARSER ngram;
+ALTER TABLE card ADD INDEX idx_card_status_id (status, id);
@@ -0,0 +1,6 @@
+-- Patch: composite index for keyset paging of card_tx by (card_no, occurred_at, id)
+SET NAMES utf8mb4;
+
+ALTER TABLE card_tx ADD INDEX idx_tx_card_time_id (card_no, occurred_at, id);
+-- idx_tx_card is a prefix of the new index
+ALTER TABLE card_tx DROP INDEX idx_tx_card;
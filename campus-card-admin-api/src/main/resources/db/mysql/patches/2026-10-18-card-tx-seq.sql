@@ -0,0 +1,11 @@
+-- Patch: id segment table for card_tx so Hibernate can batch inserts (replaces IDENTITY generation)
+SET NAMES utf8mb4;
+
+CREATE TABLE IF NOT EXISTS card_tx_seq (
+  next_val BIGINT NOT NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Seed once, starting after the highest existing id
+INSERT INTO card_tx_seq (next_val)
+SELECT COALESCE(MAX(id), 0) + 1 FROM card_tx
+WHERE NOT EXISTS (SELECT 1 FROM card_tx_seq);
@@ -0,0 +1,5 @@
+-- Patch: optimistic version column for card, used by conditional debit / cancel updates
+SET NAMES utf8mb4;
+
+ALTER TABLE card
+  ADD COLUMN version BIGINT NOT NULL DEFAULT 0 AFTER expire_at;
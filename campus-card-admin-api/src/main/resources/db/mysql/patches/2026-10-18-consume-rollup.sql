@@ -0,0 +1,35 @@
+-- Patch: hourly/daily consumption rollups (amounts in cents) maintained alongside card_tx writes
+-- Historical data: POST /api/v1/reports/rollup/rebuild?startDate=...&endDate=...
+SET NAMES utf8mb4;
+
+CREATE TABLE IF NOT EXISTS consume_rollup_hourly (
+  id BIGINT PRIMARY KEY AUTO_INCREMENT,
+  bucket_start DATETIME NOT NULL,
+  card_no VARCHAR(64) NOT NULL,
+  merchant VARCHAR(128) NOT NULL DEFAULT '',
+  student_id BIGINT NULL,
+  class_id BIGINT NULL,
+  school_id BIGINT NULL,
+  amount_cents BIGINT NOT NULL DEFAULT 0,
+  tx_count BIGINT NOT NULL DEFAULT 0,
+  updated_at DATETIME NULL,
+  UNIQUE KEY uk_rollup_hourly (bucket_start, card_no, merchant),
+  INDEX idx_rollup_hourly_student (bucket_start, student_id),
+  INDEX idx_rollup_hourly_class (class_id, bucket_start)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+CREATE TABLE IF NOT EXISTS consume_rollup_daily (
+  id BIGINT PRIMARY KEY AUTO_INCREMENT,
+  bucket_start DATETIME NOT NULL,
+  card_no VARCHAR(64) NOT NULL,
+  merchant VARCHAR(128) NOT NULL DEFAULT '',
+  student_id BIGINT NULL,
+  class_id BIGINT NULL,
+  school_id BIGINT NULL,
+  amount_cents BIGINT NOT NULL DEFAULT 0,
+  tx_count BIGINT NOT NULL DEFAULT 0,
+  updated_at DATETIME NULL,
+  UNIQUE KEY uk_rollup_daily (bucket_start, card_no, merchant),
+  INDEX idx_rollup_daily_student (bucket_start, student_id),
+  INDEX idx_rollup_daily_class (class_id, bucket_start)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
@@ -0,0 +1,4 @@
+-- Patch: index student.class_id for set-based class reports (card_tx -> card -> student join)
+SET NAMES utf8mb4;
+
+ALTER TABLE student ADD INDEX idx_student_class (class_id);
@@ -77,7 +77,8 @@ CREATE TABLE student (
   class_id BIGINT NULL,
   status INT NOT NULL DEFAULT 1,
   photo_path VARCHAR(255) NULL,
-  archive LONGTEXT NULL
+  archive LONGTEXT NULL,
+  INDEX idx_student_class (class_id)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
 -- Additional domain tables: school, grade, class, teacher, attendance, card
@@ -158,8 +159,9 @@ CREATE TABLE attendance_record (
   photo_url VARCHAR(255) NULL,
   status ENUM('normal','late','early','absence') NOT NULL,
   remark VARCHAR(255) NULL,
-  INDEX idx_attendance_student (student_id),
-  INDEX idx_attendance_class (class_id),
+  rule_version BIGINT NULL,
+  UNIQUE KEY uk_attendance_dedup (student_id, attendance_time, check_type, attendance_type),
+  INDEX idx_attendance_class_time (class_id, attendance_time),
   INDEX idx_attendance_time (attendance_time)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
@@ -179,8 +181,11 @@ CREATE TABLE card (
   balance DECIMAL(10,2) NOT NULL DEFAULT 0,
   created_at DATETIME NULL,
   expire_at DATETIME NULL,
+  version BIGINT NOT NULL DEFAULT 0,
   INDEX idx_card_type (type_id),
-  INDEX idx_card_holder (holder_type, holder_id)
+  INDEX idx_card_holder (holder_type, holder_id),
+  INDEX idx_card_status_id (status, id),
+  FULLTEXT INDEX ft_card_no_ngram (card_no) WITH PARSER ngram
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
 CREATE TABLE card_tx (
@@ -192,11 +197,64 @@ CREATE TABLE card_tx (
   merchant VARCHAR(128) NULL,
   occurred_at DATETIME NOT NULL,
   note VARCHAR(255) NULL,
-  INDEX idx_tx_card (card_no),
+  INDEX idx_tx_card_time_id (card_no, occurred_at, id),
   INDEX idx_tx_type (type),
   INDEX idx_tx_time (occurred_at)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
+-- card_tx 主键号段表（由 patches/2026-10-18-card-tx-seq.sql 按现有最大 id 初始化）
+CREATE TABLE card_tx_seq (
+  next_val BIGINT NOT NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- 卡余额快照：随 card_tx 写入在同一事务内维护
+CREATE TABLE card_balance_snapshot (
+  card_no VARCHAR(64) PRIMARY KEY,
+  balance DECIMAL(10,2) NOT NULL DEFAULT 0,
+  status VARCHAR(16) NULL,
+  holder_type VARCHAR(16) NULL,
+  holder_id VARCHAR(64) NULL,
+  holder_name VARCHAR(64) NULL,
+  card_type_name VARCHAR(64) NULL,
+  last_tx_at DATETIME NULL,
+  tx_count BIGINT NOT NULL DEFAULT 0,
+  created_at DATETIME NULL,
+  updated_at DATETIME NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- 消费汇总：小时/日两个粒度，金额以分存储，随 card_tx 写入增量累加
+CREATE TABLE consume_rollup_hourly (
+  id BIGINT PRIMARY KEY AUTO_INCREMENT,
+  bucket_start DATETIME NOT NULL,
+  card_no VARCHAR(64) NOT NULL,
+  merchant VARCHAR(128) NOT NULL DEFAULT '',
+  student_id BIGINT NULL,
+  class_id BIGINT NULL,
+  school_id BIGINT NULL,
+  amount_cents BIGINT NOT NULL DEFAULT 0,
+  tx_count BIGINT NOT NULL DEFAULT 0,
+  updated_at DATETIME NULL,
+  UNIQUE KEY uk_rollup_hourly (bucket_start, card_no, merchant),
+  INDEX idx_rollup_hourly_student (bucket_start, student_id),
+  INDEX idx_rollup_hourly_class (class_id, bucket_start)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+CREATE TABLE consume_rollup_daily (
+  id BIGINT PRIMARY KEY AUTO_INCREMENT,
+  bucket_start DATETIME NOT NULL,
+  card_no VARCHAR(64) NOT NULL,
+  merchant VARCHAR(128) NOT NULL DEFAULT '',
+  student_id BIGINT NULL,
+  class_id BIGINT NULL,
+  school_id BIGINT NULL,
+  amount_cents BIGINT NOT NULL DEFAULT 0,
+  tx_count BIGINT NOT NULL DEFAULT 0,
+  updated_at DATETIME NULL,
+  UNIQUE KEY uk_rollup_daily (bucket_start, card_no, merchant),
+  INDEX idx_rollup_daily_student (bucket_start, student_id),
+  INDEX idx_rollup_daily_class (class_id, bucket_start)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
 CREATE TABLE parent (
   id BIGINT PRIMARY KEY AUTO_INCREMENT,
   name VARCHAR(64) NOT NULL,
@@ -0,0 +1,131 @@
+package com.campus.card.admin.bench;
+
+import com.campus.card.admin.domain.AttendanceRecord;
+import com.campus.card.admin.domain.AttendanceRule;
+import com.campus.card.admin.service.AttendanceService;
+import com.campus.card.admin.service.CompiledAttendanceRule;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单条考勤记录的状态判定：user-021 之前每条记录都重新解析设置 JSON、工作日与节假日/调休日期，
+ * 现在复用编译好的规则快照（CompiledAttendanceRule）。
+ * legacyParsePerRecord 近似旧路径（不含 Redis 读取往返），compilePerRecord 为每条记录都重新编译快照，
+ * compiledSnapshot 为现行路径。设置包含 4 个时段、约一学年的节假日与调休。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttendanceClassifyBenchmark {
+    private static final int RECORDS = 1024;
+    private static final Set<DayOfWeek> WORK_DAYS = EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private AttendanceRule rule;
+    private String settingsJson;
+    private AttendanceService.AttendanceSettings settings;
+    private CompiledAttendanceRule compiled;
+    private AttendanceRecord[] records;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        rule = new AttendanceRule();
+        settings = new AttendanceService.AttendanceSettings();
+        settings.setAbsenceThresholdMin(30);
+        List<AttendanceService.TimePeriod> periods = new ArrayList<>();
+        String[][] p = {{"07:50:00", "08:00:00"}, {"11:50:00", "12:00:00"}, {"13:50:00", "14:00:00"}, {"16:50:00", "17:00:00"}};
+        for (String[] s : p) {
+            AttendanceService.TimePeriod tp = new AttendanceService.TimePeriod();
+            tp.setStart(s[0]);
+            tp.setEnd(s[1]);
+            periods.add(tp);
+        }
+        settings.setPeriods(periods);
+        LocalDate base = LocalDate.of(2026, 1, 1);
+        List<AttendanceService.Holiday> holidays = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            AttendanceService.Holiday h = new AttendanceService.Holiday();
+            h.setName("H" + i);
+            h.setStartDate(base.plusDays(i * 30L).toString());
+            h.setEndDate(base.plusDays(i * 30L + 2).toString());
+            holidays.add(h);
+        }
+        settings.setHolidays(holidays);
+        List<AttendanceService.Adjustment> adjustments = new ArrayList<>();
+        for (int i = 0; i < 24; i++) {
+            AttendanceService.Adjustment a = new AttendanceService.Adjustment();
+            a.setDate(base.plusDays(i * 15L + 5).toString());
+            a.setType(i % 2 == 0 ? "WORK" : "OFF");
+            adjustments.add(a);
+        }
+        settings.setAdjustments(adjustments);
+        settingsJson = objectMapper.writeValueAsString(settings);
+        compiled = CompiledAttendanceRule.compile(rule, settings, WORK_DAYS, 1L);
+
+        Random rnd = new Random(42);
+        records = new AttendanceRecord[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            AttendanceRecord r = new AttendanceRecord();
+            boolean in = rnd.nextBoolean();
+            r.setAttendanceType(in ? "in" : "out");
+            r.setAttendanceTime(LocalDateTime.of(base.plusDays(rnd.nextInt(365)),
+                    in ? java.time.LocalTime.of(7, 30).plusMinutes(rnd.nextInt(60))
+                            : java.time.LocalTime.of(16, 30).plusMinutes(rnd.nextInt(60))));
+            r.setStatus(rnd.nextInt(50) == 0 ? "absence" : "normal");
+            records[i] = r;
+        }
+    }
+
+    private AttendanceRecord next() {
+        return records[cursor++ & (RECORDS - 1)];
+    }
+
+    /** 旧路径：每条记录反序列化设置并重新解析规则 */
+    @Benchmark
+    public String legacyParsePerRecord() throws Exception {
+        AttendanceService.AttendanceSettings s = objectMapper.readValue(settingsJson, AttendanceService.AttendanceSettings.class);
+        return CompiledAttendanceRule.compile(rule, s, WORK_DAYS, 0L).classify(next());
+    }
+
+    /** 设置已在内存，但每条记录仍重新编译 */
+    @Benchmark
+    public String compilePerRecord() {
+        return CompiledAttendanceRule.compile(rule, settings, WORK_DAYS, 0L).classify(next());
+    }
+
+    /** 现行路径：复用规则快照 */
+    @Benchmark
+    public String compiledSnapshot() {
+        return compiled.classify(next());
+    }
+
+    @Test
+    void run() throws Exception {
+        BenchDb.run(AttendanceClassifyBenchmark.class);
+    }
+}
@@ -0,0 +1,208 @@
+package com.campus.card.admin.bench;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 考勤记录列表分页：user-025 之前 pageList 读出全表后在内存中过滤、排序、分页，
+ * 现在过滤与排序下推到 SQL（按 (class_id, attendance_time) 索引），并提供基于 (attendance_time, id) 的游标分页。
+ * 对比同一班级深翻页（约 80% 深度）的几种取法，以及数据权限 IN 列表下的首页。
+ * 行数默认 20 万，可用 -Dbench.rows=5000000 并配合 -Dbench.jdbc.url 指向 MySQL 复现生产规模。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+public class AttendancePagingBenchmark {
+    private static final int CLASSES = 200;
+    private static final int STUDENTS_PER_CLASS = 40;
+    private static final int PAGE_SIZE = 20;
+    private static final String COLUMNS = "id, student_id, class_id, attendance_time, attendance_type, status";
+
+    @Param({"200000"})
+    public int rows;
+
+    private Connection conn;
+    private PreparedStatement selectAll;
+    private PreparedStatement offsetPage;
+    private PreparedStatement countClass;
+    private PreparedStatement keysetPage;
+    private PreparedStatement scopeFirstPage;
+    private PreparedStatement countScope;
+    private long classId;
+    private int deepOffset;
+    private Timestamp cursorAt;
+    private long cursorId;
+
+    @Setup(Level.Trial)
+    public void load() throws SQLException {
+        conn = BenchDb.connect();
+        BenchDb.exec(conn, "DROP TABLE IF EXISTS bench_attendance_record",
+                "CREATE TABLE bench_attendance_record (id BIGINT PRIMARY KEY, student_id BIGINT NOT NULL, class_id BIGINT NOT NULL, " +
+                        "attendance_time TIMESTAMP NOT NULL, attendance_type VARCHAR(8) NOT NULL, status VARCHAR(16) NOT NULL)",
+                "CREATE INDEX idx_bench_attendance_class_time ON bench_attendance_record (class_id, attendance_time)",
+                "CREATE INDEX idx_bench_attendance_student_time ON bench_attendance_record (student_id, attendance_time)");
+        conn.setAutoCommit(false);
+        Random rnd = new Random(7);
+        LocalDateTime base = LocalDateTime.of(2025, 9, 1, 0, 0);
+        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO bench_attendance_record VALUES (?, ?, ?, ?, ?, ?)")) {
+            for (int i = 1; i <= rows; i++) {
+                long student = rnd.nextInt(CLASSES * STUDENTS_PER_CLASS) + 1;
+                ps.setLong(1, i);
+                ps.setLong(2, student);
+                ps.setLong(3, (student - 1) / STUDENTS_PER_CLASS + 1);
+                ps.setTimestamp(4, Timestamp.valueOf(base.plusSeconds(rnd.nextInt(365 * 24 * 3600))));
+                ps.setString(5, rnd.nextBoolean() ? "in" : "out");
+                ps.setString(6, rnd.nextInt(10) == 0 ? "late" : "normal");
+                ps.addBatch();
+                if (i % 5000 == 0) {
+                    ps.executeBatch();
+                    conn.commit();
+                }
+            }
+            ps.executeBatch();
+            conn.commit();
+        }
+        conn.setAutoCommit(true);
+
+        String order = " ORDER BY attendance_time DESC, id DESC";
+        selectAll = conn.prepareStatement("SELECT " + COLUMNS + " FROM bench_attendance_record");
+        offsetPage = conn.prepareStatement("SELECT " + COLUMNS + " FROM bench_attendance_record WHERE class_id = ?" + order + " LIMIT ? OFFSET ?");
+        countClass = conn.prepareStatement("SELECT COUNT(*) FROM bench_attendance_record WHERE class_id = ?");
+        keysetPage = conn.prepareStatement("SELECT " + COLUMNS + " FROM bench_attendance_record WHERE class_id = ? " +
+                "AND (attendance_time < ? OR (attendance_time = ? AND id < ?))" + order + " LIMIT ?");
+        StringBuilder in = new StringBuilder();
+        for (int i = 0; i < 20; i++) in.append(i == 0 ? "?" : ",?");
+        scopeFirstPage = conn.prepareStatement("SELECT " + COLUMNS + " FROM bench_attendance_record WHERE class_id IN (" + in + ")" + order + " LIMIT ?");
+        countScope = conn.prepareStatement("SELECT COUNT(*) FROM bench_attendance_record WHERE class_id IN (" + in + ")");
+
+        classId = CLASSES / 2;
+        countClass.setLong(1, classId);
+        int classRows;
+        try (ResultSet rs = countClass.executeQuery()) {
+            rs.next();
+            classRows = rs.getInt(1);
+        }
+        deepOffset = Math.max(0, classRows * 4 / 5 / PAGE_SIZE * PAGE_SIZE);
+        // 游标取深翻页前一页的最后一条，使两种取法返回同一页
+        offsetPage.setLong(1, classId);
+        offsetPage.setInt(2, 1);
+        offsetPage.setInt(3, Math.max(0, deepOffset - 1));
+        try (ResultSet rs = offsetPage.executeQuery()) {
+            rs.next();
+            cursorId = rs.getLong("id");
+            cursorAt = rs.getTimestamp("attendance_time");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void drop() throws SQLException {
+        BenchDb.exec(conn, "DROP TABLE IF EXISTS bench_attendance_record");
+        conn.close();
+    }
+
+    private static final class Row {
+        final long id;
+        final long classId;
+        final Timestamp at;
+
+        Row(ResultSet rs) throws SQLException {
+            id = rs.getLong(1);
+            classId = rs.getLong(3);
+            at = rs.getTimestamp(4);
+        }
+    }
+
+    private static int drain(PreparedStatement ps) throws SQLException {
+        int n = 0;
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                n += rs.getLong(1) > 0 ? 1 : 0;
+            }
+        }
+        return n;
+    }
+
+    private static long count(PreparedStatement ps) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /** 改造前：读出全表，在内存中按班级过滤、排序后截取一页 */
+    @Benchmark
+    public int inMemoryPage() throws SQLException {
+        List<Row> matched = new ArrayList<>();
+        try (ResultSet rs = selectAll.executeQuery()) {
+            while (rs.next()) {
+                Row r = new Row(rs);
+                if (r.classId == classId) matched.add(r);
+            }
+        }
+        matched.sort(Comparator.comparing((Row r) -> r.at).thenComparingLong(r -> r.id).reversed());
+        int from = Math.min(deepOffset, matched.size());
+        return matched.subList(from, Math.min(from + PAGE_SIZE, matched.size())).size();
+    }
+
+    /** /records：SQL 过滤 + OFFSET 深翻页，附带总数查询 */
+    @Benchmark
+    public long offsetDeepPage() throws SQLException {
+        offsetPage.setLong(1, classId);
+        offsetPage.setInt(2, PAGE_SIZE);
+        offsetPage.setInt(3, deepOffset);
+        countClass.setLong(1, classId);
+        return drain(offsetPage) + count(countClass);
+    }
+
+    /** /records/cursor：同一深度按游标取下一页，多取一条判断是否有下一页，不做 count */
+    @Benchmark
+    public int keysetDeepPage() throws SQLException {
+        keysetPage.setLong(1, classId);
+        keysetPage.setTimestamp(2, cursorAt);
+        keysetPage.setTimestamp(3, cursorAt);
+        keysetPage.setLong(4, cursorId);
+        keysetPage.setInt(5, PAGE_SIZE + 1);
+        return drain(keysetPage);
+    }
+
+    /** 数据权限限定到 20 个班级时的首页（IN 列表下推到 SQL） */
+    @Benchmark
+    public long scopedFirstPage() throws SQLException {
+        for (int i = 0; i < 20; i++) {
+            scopeFirstPage.setLong(i + 1, i * 10L + 1);
+            countScope.setLong(i + 1, i * 10L + 1);
+        }
+        scopeFirstPage.setInt(21, PAGE_SIZE);
+        return drain(scopeFirstPage) + count(countScope);
+    }
+
+    @Test
+    void run() throws Exception {
+        BenchDb.run(AttendancePagingBenchmark.class, "rows", System.getProperty("bench.rows", "200000"));
+    }
+}
@@ -0,0 +1,58 @@
+package com.campus.card.admin.bench;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 基准测试公共工具。
+ * 数据库类基准默认使用内存 H2，只用于对比同一库上两种写法的相对开销
+ * （不开 MODE=MySQL：该模式下多会话并发插入自增主键会分配出重复值，基准 SQL 只用两边通用的语法）；
+ * 需要与生产一致的绝对数值时指向本地 MySQL：
+ * -Dbench.jdbc.url=jdbc:mysql://localhost:3306/campus_bench -Dbench.jdbc.user=root -Dbench.jdbc.password=...
+ * 基准只读写 bench_ 前缀的表，不触碰业务表。
+ *
+ * 运行方式（*Benchmark 不在默认 mvn test 范围内）：
+ * mvn test -Dtest=CardDebitBenchmark
+ * 需要分配速率时加 -Dbench.prof=gc（即 JMH 的 -prof gc）。
+ */
+final class BenchDb {
+    private BenchDb() {}
+
+    static final String URL = System.getProperty("bench.jdbc.url", "jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1");
+    static final String USER = System.getProperty("bench.jdbc.user", "sa");
+    static final String PASSWORD = System.getProperty("bench.jdbc.password", "");
+
+    static Connection connect() throws SQLException {
+        return DriverManager.getConnection(URL, USER, PASSWORD);
+    }
+
+    static void exec(Connection c, String... sqls) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            for (String sql : sqls) st.execute(sql);
+        }
+    }
+
+    /** 以 JUnit 测试的形式启动指定基准类，可用 -Dbench.forks / -Dbench.iterations / -Dbench.prof 调整 */
+    static void run(Class<?> benchmark, String... params) throws RunnerException {
+        ChainedOptionsBuilder opts = new OptionsBuilder()
+                .include(benchmark.getName())
+                .forks(Integer.getInteger("bench.forks", 1))
+                .measurementIterations(Integer.getInteger("bench.iterations", 3))
+                .jvmArgsAppend("-Dbench.jdbc.url=" + URL, "-Dbench.jdbc.user=" + USER, "-Dbench.jdbc.password=" + PASSWORD);
+        String prof = System.getProperty("bench.prof");
+        if (prof != null && !prof.isEmpty()) {
+            opts.addProfiler(prof);
+        }
+        for (int i = 0; i + 1 < params.length; i += 2) {
+            opts.param(params[i], params[i + 1]);
+        }
+        new Runner(opts.build()).run();
+    }
+}
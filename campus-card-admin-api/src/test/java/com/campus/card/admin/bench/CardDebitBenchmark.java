@@ -0,0 +1,151 @@
+package com.campus.card.admin.bench;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单笔扣款：改造前的 SELECT + UPDATE（实体读出再 save，有丢失更新窗口）、
+ * 加行锁的 SELECT ... FOR UPDATE + UPDATE，与 user-002 的单条条件 UPDATE（CardRepository.debitIfSufficient）对比。
+ * 8 个线程在 1000 张卡上随机扣款。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(8)
+public class CardDebitBenchmark {
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"1000"})
+    public int cards;
+
+    @Setup(Level.Trial)
+    public void createCards() throws SQLException {
+        try (Connection c = BenchDb.connect()) {
+            BenchDb.exec(c, "DROP TABLE IF EXISTS bench_card",
+                    "CREATE TABLE bench_card (id BIGINT PRIMARY KEY, card_no VARCHAR(64) NOT NULL UNIQUE, " +
+                            "status VARCHAR(16) NOT NULL, balance DECIMAL(14,2) NOT NULL, version BIGINT NOT NULL)");
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO bench_card VALUES (?, ?, 'ACTIVE', 100000000.00, 0)")) {
+                for (int i = 0; i < cards; i++) {
+                    ps.setLong(1, i + 1);
+                    ps.setString(2, cardNo(i));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            c.commit();
+        }
+    }
+
+    static String cardNo(int i) {
+        return "B" + (100000 + i);
+    }
+
+    @State(Scope.Thread)
+    public static class Session {
+        Connection conn;
+        PreparedStatement select;
+        PreparedStatement selectForUpdate;
+        PreparedStatement updateById;
+        PreparedStatement conditionalDebit;
+        int cards;
+
+        @Setup(Level.Trial)
+        public void open(CardDebitBenchmark bench) throws SQLException {
+            cards = bench.cards;
+            conn = BenchDb.connect();
+            select = conn.prepareStatement("SELECT id, status, balance FROM bench_card WHERE card_no = ?");
+            selectForUpdate = conn.prepareStatement("SELECT id, status, balance FROM bench_card WHERE card_no = ? FOR UPDATE");
+            updateById = conn.prepareStatement("UPDATE bench_card SET balance = ?, version = version + 1 WHERE id = ?");
+            conditionalDebit = conn.prepareStatement("UPDATE bench_card SET balance = balance - ?, version = version + 1 " +
+                    "WHERE card_no = ? AND status = 'ACTIVE' AND balance >= ?");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            conn.close();
+        }
+
+        String randomCard() {
+            return cardNo(ThreadLocalRandom.current().nextInt(cards));
+        }
+    }
+
+    private static int readThenWrite(Session s, PreparedStatement read) throws SQLException {
+        s.conn.setAutoCommit(false);
+        try {
+            read.setString(1, s.randomCard());
+            long id;
+            BigDecimal balance;
+            try (ResultSet rs = read.executeQuery()) {
+                if (!rs.next() || !"ACTIVE".equals(rs.getString(2))) {
+                    s.conn.rollback();
+                    return 0;
+                }
+                id = rs.getLong(1);
+                balance = rs.getBigDecimal(3);
+            }
+            if (balance.compareTo(AMOUNT) < 0) {
+                s.conn.rollback();
+                return 0;
+            }
+            s.updateById.setBigDecimal(1, balance.subtract(AMOUNT));
+            s.updateById.setLong(2, id);
+            int n = s.updateById.executeUpdate();
+            s.conn.commit();
+            return n;
+        } catch (SQLException e) {
+            s.conn.rollback();
+            throw e;
+        }
+    }
+
+    /** 改造前：读出实体、内存中扣减后保存（两次往返，并发下会丢失更新） */
+    @Benchmark
+    public int selectThenUpdate(Session s) throws SQLException {
+        return readThenWrite(s, s.select);
+    }
+
+    /** 悲观锁：正确但仍是两次往返，并持有行锁跨越一次往返 */
+    @Benchmark
+    public int selectForUpdateThenUpdate(Session s) throws SQLException {
+        return readThenWrite(s, s.selectForUpdate);
+    }
+
+    /** user-002：一条条件 UPDATE 完成状态、余额校验与扣减 */
+    @Benchmark
+    public int conditionalUpdate(Session s) throws SQLException {
+        s.conn.setAutoCommit(true);
+        s.conditionalDebit.setBigDecimal(1, AMOUNT);
+        s.conditionalDebit.setString(2, s.randomCard());
+        s.conditionalDebit.setBigDecimal(3, AMOUNT);
+        return s.conditionalDebit.executeUpdate();
+    }
+
+    @Test
+    void run() throws Exception {
+        BenchDb.run(CardDebitBenchmark.class);
+    }
+}
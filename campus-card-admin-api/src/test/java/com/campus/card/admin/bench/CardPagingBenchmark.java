@@ -0,0 +1,184 @@
+package com.campus.card.admin.bench;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 卡片列表分页：user-004 之前 pageList 用 findAll 读出全部卡片后在内存中过滤、分页，
+ * 现在过滤下推到 SQL 并按 id 排序分页（/cards 为 OFFSET + count，/cards/cursor 为 id 游标）。
+ * 以状态筛选（idx_card_status_id）取约 80% 深度的一页对比三种取法；分配量用 -Dbench.prof=gc 查看，
+ * 旧路径随卡片总数线性增长，SQL 分页与之无关。
+ * 行数默认 100 万，可用 -Dbench.rows 调整，并可配合 -Dbench.jdbc.url 指向 MySQL。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+public class CardPagingBenchmark {
+    private static final int PAGE_SIZE = 20;
+    private static final String STATUS = "ACTIVE";
+    private static final String[] STATUSES = {"ACTIVE", "LOST", "FROZEN", "CANCELLED"};
+    private static final String[] HOLDER_TYPES = {"STUDENT", "TEACHER", "STAFF", "VISITOR"};
+    private static final String COLUMNS = "id, card_no, type_id, holder_type, holder_id, status, balance";
+
+    @Param({"1000000"})
+    public int rows;
+
+    private Connection conn;
+    private PreparedStatement selectAll;
+    private PreparedStatement offsetPage;
+    private PreparedStatement countStatus;
+    private PreparedStatement keysetPage;
+    private int deepOffset;
+    private long cursorId;
+
+    @Setup(Level.Trial)
+    public void load() throws SQLException {
+        conn = BenchDb.connect();
+        BenchDb.exec(conn, "DROP TABLE IF EXISTS bench_card_list",
+                "CREATE TABLE bench_card_list (id BIGINT PRIMARY KEY, card_no VARCHAR(64) NOT NULL UNIQUE, type_id BIGINT NOT NULL, " +
+                        "holder_type VARCHAR(16) NOT NULL, holder_id VARCHAR(64) NOT NULL, status VARCHAR(16) NOT NULL, balance DECIMAL(10,2) NOT NULL)",
+                "CREATE INDEX idx_bench_card_list_holder ON bench_card_list (holder_type, holder_id)",
+                "CREATE INDEX idx_bench_card_list_status_id ON bench_card_list (status, id)");
+        conn.setAutoCommit(false);
+        Random rnd = new Random(3);
+        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO bench_card_list VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+            for (int i = 1; i <= rows; i++) {
+                int s = rnd.nextInt(20);
+                ps.setLong(1, i);
+                ps.setString(2, "C" + (10_000_000 + i));
+                ps.setLong(3, 1 + rnd.nextInt(3));
+                ps.setString(4, HOLDER_TYPES[rnd.nextInt(10) < 8 ? 0 : 1 + rnd.nextInt(3)]);
+                ps.setString(5, "H" + rnd.nextInt(rows));
+                // 约 85% 正常，其余挂失/冻结/注销
+                ps.setString(6, s < 17 ? STATUSES[0] : STATUSES[s - 16]);
+                ps.setBigDecimal(7, BigDecimal.valueOf(rnd.nextInt(100_000), 2));
+                ps.addBatch();
+                if (i % 5000 == 0) {
+                    ps.executeBatch();
+                    conn.commit();
+                }
+            }
+            ps.executeBatch();
+            conn.commit();
+        }
+        conn.setAutoCommit(true);
+
+        selectAll = conn.prepareStatement("SELECT " + COLUMNS + " FROM bench_card_list");
+        offsetPage = conn.prepareStatement("SELECT " + COLUMNS + " FROM bench_card_list WHERE status = ? ORDER BY id LIMIT ? OFFSET ?");
+        countStatus = conn.prepareStatement("SELECT COUNT(*) FROM bench_card_list WHERE status = ?");
+        keysetPage = conn.prepareStatement("SELECT " + COLUMNS + " FROM bench_card_list WHERE status = ? AND id > ? ORDER BY id LIMIT ?");
+
+        countStatus.setString(1, STATUS);
+        long matched = count(countStatus);
+        deepOffset = (int) Math.max(0, matched * 4 / 5 / PAGE_SIZE * PAGE_SIZE);
+        // 游标取深翻页前一页的最后一条，使两种取法返回同一页
+        offsetPage.setString(1, STATUS);
+        offsetPage.setInt(2, 1);
+        offsetPage.setInt(3, Math.max(0, deepOffset - 1));
+        try (ResultSet rs = offsetPage.executeQuery()) {
+            rs.next();
+            cursorId = rs.getLong(1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void drop() throws SQLException {
+        BenchDb.exec(conn, "DROP TABLE IF EXISTS bench_card_list");
+        conn.close();
+    }
+
+    /** 与实体一样把整行读成对象 */
+    private static final class Row {
+        final long id;
+        final String cardNo;
+        final long typeId;
+        final String holderType;
+        final String holderId;
+        final String status;
+        final BigDecimal balance;
+
+        Row(ResultSet rs) throws SQLException {
+            id = rs.getLong(1);
+            cardNo = rs.getString(2);
+            typeId = rs.getLong(3);
+            holderType = rs.getString(4);
+            holderId = rs.getString(5);
+            status = rs.getString(6);
+            balance = rs.getBigDecimal(7);
+        }
+    }
+
+    private static List<Row> read(PreparedStatement ps) throws SQLException {
+        List<Row> out = new ArrayList<>(PAGE_SIZE + 1);
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) out.add(new Row(rs));
+        }
+        return out;
+    }
+
+    private static long count(PreparedStatement ps) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /** 改造前：findAll 读出全部卡片，内存中按状态过滤后截取一页 */
+    @Benchmark
+    public int findAllAndFilter() throws SQLException {
+        List<Row> all = read(selectAll);
+        List<Row> matched = new ArrayList<>();
+        for (Row r : all) {
+            if (STATUS.equalsIgnoreCase(r.status)) matched.add(r);
+        }
+        int from = Math.min(deepOffset, matched.size());
+        return matched.subList(from, Math.min(from + PAGE_SIZE, matched.size())).size();
+    }
+
+    /** /cards：SQL 过滤 + OFFSET 深翻页，附带总数查询 */
+    @Benchmark
+    public long offsetDeepPage() throws SQLException {
+        offsetPage.setString(1, STATUS);
+        offsetPage.setInt(2, PAGE_SIZE);
+        offsetPage.setInt(3, deepOffset);
+        countStatus.setString(1, STATUS);
+        return read(offsetPage).size() + count(countStatus);
+    }
+
+    /** /cards/cursor：同一深度按 id 游标取下一页，多取一条判断是否有下一页，不做 count */
+    @Benchmark
+    public int keysetDeepPage() throws SQLException {
+        keysetPage.setString(1, STATUS);
+        keysetPage.setLong(2, cursorId);
+        keysetPage.setInt(3, PAGE_SIZE + 1);
+        return read(keysetPage).size();
+    }
+
+    @Test
+    void run() throws Exception {
+        BenchDb.run(CardPagingBenchmark.class, "rows", System.getProperty("bench.rows", "1000000"));
+    }
+}
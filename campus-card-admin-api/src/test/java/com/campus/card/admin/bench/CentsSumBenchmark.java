@@ -0,0 +1,84 @@
+package com.campus.card.admin.bench;
+
+import com.campus.card.common.money.Cents;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消费金额汇总：user-010 之前报表逐行 BigDecimal.add（每行分配一个新的合计对象），
+ * 微信端按 doubleValue 累加（无分配但有精度误差），现在统一用 Cents.Sum 以 long 分累加。
+ * 金额为实体读出的两位小数 BigDecimal（消费为负值），默认 1000 万条，可用 -Dbench.rows 调整；
+ * 分配速率用 -Dbench.prof=gc 查看（gc.alloc.rate.norm 为每次汇总 1000 万条的分配字节数）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CentsSumBenchmark {
+    @Param({"10000000"})
+    public int rows;
+
+    private BigDecimal[] amounts;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        Random rnd = new Random(11);
+        amounts = new BigDecimal[rows];
+        for (int i = 0; i < rows; i++) {
+            // 0.50 ~ 30.00 元的消费
+            amounts[i] = BigDecimal.valueOf(-(50 + rnd.nextInt(2951)), 2);
+        }
+    }
+
+    /** 改造前报表：BigDecimal 逐行累加 */
+    @Benchmark
+    public BigDecimal bigDecimalAdd() {
+        BigDecimal total = BigDecimal.ZERO;
+        for (BigDecimal a : amounts) {
+            total = total.add(a.abs());
+        }
+        return total;
+    }
+
+    /** 改造前微信端：doubleValue 累加 */
+    @Benchmark
+    public double doubleValueSum() {
+        double total = 0;
+        for (BigDecimal a : amounts) {
+            total += Math.abs(a.doubleValue());
+        }
+        return total;
+    }
+
+    /** 现行：换算为分后以 long 累加 */
+    @Benchmark
+    public long centsSum() {
+        Cents.Sum total = new Cents.Sum();
+        for (BigDecimal a : amounts) {
+            total.add(Cents.abs(a));
+        }
+        return total.getCents();
+    }
+
+    @Test
+    void run() throws Exception {
+        BenchDb.run(CentsSumBenchmark.class, "rows", System.getProperty("bench.rows", "10000000"));
+    }
+}
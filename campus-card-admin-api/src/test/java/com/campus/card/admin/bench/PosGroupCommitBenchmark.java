@@ -0,0 +1,196 @@
+package com.campus.card.admin.bench;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * POS 消费写入：改造前每笔刷卡一个事务（加锁读卡、更新余额、IDENTITY 插入流水后提交），
+ * 与 user-003 记账通道的组提交（一批 200 笔：IN 列表加锁读卡、批量更新余额、按号段预分配 id 批量插入流水、一次提交）对比。
+ * 每个线程模拟一个通道，只处理自己分到的卡，与引擎按卡号哈希分通道一致；分数为每秒刷卡笔数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(8)
+public class PosGroupCommitBenchmark {
+    static final int BATCH = 200;
+    static final int CARDS_PER_LANE = 500;
+    static final int LANES = 8;
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    final AtomicInteger laneSeq = new AtomicInteger();
+    // 模拟 card_tx_seq 号段分配
+    final AtomicLong txSeq = new AtomicLong(1_000_000_000L);
+
+    @Setup(Level.Trial)
+    public void createTables() throws SQLException {
+        try (Connection c = BenchDb.connect()) {
+            BenchDb.exec(c, "DROP TABLE IF EXISTS bench_pos_tx", "DROP TABLE IF EXISTS bench_pos_card",
+                    "CREATE TABLE bench_pos_card (id BIGINT PRIMARY KEY, card_no VARCHAR(64) NOT NULL UNIQUE, " +
+                            "status VARCHAR(16) NOT NULL, balance DECIMAL(14,2) NOT NULL, version BIGINT NOT NULL)",
+                    "CREATE TABLE bench_pos_tx (id BIGINT AUTO_INCREMENT PRIMARY KEY, card_no VARCHAR(64) NOT NULL, " +
+                            "tx_type VARCHAR(16) NOT NULL, amount DECIMAL(14,2) NOT NULL, balance_after DECIMAL(14,2) NOT NULL, " +
+                            "merchant VARCHAR(64), tx_time DATETIME NOT NULL)",
+                    "CREATE INDEX idx_bench_pos_tx_card ON bench_pos_tx (card_no, tx_time)");
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO bench_pos_card VALUES (?, ?, 'ACTIVE', 100000000.00, 0)")) {
+                for (int i = 0; i < LANES * CARDS_PER_LANE; i++) {
+                    ps.setLong(1, i + 1);
+                    ps.setString(2, cardNo(i));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            c.commit();
+        }
+    }
+
+    static String cardNo(int i) {
+        return "P" + (100000 + i);
+    }
+
+    @State(Scope.Thread)
+    public static class Lane {
+        Connection conn;
+        PreparedStatement lockOne;
+        PreparedStatement lockBatch;
+        PreparedStatement updateBalance;
+        PreparedStatement insertIdentity;
+        PreparedStatement insertWithId;
+        int firstCard;
+        AtomicLong txSeq;
+
+        @Setup(Level.Trial)
+        public void open(PosGroupCommitBenchmark bench) throws SQLException {
+            firstCard = (bench.laneSeq.getAndIncrement() % LANES) * CARDS_PER_LANE;
+            txSeq = bench.txSeq;
+            conn = BenchDb.connect();
+            conn.setAutoCommit(false);
+            lockOne = conn.prepareStatement("SELECT card_no, status, balance FROM bench_pos_card WHERE card_no = ? FOR UPDATE");
+            StringBuilder in = new StringBuilder();
+            for (int i = 0; i < BATCH; i++) in.append(i == 0 ? "?" : ",?");
+            lockBatch = conn.prepareStatement("SELECT card_no, status, balance FROM bench_pos_card WHERE card_no IN (" + in + ") FOR UPDATE");
+            updateBalance = conn.prepareStatement("UPDATE bench_pos_card SET balance = ?, version = version + 1 WHERE card_no = ?");
+            insertIdentity = conn.prepareStatement("INSERT INTO bench_pos_tx (card_no, tx_type, amount, balance_after, merchant, tx_time) " +
+                    "VALUES (?, 'CONSUME', ?, ?, 'canteen', ?)", Statement.RETURN_GENERATED_KEYS);
+            insertWithId = conn.prepareStatement("INSERT INTO bench_pos_tx (id, card_no, tx_type, amount, balance_after, merchant, tx_time) " +
+                    "VALUES (?, ?, 'CONSUME', ?, ?, 'canteen', ?)");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            conn.close();
+        }
+
+        String randomCard() {
+            return cardNo(firstCard + ThreadLocalRandom.current().nextInt(CARDS_PER_LANE));
+        }
+    }
+
+    /** 改造前：每笔刷卡独立事务，流水 IDENTITY 主键逐条插入 */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long perSwipeTransaction(Lane lane) throws SQLException {
+        long last = 0;
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        for (int i = 0; i < BATCH; i++) {
+            String cardNo = lane.randomCard();
+            try {
+                lane.lockOne.setString(1, cardNo);
+                BigDecimal balance;
+                try (ResultSet rs = lane.lockOne.executeQuery()) {
+                    rs.next();
+                    balance = rs.getBigDecimal(3).subtract(AMOUNT);
+                }
+                lane.updateBalance.setBigDecimal(1, balance);
+                lane.updateBalance.setString(2, cardNo);
+                lane.updateBalance.executeUpdate();
+                lane.insertIdentity.setString(1, cardNo);
+                lane.insertIdentity.setBigDecimal(2, AMOUNT.negate());
+                lane.insertIdentity.setBigDecimal(3, balance);
+                lane.insertIdentity.setTimestamp(4, now);
+                lane.insertIdentity.executeUpdate();
+                try (ResultSet keys = lane.insertIdentity.getGeneratedKeys()) {
+                    if (keys.next()) last = keys.getLong(1);
+                }
+                lane.conn.commit();
+            } catch (SQLException e) {
+                lane.conn.rollback();
+                throw e;
+            }
+        }
+        return last;
+    }
+
+    /** user-003：一批刷卡一次加锁读卡、批量更新、批量插入，一个事务提交 */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long groupCommit(Lane lane) throws SQLException {
+        String[] cardNos = new String[BATCH];
+        for (int i = 0; i < BATCH; i++) cardNos[i] = lane.randomCard();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        try {
+            for (int i = 0; i < BATCH; i++) lane.lockBatch.setString(i + 1, cardNos[i]);
+            Map<String, BigDecimal> balances = new HashMap<>();
+            try (ResultSet rs = lane.lockBatch.executeQuery()) {
+                while (rs.next()) balances.put(rs.getString(1), rs.getBigDecimal(3));
+            }
+            long firstId = lane.txSeq.getAndAdd(BATCH);
+            for (int i = 0; i < BATCH; i++) {
+                BigDecimal after = balances.get(cardNos[i]).subtract(AMOUNT);
+                balances.put(cardNos[i], after);
+                lane.insertWithId.setLong(1, firstId + i);
+                lane.insertWithId.setString(2, cardNos[i]);
+                lane.insertWithId.setBigDecimal(3, AMOUNT.negate());
+                lane.insertWithId.setBigDecimal(4, after);
+                lane.insertWithId.setTimestamp(5, now);
+                lane.insertWithId.addBatch();
+            }
+            for (Map.Entry<String, BigDecimal> e : balances.entrySet()) {
+                lane.updateBalance.setBigDecimal(1, e.getValue());
+                lane.updateBalance.setString(2, e.getKey());
+                lane.updateBalance.addBatch();
+            }
+            lane.updateBalance.executeBatch();
+            lane.insertWithId.executeBatch();
+            lane.conn.commit();
+            return firstId;
+        } catch (SQLException e) {
+            lane.conn.rollback();
+            throw e;
+        }
+    }
+
+    @Test
+    void run() throws Exception {
+        BenchDb.run(PosGroupCommitBenchmark.class);
+    }
+}
@@ -0,0 +1,204 @@
+package com.campus.card.admin.ledger;
+
+import com.campus.card.admin.domain.Card;
+import com.campus.card.admin.domain.CardTx;
+import com.campus.card.admin.repository.CardRepository;
+import com.campus.card.admin.repository.CardTxRepository;
+import com.campus.card.admin.service.CardSnapshotService;
+import com.campus.card.admin.service.ConsumeRollupService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 记账引擎并发压力测试：多线程并发提交消费/充值后，每张卡的最终余额必须等于初始余额加上该卡全部 CardTx 金额之和；
+ * 并覆盖整批提交失败后逐笔重试、只让问题操作失败的路径。
+ * 测试方法不开启外层事务，引擎内每批操作真实提交/回滚。
+ */
+@DataJpaTest
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class CardLedgerEngineConcurrencyTest {
+    private static final BigDecimal INITIAL = new BigDecimal("100.00");
+    private static final String POISON = "POISON";
+
+    @Autowired
+    private CardRepository cardRepository;
+    @Autowired
+    private CardTxRepository cardTxRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final CardSnapshotService snapshotService = mock(CardSnapshotService.class);
+    private final ConsumeRollupService rollupService = mock(ConsumeRollupService.class);
+    private CardLedgerEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        cardTxRepository.deleteAllInBatch();
+        cardRepository.deleteAllInBatch();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (engine != null) engine.stop();
+    }
+
+    private CardLedgerEngine newEngine(int lanes, int batchSize) {
+        CardLedgerEngine e = new CardLedgerEngine(cardRepository, cardTxRepository, snapshotService, rollupService, transactionManager);
+        ReflectionTestUtils.setField(e, "laneCount", lanes);
+        ReflectionTestUtils.setField(e, "batchSize", batchSize);
+        ReflectionTestUtils.setField(e, "queueCapacity", 100000);
+        e.start();
+        return e;
+    }
+
+    private List<String> createCards(int n) {
+        List<String> cardNos = new ArrayList<>(n);
+        List<Card> cards = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Card c = new Card();
+            c.setCardNo("T" + (10000 + i));
+            c.setHolderType("STUDENT");
+            c.setStatus("ACTIVE");
+            c.setBalance(INITIAL);
+            cards.add(c);
+            cardNos.add(c.getCardNo());
+        }
+        cardRepository.saveAll(cards);
+        return cardNos;
+    }
+
+    private void assertBalancesMatchTransactions(List<String> cardNos) {
+        Map<String, BigDecimal> txSum = new HashMap<>();
+        for (CardTx tx : cardTxRepository.findAll()) {
+            txSum.merge(tx.getCardNo(), tx.getAmount(), BigDecimal::add);
+        }
+        for (String cardNo : cardNos) {
+            BigDecimal balance = cardRepository.findBalanceByCardNo(cardNo);
+            BigDecimal expected = INITIAL.add(txSum.getOrDefault(cardNo, BigDecimal.ZERO));
+            assertThat(balance).as("balance of %s", cardNo).isEqualByComparingTo(expected);
+            assertThat(balance.signum()).as("balance of %s must not go negative", cardNo).isGreaterThanOrEqualTo(0);
+        }
+    }
+
+    @Test
+    void parallelConsumeAndRechargeKeepBalanceEqualToTransactionSum() throws Exception {
+        engine = newEngine(4, 50);
+        List<String> cardNos = createCards(20);
+        int threads = 8;
+        int opsPerThread = 500;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<CompletableFuture<CardLedgerEngine.LedgerResult>> futures = java.util.Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int i = 0; i < opsPerThread; i++) {
+                    String cardNo = cardNos.get(rnd.nextInt(cardNos.size()));
+                    BigDecimal amount = BigDecimal.valueOf(rnd.nextInt(1, 2000), 2);
+                    futures.add(rnd.nextInt(3) == 0
+                            ? engine.recharge(cardNo, amount, "CASH", null)
+                            : engine.consume(cardNo, amount, "canteen", null));
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertThat(pool.awaitTermination(60, TimeUnit.SECONDS)).isTrue();
+
+        int ok = 0;
+        for (CompletableFuture<CardLedgerEngine.LedgerResult> f : futures) {
+            try {
+                f.get(60, TimeUnit.SECONDS);
+                ok++;
+            } catch (ExecutionException e) {
+                // 余额不足是预期的业务失败，其余异常都不应出现
+                assertThat(e.getCause()).isInstanceOf(CardLedgerException.class);
+            }
+        }
+        assertThat(futures).hasSize(threads * opsPerThread);
+        assertThat(cardTxRepository.count()).isEqualTo(ok);
+        assertBalancesMatchTransactions(cardNos);
+    }
+
+    @Test
+    void failedBatchIsRetriedOneByOneAndOnlyThePoisonOperationFails() throws Exception {
+        engine = newEngine(1, 100);
+        List<String> cardNos = createCards(5);
+        CountDownLatch gateEntered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger failedMultiOpBatches = new AtomicInteger();
+        doAnswer(inv -> {
+            java.util.Collection<CardTx> txs = inv.getArgument(0);
+            if (calls.getAndIncrement() == 0) {
+                // 第一批（只含闸门操作）在事务内阻塞，让后续操作在通道队列里积压成一批
+                gateEntered.countDown();
+                release.await(30, TimeUnit.SECONDS);
+            }
+            for (CardTx tx : txs) {
+                if (POISON.equals(tx.getMerchant())) {
+                    if (txs.size() > 1) failedMultiOpBatches.incrementAndGet();
+                    throw new IllegalStateException("rollup write failed");
+                }
+            }
+            return null;
+        }).when(rollupService).recordTxs(anyCollection());
+
+        CompletableFuture<CardLedgerEngine.LedgerResult> gate = engine.consume(cardNos.get(0), new BigDecimal("1.00"), "gate", null);
+        assertThat(gateEntered.await(30, TimeUnit.SECONDS)).isTrue();
+
+        List<CompletableFuture<CardLedgerEngine.LedgerResult>> good = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            String cardNo = cardNos.get(i % cardNos.size());
+            good.add(i % 4 == 0
+                    ? engine.recharge(cardNo, new BigDecimal("2.50"), "CASH", null)
+                    : engine.consume(cardNo, new BigDecimal("1.25"), "canteen", null));
+        }
+        CompletableFuture<CardLedgerEngine.LedgerResult> poison =
+                engine.consume(cardNos.get(2), new BigDecimal("3.00"), POISON, null);
+        release.countDown();
+
+        gate.get(30, TimeUnit.SECONDS);
+        for (CompletableFuture<CardLedgerEngine.LedgerResult> f : good) {
+            assertThat(f.get(30, TimeUnit.SECONDS).getTxId()).isNotNull();
+        }
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> poison.get(30, TimeUnit.SECONDS));
+        assertThat(failure.getCause()).hasMessageContaining("rollup write failed");
+
+        // 毒操作确实落在了多笔的批次里并触发了整批回滚与逐笔重试
+        assertThat(failedMultiOpBatches.get()).isGreaterThanOrEqualTo(1);
+        assertThat(cardTxRepository.count()).isEqualTo(1 + good.size());
+        assertBalancesMatchTransactions(cardNos);
+    }
+}
@@ -0,0 +1,130 @@
+package com.campus.card.admin.queue;
+
+import com.campus.card.admin.controller.AttendanceController;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisKeyCommands;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 队列层去重的 Redis 往返次数：以计数桩代替连接，统计一批消息的管道调用与管道内命令数。
+ * 改造前每条消息 hasKey + set + expire 各一次往返（一批 N 条为 3N 次）；现在检查与登记各一次管道往返。
+ */
+class AttendanceDedupRoundTripTest {
+    private static final int BATCH = 500;
+
+    private StringRedisTemplate template;
+    private AttendanceDedup dedup;
+    // 桩中“已登记”的键
+    private final Set<String> stored = new HashSet<>();
+    private int roundTrips;
+    private int existsCommands;
+    private int setCommands;
+
+    @BeforeEach
+    void setUp() {
+        template = mock(StringRedisTemplate.class);
+        when(template.executePipelined(any(RedisCallback.class))).thenAnswer(inv -> {
+            roundTrips++;
+            RedisCallback<?> callback = inv.getArgument(0);
+            List<Object> replies = new ArrayList<>();
+            RedisConnection connection = mock(RedisConnection.class);
+            RedisKeyCommands keyCommands = mock(RedisKeyCommands.class);
+            RedisStringCommands stringCommands = mock(RedisStringCommands.class);
+            when(connection.keyCommands()).thenReturn(keyCommands);
+            when(connection.stringCommands()).thenReturn(stringCommands);
+            when(keyCommands.exists(any(byte[].class))).thenAnswer(e -> {
+                existsCommands++;
+                replies.add(stored.contains(new String((byte[]) e.getArgument(0), StandardCharsets.UTF_8)));
+                return null;
+            });
+            when(stringCommands.set(any(byte[].class), any(byte[].class), any(), any())).thenAnswer(e -> {
+                setCommands++;
+                stored.add(new String((byte[]) e.getArgument(0), StandardCharsets.UTF_8));
+                replies.add(Boolean.TRUE);
+                return null;
+            });
+            callback.doInRedis(connection);
+            return replies;
+        });
+        dedup = new AttendanceDedup(template);
+        ReflectionTestUtils.setField(dedup, "ttlHours", 168L);
+    }
+
+    private List<String> keys(int n, int offset) {
+        List<String> keys = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            AttendanceController.CardIngestReq req = new AttendanceController.CardIngestReq();
+            req.setDeviceId(1L);
+            req.setCardNo("C" + (offset + i));
+            req.setAttendanceType("in");
+            req.setAttendanceTime(LocalDateTime.of(2026, 10, 12, 7, 55));
+            keys.add(dedup.keyOf(req));
+        }
+        return keys;
+    }
+
+    @Test
+    void checkAndMarkCostOneRoundTripEachPerBatch() {
+        List<String> batch = keys(BATCH, 0);
+
+        boolean[] fresh = dedup.unseen(batch);
+        assertThat(roundTrips).isEqualTo(1);
+        assertThat(existsCommands).isEqualTo(BATCH);
+        for (boolean f : fresh) assertThat(f).isTrue();
+
+        dedup.mark(batch);
+        assertThat(roundTrips).isEqualTo(2);
+        assertThat(setCommands).isEqualTo(BATCH);
+        verify(template, never()).hasKey(any());
+        verify(template, never()).opsForValue();
+    }
+
+    @Test
+    void redeliveredBatchIsFilteredInOneRoundTrip() {
+        List<String> first = keys(BATCH, 0);
+        dedup.mark(first);
+        roundTrips = 0;
+
+        // 一半重投递、一半新事件，另含批内重复与无法去重的 null 键
+        List<String> next = new ArrayList<>(first.subList(0, BATCH / 2));
+        next.addAll(keys(BATCH / 2, BATCH));
+        next.add(next.get(BATCH - 1));
+        next.add(null);
+
+        boolean[] fresh = dedup.unseen(next);
+        assertThat(roundTrips).isEqualTo(1);
+        int freshCount = 0;
+        for (boolean f : fresh) if (f) freshCount++;
+        assertThat(freshCount).isEqualTo(BATCH / 2 + 1);
+        assertThat(fresh[BATCH / 2 - 1]).isFalse();
+        assertThat(fresh[BATCH - 1]).isTrue();
+        assertThat(fresh[BATCH]).isFalse();
+        assertThat(fresh[BATCH + 1]).isTrue();
+    }
+
+    @Test
+    void emptyBatchDoesNotTouchRedis() {
+        dedup.unseen(new ArrayList<>());
+        dedup.mark(new ArrayList<>());
+        assertThat(roundTrips).isZero();
+    }
+}
@@ -0,0 +1,163 @@
+package com.campus.card.admin.queue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Streams 传输对真实 Redis（6.2+）的集成测试：XADD/XREADGROUP/XACK、空闲超时后的 XAUTOCLAIM 认领、
+ * 超过投递上限转入死信流，以及脚本缓存被清空后 EVALSHA 的 NOSCRIPT 回退。
+ * 未指定 Redis 时跳过：mvn test -Dtest=AttendanceStreamTransportRedisTest -Dredis.host=localhost [-Dredis.port=6379 -Dredis.database=15]
+ * 只使用 redis.database（默认 15）库中的测试分区与死信流，结束后删除；SCRIPT FLUSH 会清空整个实例的脚本缓存。
+ */
+@EnabledIfSystemProperty(named = "redis.host", matches = ".+")
+class AttendanceStreamTransportRedisTest {
+    private static final int P0 = 9001;
+    private static final int P1 = 9002;
+    private static final long MIN_IDLE_MS = 200;
+
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate redis;
+    private AttendanceStreamTransport transport;
+
+    @BeforeEach
+    void setUp() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host"), Integer.getInteger("redis.port", 6379));
+        config.setDatabase(Integer.getInteger("redis.database", 15));
+        String password = System.getProperty("redis.password");
+        if (password != null && !password.isEmpty()) config.setPassword(password);
+        connectionFactory = new LettuceConnectionFactory(config);
+        connectionFactory.afterPropertiesSet();
+        redis = new StringRedisTemplate(connectionFactory);
+        redis.afterPropertiesSet();
+        cleanUp();
+
+        transport = new AttendanceStreamTransport(redis);
+        ReflectionTestUtils.setField(transport, "maxLen", 1000L);
+        ReflectionTestUtils.setField(transport, "minIdleMs", MIN_IDLE_MS);
+        ReflectionTestUtils.setField(transport, "maxDeliveries", 2);
+        ReflectionTestUtils.setField(transport, "deadLetterMaxLen", 1000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cleanUp();
+        connectionFactory.destroy();
+    }
+
+    private void cleanUp() {
+        redis.delete(Arrays.asList(AttendanceQueueKeys.streamKey(P0), AttendanceQueueKeys.streamKey(P1),
+                AttendanceQueueKeys.STREAM_DEAD_LETTER_KEY));
+    }
+
+    private static List<String> bodies(List<AttendanceStreamTransport.Entry> entries) {
+        return entries.stream().map(AttendanceStreamTransport.Entry::getBody).collect(Collectors.toList());
+    }
+
+    private Map<Integer, List<String>> batch(int n) {
+        Map<Integer, List<String>> byPartition = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            byPartition.computeIfAbsent(i % 2 == 0 ? P0 : P1, p -> new ArrayList<>()).add("{\"seq\":" + i + "}");
+        }
+        return byPartition;
+    }
+
+    @Test
+    void addReadAndAck() {
+        Map<Integer, List<String>> sent = batch(10);
+        transport.addAll(sent);
+        transport.add(P0, "{\"seq\":100}");
+
+        String key = AttendanceQueueKeys.streamKey(P0);
+        List<AttendanceStreamTransport.Entry> read = transport.read(key, "c1", 100);
+        List<String> expected = new ArrayList<>(sent.get(P0));
+        expected.add("{\"seq\":100}");
+        assertThat(bodies(read)).containsExactlyElementsOf(expected);
+        assertThat(transport.pendingCount(key)).isEqualTo(expected.size());
+        // 已投递给本组的消息不会再被读到
+        assertThat(transport.read(key, "c1", 100)).isEmpty();
+
+        transport.ack(key, read);
+        assertThat(transport.pendingCount(key)).isZero();
+        assertThat(bodies(transport.read(AttendanceQueueKeys.streamKey(P1), "c1", 100)))
+                .containsExactlyElementsOf(sent.get(P1));
+    }
+
+    @Test
+    void reclaimsOnlyAfterMinIdle() throws InterruptedException {
+        String key = AttendanceQueueKeys.streamKey(P0);
+        transport.add(P0, "{\"seq\":1}");
+        List<AttendanceStreamTransport.Entry> read = transport.read(key, "crashed", 10);
+        assertThat(read).hasSize(1);
+
+        assertThat(transport.reclaim(key, "c2", 10)).isEmpty();
+        Thread.sleep(MIN_IDLE_MS + 100);
+        List<AttendanceStreamTransport.Entry> claimed = transport.reclaim(key, "c2", 10);
+        assertThat(claimed).hasSize(1);
+        assertThat(claimed.get(0).getId()).isEqualTo(read.get(0).getId());
+        assertThat(claimed.get(0).getBody()).isEqualTo("{\"seq\":1}");
+
+        transport.ack(key, claimed);
+        assertThat(transport.pendingCount(key)).isZero();
+        assertThat(redis.opsForStream().size(AttendanceQueueKeys.STREAM_DEAD_LETTER_KEY)).isZero();
+    }
+
+    @Test
+    void deadLettersAfterMaxDeliveries() throws InterruptedException {
+        String key = AttendanceQueueKeys.streamKey(P0);
+        transport.add(P0, "{\"poison\":true}");
+        String id = transport.read(key, "c1", 10).get(0).getId();
+
+        // 第 2 次投递（达到上限 2）
+        Thread.sleep(MIN_IDLE_MS + 100);
+        assertThat(transport.reclaim(key, "c2", 10)).hasSize(1);
+        // 再次空闲超时后不再认领，转入死信流并确认
+        Thread.sleep(MIN_IDLE_MS + 100);
+        assertThat(transport.reclaim(key, "c3", 10)).isEmpty();
+        assertThat(transport.pendingCount(key)).isZero();
+
+        List<MapRecord<String, Object, Object>> dead = redis.opsForStream().range(
+                AttendanceQueueKeys.STREAM_DEAD_LETTER_KEY, org.springframework.data.domain.Range.unbounded());
+        assertThat(dead).hasSize(1);
+        Map<Object, Object> fields = dead.get(0).getValue();
+        assertThat(fields.get("body")).isEqualTo("{\"poison\":true}");
+        assertThat(fields.get("stream")).isEqualTo(key);
+        assertThat(fields.get("sourceId")).isEqualTo(id);
+        assertThat(fields.get("deliveries")).isEqualTo("2");
+    }
+
+    @Test
+    void addAllFallsBackToEvalAfterScriptFlush() {
+        redis.execute((RedisCallback<Object>) connection -> {
+            connection.scriptingCommands().scriptFlush();
+            return null;
+        });
+        Map<Integer, List<String>> sent = batch(6);
+        transport.addAll(sent);
+        // 回退时已 SCRIPT LOAD，下一批直接走 EVALSHA
+        transport.addAll(Collections.singletonMap(P0, Collections.singletonList("{\"seq\":6}")));
+
+        List<String> expected = new ArrayList<>(sent.get(P0));
+        expected.add("{\"seq\":6}");
+        assertThat(bodies(transport.read(AttendanceQueueKeys.streamKey(P0), "c1", 100))).containsExactlyElementsOf(expected);
+        assertThat(bodies(transport.read(AttendanceQueueKeys.streamKey(P1), "c1", 100))).containsExactlyElementsOf(sent.get(P1));
+    }
+}
@@ -0,0 +1,188 @@
+package com.campus.card.admin.report;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * LongSumMap / TopK / RankingAccumulator 与 HashMap 汇总 + 全量排序的结果逐项比对。
+ */
+class RankingStructuresTest {
+
+    /** 参照实现：按分值倒序、分值相同按 key 升序，取前 k 个 */
+    private static long[][] expectedTop(Map<Long, Long> sums, int k) {
+        List<Map.Entry<Long, Long>> entries = new ArrayList<>(sums.entrySet());
+        entries.sort((a, b) -> !a.getValue().equals(b.getValue())
+                ? Long.compare(b.getValue(), a.getValue())
+                : Long.compare(a.getKey(), b.getKey()));
+        int n = Math.min(k, entries.size());
+        long[][] out = new long[n][];
+        for (int i = 0; i < n; i++) {
+            out[i] = new long[]{entries.get(i).getKey(), entries.get(i).getValue()};
+        }
+        return out;
+    }
+
+    private static Map<Long, Long> toHashMap(LongSumMap map) {
+        Map<Long, Long> out = new HashMap<>();
+        map.forEach(out::put);
+        return out;
+    }
+
+    @Test
+    void longSumMapMatchesHashMapAcrossRehash() {
+        // 初始容量很小，插入远超 3/4 负载，触发多次扩容
+        LongSumMap map = new LongSumMap(2);
+        Map<Long, Long> expected = new HashMap<>();
+        Random rnd = new Random(1);
+        for (int i = 0; i < 50_000; i++) {
+            long key = rnd.nextInt(5_000) - 2_500L;
+            long delta = rnd.nextInt(1_000) - 100;
+            long after = map.add(key, delta);
+            expected.merge(key, delta, Long::sum);
+            assertThat(after).isEqualTo(expected.get(key));
+        }
+        assertThat(map.size()).isEqualTo(expected.size());
+        assertThat(toHashMap(map)).isEqualTo(expected);
+        for (Map.Entry<Long, Long> e : expected.entrySet()) {
+            assertThat(map.get(e.getKey())).isEqualTo(e.getValue());
+        }
+        assertThat(map.get(999_999L)).isZero();
+    }
+
+    @Test
+    void longSumMapKeepsEntriesAtLoadFactorBoundary() {
+        LongSumMap map = new LongSumMap(4);
+        Map<Long, Long> expected = new HashMap<>();
+        for (long key = 1; key <= 200; key++) {
+            map.add(key * 1_000_003L, key);
+            expected.put(key * 1_000_003L, key);
+            assertThat(toHashMap(map)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void longSumMapRejectsSentinelKey() {
+        assertThrows(IllegalArgumentException.class, () -> new LongSumMap().add(Long.MIN_VALUE, 1));
+    }
+
+    @Test
+    void longSumMapMergeAddsOverlappingKeys() {
+        LongSumMap a = new LongSumMap();
+        LongSumMap b = new LongSumMap();
+        Map<Long, Long> expected = new HashMap<>();
+        for (long k = 0; k < 300; k++) {
+            a.add(k, k);
+            expected.merge(k, k, Long::sum);
+        }
+        for (long k = 200; k < 600; k++) {
+            b.add(k, 10);
+            expected.merge(k, 10L, Long::sum);
+        }
+        a.merge(b);
+        assertThat(toHashMap(a)).isEqualTo(expected);
+        assertThat(a.get(250)).isEqualTo(260);
+    }
+
+    @Test
+    void topKWithKLargerThanN() {
+        TopK top = new TopK(1_000);
+        Map<Long, Long> sums = new HashMap<>();
+        Random rnd = new Random(2);
+        for (long key = 0; key < 37; key++) {
+            long v = rnd.nextInt(100);
+            top.offer(key, v);
+            sums.put(key, v);
+        }
+        assertThat(top.size()).isEqualTo(37);
+        assertThat(top.sortedDesc()).isDeepEqualTo(expectedTop(sums, 1_000));
+    }
+
+    @Test
+    void topKWithKSmallerThanN() {
+        Random rnd = new Random(3);
+        for (int k : new int[]{1, 7, 8, 9, 50}) {
+            TopK top = new TopK(k);
+            Map<Long, Long> sums = new HashMap<>();
+            for (long key = 0; key < 5_000; key++) {
+                // 值域很小，大量同分，同时检验同分按 key 升序
+                long v = rnd.nextInt(20);
+                top.offer(key, v);
+                sums.put(key, v);
+            }
+            assertThat(top.size()).isEqualTo(k);
+            assertThat(top.sortedDesc()).isDeepEqualTo(expectedTop(sums, k));
+        }
+    }
+
+    @Test
+    void topKTieBreaksOnLowerKey() {
+        TopK top = new TopK(2);
+        top.offer(30, 5);
+        top.offer(10, 5);
+        top.offer(20, 5);
+        top.offer(5, 4);
+        assertThat(top.sortedDesc()).isDeepEqualTo(new long[][]{{10, 5}, {20, 5}});
+    }
+
+    @Test
+    void topKGrowsUpToK() {
+        // k 不是初始容量的倍数，最后一次扩容应截到 k
+        int k = 100;
+        TopK top = new TopK(k);
+        Map<Long, Long> sums = new HashMap<>();
+        for (long key = 0; key < 1_000; key++) {
+            top.offer(key, key % 97);
+            sums.put(key, key % 97);
+            assertThat(top.size()).isEqualTo((int) Math.min(k, key + 1));
+        }
+        assertThat(top.sortedDesc()).isDeepEqualTo(expectedTop(sums, k));
+    }
+
+    @Test
+    void topKMergeOfDisjointShards() {
+        TopK a = new TopK(10);
+        TopK b = new TopK(10);
+        Map<Long, Long> sums = new HashMap<>();
+        for (long key = 0; key < 200; key++) {
+            long v = (key * 31) % 113;
+            (key % 2 == 0 ? a : b).offer(key, v);
+            sums.put(key, v);
+        }
+        a.merge(b);
+        assertThat(a.sortedDesc()).isDeepEqualTo(expectedTop(sums, 10));
+    }
+
+    @Test
+    void rankingAccumulatorMergeMatchesFullSort() {
+        RankingAccumulator<String> left = new RankingAccumulator<>();
+        RankingAccumulator<String> right = new RankingAccumulator<>();
+        Map<String, Map<Long, Long>> expected = new HashMap<>();
+        Random rnd = new Random(4);
+        String[] partitions = {"A", "B", "C"};
+        for (int i = 0; i < 20_000; i++) {
+            String p = partitions[rnd.nextInt(partitions.length)];
+            long student = rnd.nextInt(400);
+            long cents = rnd.nextInt(2_000);
+            (i % 2 == 0 ? left : right).accept(p, student, cents);
+            expected.computeIfAbsent(p, x -> new HashMap<>()).merge(student, cents, Long::sum);
+        }
+        // 只出现在一侧的分区
+        right.accept("D", 1L, 5L);
+        expected.computeIfAbsent("D", x -> new HashMap<>()).put(1L, 5L);
+
+        left.merge(right);
+        Map<String, TopK> tops = left.topK(15);
+        assertThat(tops.keySet()).containsExactlyInAnyOrderElementsOf(expected.keySet());
+        for (Map.Entry<String, Map<Long, Long>> e : expected.entrySet()) {
+            assertThat(tops.get(e.getKey()).sortedDesc()).isDeepEqualTo(expectedTop(e.getValue(), 15));
+        }
+    }
+}
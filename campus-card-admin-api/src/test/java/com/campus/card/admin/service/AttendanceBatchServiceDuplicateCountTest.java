@@ -0,0 +1,112 @@
+package com.campus.card.admin.service;
+
+import com.campus.card.admin.controller.AttendanceController;
+import com.campus.card.admin.domain.Card;
+import com.campus.card.admin.domain.StudentInfo;
+import com.campus.card.admin.repository.AttendanceRecordWriter;
+import com.campus.card.admin.repository.CardRepository;
+import com.campus.card.admin.repository.FaceRecognitionLogRepository;
+import com.campus.card.admin.repository.StudentRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 考勤批量入库的新增/重复计数：同一批重复提交时第二次应全部计为重复，批内重复也计为重复。
+ * 计数不依赖 INSERT ... ON DUPLICATE KEY UPDATE 的影响行数（MySQL 驱动默认把命中唯一键的行也计为 1）。
+ */
+@DataJpaTest
+@ActiveProfiles("test")
+@Import({AttendanceRecordWriter.class, AttendanceResolveCache.class})
+class AttendanceBatchServiceDuplicateCountTest {
+    private static final LocalDateTime AT = LocalDateTime.of(2026, 10, 12, 7, 55);
+
+    @Autowired
+    private AttendanceRecordWriter attendanceRecordWriter;
+    @Autowired
+    private AttendanceResolveCache resolveCache;
+    @Autowired
+    private FaceRecognitionLogRepository faceRecognitionLogRepository;
+    @Autowired
+    private StudentRepository studentRepository;
+    @Autowired
+    private CardRepository cardRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private AttendanceBatchService batchService;
+
+    @BeforeEach
+    void setUp() {
+        // 测试库由实体建表，补上补丁 2026-10-18-attendance-record-unique.sql 中的唯一索引
+        jdbcTemplate.execute("CREATE UNIQUE INDEX IF NOT EXISTS uk_attendance_dedup " +
+                "ON attendance_record (student_id, attendance_time, check_type, attendance_type)");
+        batchService = new AttendanceBatchService(attendanceRecordWriter, faceRecognitionLogRepository,
+                resolveCache, mock(AttendanceService.class));
+    }
+
+    private List<AttendanceController.CardIngestReq> swipes(int n) {
+        List<AttendanceController.CardIngestReq> reqs = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            StudentInfo s = new StudentInfo();
+            s.setName("S" + i);
+            s.setStudentNo("DUP" + i);
+            s.setClassId(1L);
+            s.setStatus(1);
+            studentRepository.save(s);
+            Card card = new Card();
+            card.setCardNo("DC" + i);
+            card.setHolderType("STUDENT");
+            card.setHolderId(s.getStudentNo());
+            card.setStatus("ACTIVE");
+            card.setBalance(BigDecimal.ZERO);
+            cardRepository.save(card);
+
+            AttendanceController.CardIngestReq req = new AttendanceController.CardIngestReq();
+            req.setDeviceId(1L);
+            req.setCardNo(card.getCardNo());
+            req.setAttendanceType("IN");
+            req.setAttendanceTime(AT.plusSeconds(i));
+            reqs.add(req);
+        }
+        return reqs;
+    }
+
+    @Test
+    void resubmittedBatchCountsEveryRecordAsDuplicate() {
+        int n = 30;
+        List<AttendanceController.CardIngestReq> reqs = swipes(n);
+
+        AttendanceBatchService.BatchResult first = batchService.processCardBatch(reqs);
+        assertThat(first.getInserted()).isEqualTo(n);
+        assertThat(first.getDuplicates()).isZero();
+
+        AttendanceBatchService.BatchResult second = batchService.processCardBatch(reqs);
+        assertThat(second.getInserted()).isZero();
+        assertThat(second.getDuplicates()).isEqualTo(n);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM attendance_record", Integer.class)).isEqualTo(n);
+    }
+
+    @Test
+    void duplicatesWithinOneBatchAreCounted() {
+        List<AttendanceController.CardIngestReq> reqs = swipes(10);
+        List<AttendanceController.CardIngestReq> doubled = new ArrayList<>(reqs);
+        doubled.addAll(reqs.subList(0, 4));
+
+        AttendanceBatchService.BatchResult result = batchService.processCardBatch(doubled);
+        assertThat(result.getInserted()).isEqualTo(10);
+        assertThat(result.getDuplicates()).isEqualTo(4);
+    }
+}
@@ -0,0 +1,141 @@
+package com.campus.card.admin.service;
+
+import com.campus.card.admin.domain.Card;
+import com.campus.card.admin.domain.CardTx;
+import com.campus.card.admin.domain.Clazz;
+import com.campus.card.admin.domain.StudentInfo;
+import com.campus.card.admin.repository.CardRepository;
+import com.campus.card.admin.repository.CardTxRepository;
+import com.campus.card.admin.repository.ClazzRepository;
+import com.campus.card.admin.repository.StudentRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 班级/个人消费报表的 SQL 条数不随学生数、卡片数增长（防止回退为逐学生、逐卡查询的 N+1）。
+ * 借助 hibernate.generate_statistics 统计一次报表调用预编译的语句数。
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@ActiveProfiles("test")
+@Import(ReportService.class)
+class ReportServiceQueryCountTest {
+    private static final LocalDate DAY = LocalDate.of(2026, 10, 1);
+
+    @Autowired
+    private ReportService reportService;
+    @Autowired
+    private ClazzRepository clazzRepository;
+    @Autowired
+    private StudentRepository studentRepository;
+    @Autowired
+    private CardRepository cardRepository;
+    @Autowired
+    private CardTxRepository cardTxRepository;
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+    private int seq;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    /** 建一个班级，每个学生 cardsPerStudent 张卡、每张卡 2 笔消费 */
+    private Long createClass(int students, int cardsPerStudent) {
+        Clazz clazz = new Clazz();
+        clazz.setName("C" + (++seq));
+        Long classId = clazzRepository.save(clazz).getId();
+        for (int i = 0; i < students; i++) {
+            StudentInfo s = new StudentInfo();
+            s.setName("S" + seq + "-" + i);
+            s.setStudentNo("NO" + seq + "-" + i);
+            s.setClassId(classId);
+            s.setStatus(1);
+            studentRepository.save(s);
+            createCards(s.getStudentNo(), cardsPerStudent);
+        }
+        entityManager.flush();
+        entityManager.clear();
+        return classId;
+    }
+
+    private void createCards(String studentNo, int n) {
+        List<CardTx> txs = new ArrayList<>();
+        for (int c = 0; c < n; c++) {
+            Card card = new Card();
+            card.setCardNo(studentNo + "-" + c);
+            card.setHolderType("STUDENT");
+            card.setHolderId(studentNo);
+            card.setStatus("ACTIVE");
+            card.setBalance(new BigDecimal("100.00"));
+            cardRepository.save(card);
+            for (int t = 0; t < 2; t++) {
+                CardTx tx = new CardTx();
+                tx.setCardNo(card.getCardNo());
+                tx.setType("CONSUME");
+                tx.setAmount(new BigDecimal("-1.50"));
+                tx.setBalanceAfter(new BigDecimal("97.00"));
+                tx.setMerchant("canteen");
+                tx.setOccurredAt(DAY.atTime(12, t));
+                txs.add(tx);
+            }
+        }
+        cardTxRepository.saveAll(txs);
+    }
+
+    private long statementsOf(Supplier<?> report) {
+        statistics.clear();
+        report.get();
+        return statistics.getPrepareStatementCount();
+    }
+
+    @Test
+    void classConsumeStatementCountIsConstantInClassSize() {
+        Long small = createClass(2, 1);
+        Long large = createClass(20, 3);
+
+        long smallCount = statementsOf(() -> reportService.classConsume(small, DAY, DAY));
+        long largeCount = statementsOf(() -> reportService.classConsume(large, DAY, DAY));
+
+        assertThat(reportService.classConsume(large, DAY, DAY).getTxCount()).isEqualTo(20 * 3 * 2);
+        // 班级 + 名单 + 一次按学生汇总
+        assertThat(smallCount).isBetween(1L, 3L);
+        assertThat(largeCount).isEqualTo(smallCount);
+    }
+
+    @Test
+    void personalConsumeStatementCountIsConstantInCardCount() {
+        createClass(1, 1);
+        String few = "NO" + seq + "-0";
+        createClass(1, 10);
+        String many = "NO" + seq + "-0";
+
+        long fewCount = statementsOf(() -> reportService.personalConsume(null, few, DAY, DAY));
+        long manyCount = statementsOf(() -> reportService.personalConsume(null, many, DAY, DAY));
+
+        assertThat(reportService.personalConsume(null, many, DAY, DAY).getTxCount()).isEqualTo(10 * 2);
+        // 学生 + 名下卡片 + 一次 IN 列表取流水
+        assertThat(fewCount).isBetween(1L, 3L);
+        assertThat(manyCount).isEqualTo(fewCount);
+    }
+}
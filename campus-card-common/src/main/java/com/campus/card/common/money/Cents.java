@@ -0,0 +1,74 @@
+package com.campus.card.common.money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * 金额定点运算：统计/汇总过程中统一以“分”（long）累加，只在接口边界转换为 BigDecimal 或 double，
+ * 避免逐行分配 BigDecimal 以及 double 累加带来的精度误差。
+ */
+public final class Cents {
+    private Cents() {}
+
+    /** 元 -> 分（四舍五入到分）；null 视为 0 */
+    public static long of(BigDecimal yuan) {
+        if (yuan == null) return 0L;
+        return yuan.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    /** 元的绝对值 -> 分，消费流水金额为负值时使用 */
+    public static long abs(BigDecimal yuan) {
+        return Math.abs(of(yuan));
+    }
+
+    /** 分 -> 元（两位小数） */
+    public static BigDecimal toYuan(long cents) {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    /** 分 -> 元（double，仅用于返回 double 的既有接口） */
+    public static double toYuanDouble(long cents) {
+        return cents / 100.0;
+    }
+
+    /** 分的整数除法，结果四舍五入到分（如日均金额） */
+    public static long divide(long cents, long divisor) {
+        if (divisor == 0) throw new ArithmeticException("divide by zero");
+        long q = cents / divisor;
+        long r = cents % divisor;
+        if (Math.abs(r) * 2 >= Math.abs(divisor)) {
+            q += (cents < 0) == (divisor < 0) ? 1 : -1;
+        }
+        return q;
+    }
+
+    /** 可变累加器：一个金额合计（分）加笔数 */
+    public static final class Sum {
+        private long cents;
+        private int count;
+
+        public Sum add(long deltaCents) {
+            cents += deltaCents;
+            count++;
+            return this;
+        }
+
+        public Sum merge(Sum other) {
+            cents += other.cents;
+            count += other.count;
+            return this;
+        }
+
+        public long getCents() {
+            return cents;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public BigDecimal toYuan() {
+            return Cents.toYuan(cents);
+        }
+    }
+}
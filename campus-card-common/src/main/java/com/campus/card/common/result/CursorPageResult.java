@@ -0,0 +1,22 @@
+package com.campus.card.common.result;
+
+import lombok.Data;
+import java.util.List;
+
+/**
+ * 游标（keyset）分页结果：nextCursor 为下一页起点，hasMore 为 false 时表示已到末页。
+ */
+@Data
+public class CursorPageResult<T> {
+    private List<T> records;
+    private String nextCursor;
+    private boolean hasMore;
+
+    public static <T> CursorPageResult<T> of(List<T> records, String nextCursor) {
+        CursorPageResult<T> pr = new CursorPageResult<>();
+        pr.setRecords(records);
+        pr.setNextCursor(nextCursor);
+        pr.setHasMore(nextCursor != null);
+        return pr;
+    }
+}
@@ -0,0 +1,81 @@
+package com.campus.card.common.money;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 元/分换算与分的除法均按 HALF_UP（远离零方向）舍入，结果与 BigDecimal 同口径计算一致。
+ */
+class CentsTest {
+
+    @Test
+    void ofRoundsHalfUpToCents() {
+        assertEquals(0L, Cents.of(null));
+        assertEquals(1234L, Cents.of(new BigDecimal("12.34")));
+        assertEquals(1235L, Cents.of(new BigDecimal("12.345")));
+        assertEquals(1234L, Cents.of(new BigDecimal("12.3449")));
+        assertEquals(-1235L, Cents.of(new BigDecimal("-12.345")));
+        assertEquals(-1234L, Cents.of(new BigDecimal("-12.3449")));
+        assertEquals(1L, Cents.of(new BigDecimal("0.005")));
+        assertEquals(0L, Cents.of(new BigDecimal("0.0049")));
+        assertEquals(1200L, Cents.of(new BigDecimal("12")));
+        assertEquals(1200L, Cents.of(new BigDecimal("1.2E+1")));
+    }
+
+    @Test
+    void ofRejectsOverflow() {
+        assertThrows(ArithmeticException.class, () -> Cents.of(new BigDecimal("1E+30")));
+    }
+
+    @Test
+    void absAndToYuan() {
+        assertEquals(150L, Cents.abs(new BigDecimal("-1.50")));
+        assertEquals(new BigDecimal("-1.50"), Cents.toYuan(-150L));
+        assertEquals(new BigDecimal("0.00"), Cents.toYuan(0L));
+        assertEquals(12.34, Cents.toYuanDouble(1234L), 0.0);
+    }
+
+    @Test
+    void divideRoundsHalfUpAwayFromZero() {
+        assertEquals(3L, Cents.divide(5, 2));
+        assertEquals(-3L, Cents.divide(-5, 2));
+        assertEquals(-3L, Cents.divide(5, -2));
+        assertEquals(3L, Cents.divide(-5, -2));
+        assertEquals(1L, Cents.divide(4, 3));
+        assertEquals(2L, Cents.divide(5, 3));
+        assertEquals(-1L, Cents.divide(-4, 3));
+        assertEquals(-2L, Cents.divide(-5, 3));
+        assertEquals(0L, Cents.divide(0, 7));
+        assertEquals(3333L, Cents.divide(10000, 3));
+        assertThrows(ArithmeticException.class, () -> Cents.divide(1, 0));
+    }
+
+    @Test
+    void divideMatchesBigDecimalHalfUp() {
+        Random rnd = new Random(5);
+        for (int i = 0; i < 100_000; i++) {
+            long cents = rnd.nextInt(2_000_001) - 1_000_000L;
+            long divisor = rnd.nextInt(401) - 200L;
+            if (divisor == 0) continue;
+            long expected = BigDecimal.valueOf(cents)
+                    .divide(BigDecimal.valueOf(divisor), 0, RoundingMode.HALF_UP).longValueExact();
+            assertEquals(expected, Cents.divide(cents, divisor), cents + " / " + divisor);
+        }
+    }
+
+    @Test
+    void sumAddsAndMerges() {
+        Cents.Sum a = new Cents.Sum().add(150).add(-50);
+        Cents.Sum b = new Cents.Sum().add(1);
+        a.merge(b);
+        assertEquals(101L, a.getCents());
+        assertEquals(3, a.getCount());
+        assertEquals(new BigDecimal("1.01"), a.toYuan());
+    }
+}
@@ -1,5 +1,6 @@
 package com.campus.card.wechat.controller;
 
+import com.campus.card.common.money.Cents;
 import com.campus.card.common.result.Result;
 import com.campus.card.wechat.model.ConsumeRecord;
 import lombok.Data;
@@ -7,7 +8,6 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.web.bind.annotation.*;
 
-import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.*;
 
@@ -49,14 +49,17 @@ public class ConsumeController {
         LocalDate end = endDate != null ? LocalDate.parse(endDate) : LocalDate.now();
         ensureSampleData(cid, start, end);
         List<ConsumeRecord> records = consumeRepo.findByChildIdAndDateBetween(cid, start, end);
-        double total = records.stream().map(ConsumeRecord::getAmount).mapToDouble(BigDecimal::doubleValue).sum();
+        // 以分累加，避免 double 累加误差，返回时再换算为元
+        long totalCents = 0;
+        for (ConsumeRecord r : records) {
+            totalCents += Cents.of(r.getAmount());
+        }
         int txCount = records.size();
         long days = Math.max(1, java.time.temporal.ChronoUnit.DAYS.between(start, end) + 1);
-        double avgPerDay = total / days;
         ConsumeStats s = new ConsumeStats();
-        s.setTotalAmount(round2(total));
+        s.setTotalAmount(Cents.toYuanDouble(totalCents));
         s.setTxCount(txCount);
-        s.setAvgPerDay(round2(avgPerDay));
+        s.setAvgPerDay(Cents.toYuanDouble(Cents.divide(totalCents, days)));
         return Result.ok(s);
     }
 
@@ -68,21 +71,22 @@ public class ConsumeController {
         LocalDate last = first.withDayOfMonth(first.lengthOfMonth());
         ensureSampleData(cid, first, last);
         List<ConsumeRecord> records = consumeRepo.findByChildIdAndDateBetween(cid, first, last);
-        Map<String, DailyStat> map = new LinkedHashMap<>();
+        long[] cents = new long[first.lengthOfMonth() + 1];
+        int[] counts = new int[first.lengthOfMonth() + 1];
+        for (ConsumeRecord r : records) {
+            int d = r.getDate().getDayOfMonth();
+            cents[d] += Cents.of(r.getAmount());
+            counts[d]++;
+        }
+        List<DailyStat> list = new ArrayList<>(first.lengthOfMonth());
         for (int d = 1; d <= first.lengthOfMonth(); d++) {
-            String dateStr = first.withDayOfMonth(d).toString();
             DailyStat stat = new DailyStat();
-            stat.setDate(dateStr);
-            stat.setTotalAmount(0.0);
-            stat.setTxCount(0);
-            map.put(dateStr, stat);
+            stat.setDate(first.withDayOfMonth(d).toString());
+            stat.setTotalAmount(Cents.toYuanDouble(cents[d]));
+            stat.setTxCount(counts[d]);
+            list.add(stat);
         }
-        for (ConsumeRecord r : records) {
-            DailyStat s = map.get(r.getDate().toString());
-            s.setTotalAmount(round2(s.getTotalAmount() + r.getAmount().doubleValue()));
-            s.setTxCount(s.getTxCount() + 1);
-        }
-        return Result.ok(new ArrayList<>(map.values()));
+        return Result.ok(list);
     }
 
     @GetMapping("/trend")
@@ -94,17 +98,15 @@ public class ConsumeController {
         LocalDate end = endDate != null ? LocalDate.parse(endDate) : LocalDate.now();
         ensureSampleData(cid, start, end);
         List<ConsumeRecord> records = consumeRepo.findByChildIdAndDateBetween(cid, start, end);
-        Map<String, Double> dailyTotal = new LinkedHashMap<>();
-        for (LocalDate d = start; !d.isAfter(end); d = d.plusDays(1)) {
-            dailyTotal.put(d.toString(), 0.0);
-        }
+        int days = (int) java.time.temporal.ChronoUnit.DAYS.between(start, end) + 1;
+        long[] dailyCents = new long[Math.max(0, days)];
         for (ConsumeRecord r : records) {
-            String ds = r.getDate().toString();
-            dailyTotal.put(ds, round2(dailyTotal.get(ds) + r.getAmount().doubleValue()));
+            int idx = (int) java.time.temporal.ChronoUnit.DAYS.between(start, r.getDate());
+            if (idx >= 0 && idx < dailyCents.length) dailyCents[idx] += Cents.of(r.getAmount());
         }
-        List<TrendPoint> series = new ArrayList<>();
-        for (Map.Entry<String, Double> e : dailyTotal.entrySet()) {
-            series.add(new TrendPoint(e.getKey(), e.getValue()));
+        List<TrendPoint> series = new ArrayList<>(dailyCents.length);
+        for (int i = 0; i < dailyCents.length; i++) {
+            series.add(new TrendPoint(start.plusDays(i).toString(), Cents.toYuanDouble(dailyCents[i])));
         }
         return Result.ok(series);
     }